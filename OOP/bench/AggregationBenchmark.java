@@ -0,0 +1,68 @@
+import java.util.List;
+
+/**
+ * Compares three ways of computing the summary figures against the local database:
+ * streaming every row into ExpenseStatistics in the JVM, a GROUP BY in PostgreSQL,
+ * and reading the trigger-maintained rollup table.
+ *
+ * Usage: java -cp "bin;lib/postgresql-42.7.6.jar" AggregationBenchmark [rows] [iterations]
+ * The benchmark rows are inserted first and deleted at the end.
+ */
+public class AggregationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int iterations = args.length > 1 ? Math.max(2, Integer.parseInt(args[1])) : 5;
+
+        Class.forName("org.postgresql.Driver");
+        ExpenseTrackerDAO dao = new ExpenseTrackerDAO();
+        List<CategorizedExpense> data = InsertBenchmark.generate(rows);
+        try {
+            dao.addExpensesWithCopy(data);
+            System.out.printf("Seeded %d rows%n", rows);
+            System.out.printf("%-10s %12s %12s%n", "mode", "avg millis", "groups");
+
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                ExpenseStatistics statistics = new ExpenseStatistics();
+                try (ExpenseCursor cursor = dao.openCursor()) {
+                    cursor.forEachRemaining(statistics::accept);
+                }
+                report("jvm", i, iterations, System.nanoTime() - start, statistics);
+            }
+
+            dao.setUseRollups(false);
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                ExpenseStatistics statistics = dao.getStatistics();
+                report("group-by", i, iterations, System.nanoTime() - start, statistics);
+            }
+
+            dao.setUseRollups(true);
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                ExpenseStatistics statistics = dao.getStatistics();
+                report("rollup", i, iterations, System.nanoTime() - start, statistics);
+            }
+        } finally {
+            InsertBenchmark.cleanUp(dao, data);
+            dao.close();
+        }
+    }
+
+    private static long totalNanos;
+
+    private static void report(String mode, int iteration, int iterations, long nanos,
+                               ExpenseStatistics statistics) {
+        // The first iteration is warm-up and is not counted
+        if (iteration == 0) {
+            totalNanos = 0;
+            return;
+        }
+        totalNanos += nanos;
+        if (iteration == iterations - 1) {
+            System.out.printf("%-10s %12.1f %12d%n", mode,
+                    totalNanos / 1_000_000.0 / (iterations - 1), statistics.getByDay().size());
+        }
+    }
+}
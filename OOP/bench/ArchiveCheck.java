@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks that archiving a month never loses archived rows: it archives a month long
+ * before any real data, adds rows for that month again, archives it a second time and
+ * verifies that both archive files are there with all of their rows.
+ *
+ * Usage: java -cp "bin;lib/postgresql-42.7.6.jar" ArchiveCheck [rows]
+ * Refuses to run if the database holds anything before the check's month, since that
+ * would be archived too. Exits with status 1 if a row is missing.
+ */
+public class ArchiveCheck {
+
+    private static final YearMonth MONTH = YearMonth.of(1990, 1);
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        Class.forName("org.postgresql.Driver");
+        ExpenseTrackerDAO dao = new ExpenseTrackerDAO();
+        Path directory = Files.createTempDirectory("expense-archive-");
+        boolean passed = true;
+        try {
+            try (ConnectionPool.PooledConnection conn = dao.getConnection()) {
+                if (!ExpenseSchema.getMonthPartitions(conn.getConnection()).keySet().stream()
+                        .allMatch(month -> month.isAfter(MONTH))) {
+                    System.out.println("The database has partitions from " + MONTH + " or before; not running");
+                    System.exit(2);
+                }
+            }
+            List<String> first = addAndArchive(dao, directory, rows, "first");
+            List<String> second = addAndArchive(dao, directory, rows, "second");
+
+            String partition = "expenses_p" + MONTH.getYear() + "_" + String.format("%02d", MONTH.getMonthValue());
+            passed &= check(directory.resolve(partition + ".csv.gz"), first);
+            passed &= check(directory.resolve(partition + "-2.csv.gz"), second);
+        } finally {
+            dao.close();
+        }
+        System.out.println("archive files in " + directory);
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /** Adds rows for the month, gives it its own partition again and archives it. */
+    private static List<String> addAndArchive(ExpenseTrackerDAO dao, Path directory, int rows, String round)
+            throws Exception {
+        List<CategorizedExpense> expenses = new ArrayList<>();
+        List<String> descriptions = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            String description = "Archive check " + round + " " + i;
+            expenses.add(new CategorizedExpense(i + 1, "Food", description, MONTH.atDay(1 + i % 28)));
+            descriptions.add(description);
+        }
+        dao.addExpenses(expenses);
+        // The rows land in the default partition; this moves them into a monthly one
+        try (ConnectionPool.PooledConnection conn = dao.getConnection()) {
+            conn.getConnection().setAutoCommit(false);
+            ExpenseSchema.addMonthPartitions(conn.getConnection(), MONTH, MONTH);
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+        }
+        long archived = dao.archiveMonthsBefore(MONTH.plusMonths(1), directory);
+        System.out.println(round + " archive: " + archived + " rows");
+        return descriptions;
+    }
+
+    private static boolean check(Path file, List<String> expected) throws Exception {
+        if (!Files.exists(file)) {
+            System.out.println(file.getFileName() + ": missing");
+            return false;
+        }
+        List<String> missing = new ArrayList<>(expected);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // The id column follows the description
+                String row = line;
+                missing.removeIf(description -> row.contains(description + ","));
+            }
+        }
+        System.out.println(file.getFileName() + ": expected " + expected.size() + ", missing " + missing.size());
+        return missing.isEmpty();
+    }
+}
@@ -0,0 +1,93 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A minimal microbenchmark harness for the benchmarks in this folder: runs an
+ * operation for a number of warm-up iterations, then measures time and bytes
+ * allocated per iteration on the calling thread.
+ *
+ * Results are consumed into a volatile field so the JIT cannot drop the work.
+ * Run with a fixed heap (-Xms = -Xmx) to keep GC noise comparable between runs.
+ */
+class Bench {
+
+    /** A measured operation. The result is consumed so the work is not optimised away. */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    /** Prepares fresh state before each iteration, outside the timed section. */
+    interface Setup {
+        void run() throws Exception;
+    }
+
+    private static final Setup NO_SETUP = () -> { };
+
+    private static volatile int sink;
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    Bench(int warmupIterations, int measuredIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            this.allocationBean = (com.sun.management.ThreadMXBean) bean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            this.allocationBean = null;
+        }
+    }
+
+    /** Reads the iteration counts from -Dbench.warmup and -Dbench.iterations. */
+    static Bench fromSystemProperties() {
+        return new Bench(Integer.getInteger("bench.warmup", 3), Integer.getInteger("bench.iterations", 5));
+    }
+
+    static void printHeader() {
+        System.out.printf("%-28s %10s %12s %12s %14s %12s%n",
+                "benchmark", "rows", "ms/op", "min ms", "rows/sec", "bytes/row");
+    }
+
+    void run(String name, int rows, Operation operation) throws Exception {
+        run(name, rows, NO_SETUP, operation);
+    }
+
+    void run(String name, int rows, Setup setup, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            setup.run();
+            consume(operation.run());
+        }
+        long totalNanos = 0;
+        long minNanos = Long.MAX_VALUE;
+        long totalBytes = 0;
+        for (int i = 0; i < measuredIterations; i++) {
+            setup.run();
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            Object result = operation.run();
+            long nanos = System.nanoTime() - start;
+            totalBytes += allocatedBytes() - bytesBefore;
+            consume(result);
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+        }
+        double avgMillis = totalNanos / 1_000_000.0 / measuredIterations;
+        String bytesPerRow = allocationBean == null
+                ? "n/a"
+                : String.format("%.1f", (double) totalBytes / measuredIterations / rows);
+        System.out.printf("%-28s %10d %12.3f %12.3f %14.0f %12s%n",
+                name, rows, avgMillis, minNanos / 1_000_000.0, rows / (avgMillis / 1000.0), bytesPerRow);
+    }
+
+    private long allocatedBytes() {
+        return allocationBean == null ? 0 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void consume(Object result) {
+        sink += result == null ? 0 : System.identityHashCode(result);
+    }
+}
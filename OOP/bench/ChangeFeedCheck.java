@@ -0,0 +1,112 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the change feed against the local database: one DAO stores and deletes expenses,
+ * and a feed on a second DAO, standing in for another client, must see every change in order.
+ * A delete with a stale row version must be refused.
+ *
+ * Usage: java -cp "bin;lib/postgresql-42.7.6.jar" ChangeFeedCheck [rows]
+ * Exits with status 1 if a change is missing or the stale delete goes through.
+ */
+public class ChangeFeedCheck {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        Class.forName("org.postgresql.Driver");
+        ExpenseTrackerDAO writer = new ExpenseTrackerDAO();
+        ExpenseTrackerDAO reader = new ExpenseTrackerDAO();
+        BlockingQueue<ExpenseChangeFeed.Change> received = new LinkedBlockingQueue<>();
+        ExpenseChangeFeed feed = new ExpenseChangeFeed(reader, new ExpenseChangeFeed.Listener() {
+            @Override
+            public void changesArrived(List<ExpenseChangeFeed.Change> changes) {
+                received.addAll(changes);
+            }
+
+            @Override
+            public void changesLost() {
+                System.out.println("changes lost");
+            }
+        });
+        boolean passed = true;
+        List<CategorizedExpense> added = new ArrayList<>();
+        try {
+            feed.resumeFrom(reader.getChangePosition());
+            feed.start();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                added.add(writer.addExpense(new CategorizedExpense(i + 1, "Food",
+                        "Change feed row " + i, LocalDate.now())));
+            }
+            List<ExpenseChangeFeed.Change> inserts = take(received, rows);
+            passed &= check("inserts", inserts, ExpenseChangeFeed.Kind.INSERT, added);
+            System.out.printf("%d inserts seen in %.1f ms%n", inserts.size(), (System.nanoTime() - start) / 1e6);
+
+            CategorizedExpense stale = added.get(0);
+            int version = stale.getVersion();
+            stale.setVersion(version + 1);
+            DeleteResult refused = writer.deleteExpensesIfUnchanged(Collections.singletonList(stale));
+            stale.setVersion(version);
+            boolean conflict = refused.getDeletedCount() == 0 && refused.getChanged().size() == 1;
+            System.out.println("stale delete refused: " + conflict);
+            passed &= conflict;
+
+            DeleteResult result = writer.deleteExpensesIfUnchanged(added);
+            passed &= result.getDeletedCount() == rows;
+            List<ExpenseChangeFeed.Change> deletes = take(received, rows);
+            passed &= check("deletes", deletes, ExpenseChangeFeed.Kind.DELETE, added);
+        } finally {
+            feed.close();
+            List<Integer> ids = new ArrayList<>();
+            for (CategorizedExpense expense : added) {
+                ids.add(expense.getId());
+            }
+            writer.deleteExpenses(ids);
+            writer.close();
+            reader.close();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /** Waits up to 10 seconds for the given number of changes. */
+    private static List<ExpenseChangeFeed.Change> take(BlockingQueue<ExpenseChangeFeed.Change> queue, int count)
+            throws InterruptedException {
+        List<ExpenseChangeFeed.Change> changes = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (changes.size() < count) {
+            ExpenseChangeFeed.Change change = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (change == null) {
+                break;
+            }
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    private static boolean check(String name, List<ExpenseChangeFeed.Change> changes,
+                                 ExpenseChangeFeed.Kind kind, List<CategorizedExpense> expected) {
+        int wrong = 0;
+        long lastSequence = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            ExpenseChangeFeed.Change change = i < changes.size() ? changes.get(i) : null;
+            if (change == null || change.kind != kind || change.sequence <= lastSequence
+                    || change.expense.getId() != expected.get(i).getId()) {
+                wrong++;
+            } else {
+                lastSequence = change.sequence;
+            }
+        }
+        System.out.println(name + ": expected " + expected.size() + ", received " + changes.size()
+                + ", wrong " + wrong);
+        return wrong == 0;
+    }
+}
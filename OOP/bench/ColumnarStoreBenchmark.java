@@ -0,0 +1,116 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares an ArrayList of CategorizedExpense objects with ColumnarExpenseList:
+ * retained heap after loading, and the time of the typical scans (total, per-category
+ * totals, date-range filter). Needs no database.
+ *
+ * Usage: java -cp bin ColumnarStoreBenchmark [rows]
+ */
+public class ColumnarStoreBenchmark {
+
+    private static final int SCAN_ITERATIONS = 20;
+    private static final int DISTINCT_DESCRIPTIONS = 2_000;
+    private static final String[] CATEGORIES = {
+        "FOOD", "TRANSPORT", "UTILITIES", "ENTERTAINMENT", "HOUSING", "HEALTH", "EDUCATION", "OTHER"
+    };
+
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        LocalDate from = LocalDate.now().minusYears(1);
+        LocalDate to = LocalDate.now();
+
+        long before = usedHeap();
+        List<CategorizedExpense> objects = new ArrayList<>(rows);
+        fill(objects, rows);
+        long objectBytes = usedHeap() - before;
+
+        before = usedHeap();
+        ColumnarExpenseList columns = new ColumnarExpenseList(rows);
+        fill(columns, rows);
+        long columnBytes = usedHeap() - before;
+
+        System.out.printf("Rows: %d%n", rows);
+        System.out.printf("%-22s %12s %12s%n", "", "objects", "columnar");
+        System.out.printf("%-22s %12.1f %12.1f%n", "retained heap (MB)",
+                objectBytes / 1_048_576.0, columnBytes / 1_048_576.0);
+        System.out.printf("%-22s %12.1f %12.1f%n", "bytes per row",
+                (double) objectBytes / rows, (double) columnBytes / rows);
+
+        report("total",
+                time(() -> {
+                    long sum = 0;
+                    for (CategorizedExpense expense : objects) {
+                        sum += expense.getAmountCents();
+                    }
+                    sink += sum;
+                }),
+                time(() -> sink += columns.sumCents()));
+
+        long[] categoryTotals = new long[columns.categoryCount()];
+        report("per-category totals",
+                time(() -> sink += ExpenseStatistics.of(objects).getByCategory().size()),
+                time(() -> {
+                    java.util.Arrays.fill(categoryTotals, 0);
+                    columns.sumCentsByCategory(categoryTotals);
+                    sink += categoryTotals[0];
+                }));
+
+        report("date-range count",
+                time(() -> {
+                    int count = 0;
+                    for (CategorizedExpense expense : objects) {
+                        LocalDate date = expense.getDate();
+                        if (!date.isBefore(from) && !date.isAfter(to)) {
+                            count++;
+                        }
+                    }
+                    sink += count;
+                }),
+                time(() -> sink += columns.countBetween(from, to)));
+    }
+
+    private static void fill(List<CategorizedExpense> target, int rows) {
+        Random random = new Random(42);
+        LocalDate start = LocalDate.now().minusYears(5);
+        String[] descriptions = new String[DISTINCT_DESCRIPTIONS];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = "Merchant " + i;
+        }
+        for (int i = 0; i < rows; i++) {
+            // Descriptions read from a database are separate String instances even when equal
+            target.add(new CategorizedExpense(rows - i,
+                    random.nextInt(50_000) / 100.0,
+                    CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    new String(descriptions[random.nextInt(descriptions.length)]),
+                    start.plusDays(random.nextInt(5 * 365))));
+        }
+    }
+
+    /** Returns the average time of one run in milliseconds, after a warm-up run. */
+    private static double time(Runnable scan) {
+        scan.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < SCAN_ITERATIONS; i++) {
+            scan.run();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / SCAN_ITERATIONS;
+    }
+
+    private static void report(String name, double objectMillis, double columnMillis) {
+        System.out.printf("%-22s %10.2f ms %10.2f ms%n", name, objectMillis, columnMillis);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,197 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures the hot paths of the tracker at several table sizes:
+ * summary line formatting, report rendering, statistics aggregation, filtering, table
+ * model population and, when a database is available, DAO insert/select/delete.
+ *
+ * Usage: java -Xms2g -Xmx2g -cp "bin;lib/postgresql-42.7.6.jar" HotPathBenchmark [rows...]
+ * Default sizes are 1k, 100k and 1M rows. The DAO benchmarks run against the local
+ * database configured in ExpenseTrackerDAO and are skipped if it cannot be reached,
+ * or when -Dbench.db=false is set. Every row they insert is deleted again.
+ */
+public class HotPathBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {1_000, 100_000, 1_000_000};
+    // Deleting one row per round trip is only measured up to this many rows
+    private static final int DELETE_LIMIT = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Bench bench = Bench.fromSystemProperties();
+        ExpenseTrackerDAO dao = Boolean.parseBoolean(System.getProperty("bench.db", "true")) ? connect() : null;
+        try {
+            Bench.printHeader();
+            for (int rows : sizes) {
+                List<CategorizedExpense> data = withIds(InsertBenchmark.generate(rows));
+                runInMemory(bench, data);
+                if (dao != null) {
+                    runDao(new Bench(1, 3), dao, rows);
+                }
+            }
+        } finally {
+            if (dao != null) {
+                dao.close();
+            }
+        }
+    }
+
+    private static void runInMemory(Bench bench, List<CategorizedExpense> data) throws Exception {
+        int rows = data.size();
+
+        bench.run("format.getSummary", rows, () -> {
+            long chars = 0;
+            for (CategorizedExpense expense : data) {
+                chars += expense.getSummary().length();
+            }
+            return chars;
+        });
+
+        // Reuses one builder, the way the report and exports do; should allocate ~0 bytes/row
+        StringBuilder line = new StringBuilder(256);
+        bench.run("format.appendSummaryTo", rows, () -> {
+            long chars = 0;
+            for (CategorizedExpense expense : data) {
+                line.setLength(0);
+                chars += expense.appendSummaryTo(line).length();
+            }
+            return chars;
+        });
+
+        ExpenseStatistics statistics = ExpenseStatistics.of(data);
+        bench.run("report.render", rows, () -> {
+            StringBuilder report = new StringBuilder();
+            SummaryReport.appendHeader(report, statistics);
+            for (CategorizedExpense expense : data) {
+                SummaryReport.appendDetail(report, expense);
+            }
+            SummaryReport.appendFooter(report, data.isEmpty());
+            return report.length();
+        });
+
+        bench.run("aggregate.statistics", rows, () -> ExpenseStatistics.of(data));
+
+        bench.run("aggregate.sequential", rows, () -> {
+            ExpenseStatistics sequential = new ExpenseStatistics();
+            data.forEach(sequential::accept);
+            return sequential;
+        });
+
+        ExpenseStore indexedStore = new ExpenseStore();
+        indexedStore.replaceAll(data);
+        ExpenseIndex index = new ExpenseIndex(indexedStore);
+        LocalDate today = LocalDate.now();
+        ExpenseFilter lastMonthFood = ExpenseFilter.ALL.withCategory("FOOD")
+                .withDateRange(today.minusYears(1), today.minusYears(1).plusMonths(1));
+        bench.run("filter.scan", rows, () -> {
+            int matches = 0;
+            for (CategorizedExpense expense : data) {
+                if (lastMonthFood.matches(expense)) {
+                    matches++;
+                }
+            }
+            return matches;
+        });
+        bench.run("filter.index", rows, () -> index.search(lastMonthFood).size());
+
+        // Loading the store and reading every cell is what the old updateTable did up front
+        ExpenseStore store = new ExpenseStore();
+        ExpenseTableModel model = new ExpenseTableModel(store, null);
+
+        bench.run("table.populate", rows, () -> {
+            store.replaceAll(data);
+            long cells = 0;
+            for (int row = 0; row < model.getRowCount(); row++) {
+                for (int column = 0; column < model.getColumnCount(); column++) {
+                    if (model.getValueAt(row, column) != null) {
+                        cells++;
+                    }
+                }
+            }
+            return cells;
+        });
+    }
+
+    private static void runDao(Bench bench, ExpenseTrackerDAO dao, int rows) throws Exception {
+        // Rows inserted from here on get higher ids; cleanUp() deletes no others
+        int firstId = dao.getDataVersion().getMaxId() + 1;
+        List<List<CategorizedExpense>> inserted = new ArrayList<>();
+
+        bench.run("dao.insert.batch", rows,
+                () -> inserted.add(InsertBenchmark.generate(rows)),
+                () -> dao.addExpenses(inserted.get(inserted.size() - 1)));
+        cleanUp(dao, firstId);
+
+        dao.addExpensesWithCopy(InsertBenchmark.generate(rows));
+        bench.run("dao.select.stream", rows, () -> {
+            try (Stream<CategorizedExpense> expenses = dao.streamExpenses()) {
+                return expenses.count();
+            }
+        });
+        bench.run("dao.select.page", ExpenseTableModel.PAGE_SIZE,
+                () -> dao.getExpensesPage(0, ExpenseTableModel.PAGE_SIZE));
+        ExpenseFilter filter = ExpenseFilter.ALL.withCategory("FOOD")
+                .withDateRange(LocalDate.now().minusYears(1), LocalDate.now()).withText("row 1");
+        bench.run("dao.find.filtered", ExpenseTableModel.PAGE_SIZE,
+                () -> dao.findExpenses(filter, 0, ExpenseTableModel.PAGE_SIZE));
+        cleanUp(dao, firstId);
+
+        int deleteRows = Math.min(rows, DELETE_LIMIT);
+        List<CategorizedExpense> toDelete = new ArrayList<>();
+        bench.run("dao.delete.single", deleteRows,
+                () -> {
+                    toDelete.clear();
+                    toDelete.addAll(InsertBenchmark.generate(deleteRows));
+                    dao.addExpensesWithCopy(toDelete);
+                },
+                () -> {
+                    int deleted = 0;
+                    for (CategorizedExpense expense : toDelete) {
+                        if (dao.deleteExpense(expense.getId())) {
+                            deleted++;
+                        }
+                    }
+                    return deleted;
+                });
+        cleanUp(dao, firstId);
+    }
+
+    private static ExpenseTrackerDAO connect() {
+        ExpenseTrackerDAO dao = null;
+        try {
+            Class.forName("org.postgresql.Driver");
+            dao = new ExpenseTrackerDAO();
+            dao.getDataVersion();
+            return dao;
+        } catch (ClassNotFoundException | SQLException | RuntimeException e) {
+            System.out.println("Database not available, skipping DAO benchmarks: " + e.getMessage());
+            if (dao != null) {
+                dao.close();
+            }
+            return null;
+        }
+    }
+
+    private static List<CategorizedExpense> withIds(List<CategorizedExpense> data) {
+        for (int i = 0; i < data.size(); i++) {
+            data.get(i).setId(i + 1);
+        }
+        return data;
+    }
+
+    /** Deletes the benchmark rows inserted since firstId was read. */
+    private static void cleanUp(ExpenseTrackerDAO dao, int firstId) throws SQLException {
+        InsertBenchmark.deleteRows(dao, firstId, dao.getDataVersion().getMaxId());
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Imports a generated bank export CSV and reports rows/sec, rejects and the peak heap.
+ * import.pipeline reads, parses and batches the file but drops the batches, so its peak
+ * heap is the importer's own and stays flat however large the file is. import.embedded
+ * stores the rows in the embedded storage, whose id index grows by 8 bytes per row.
+ * Every 1000th row has an invalid amount and must be rejected.
+ *
+ * Usage: java -Xmx256m -cp bin ImportBenchmark [megabytes] [parserThreads]
+ * The default file is 200 MB; pass 1024 for the 1 GB run (its embedded run needs
+ * -Xmx512m, or -Dbench.store=false to skip it). Needs no database.
+ */
+public class ImportBenchmark {
+
+    private static final int BAD_ROW_INTERVAL = 1_000;
+    private static final String[] CATEGORIES = {
+        "FOOD", "TRANSPORT", "UTILITIES", "ENTERTAINMENT", "HOUSING", "HEALTH", "EDUCATION", "OTHER"
+    };
+
+    public static void main(String[] args) throws Exception {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 200;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Path directory = Files.createTempDirectory("expense-import-bench");
+        try {
+            Path file = directory.resolve("export.csv");
+            long rows = generate(file, megabytes * 1024 * 1024);
+            System.out.printf("File: %d MB, %d rows, %d parser threads%n",
+                    Files.size(file) / (1024 * 1024), rows, threads);
+
+            System.out.printf("%-16s %12s %12s %12s %14s %14s%n",
+                    "", "imported", "rejected", "seconds", "rows/sec", "peak heap MB");
+            try (EmbeddedExpenseStorage storage = new DiscardingStorage(directory.resolve("discard"))) {
+                run("import.pipeline", storage, file, threads);
+            }
+            if (Boolean.parseBoolean(System.getProperty("bench.store", "true"))) {
+                try (EmbeddedExpenseStorage storage = new EmbeddedExpenseStorage(directory.resolve("storage"))) {
+                    run("import.embedded", storage, file, threads);
+                }
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void run(String name, ExpenseStorage storage, Path file, int threads) throws Exception {
+        resetPeakHeap();
+        ExpenseImporter.ImportResult result = new ExpenseImporter(storage, threads, "OTHER")
+                .importFile(file, ExpenseImporter.ImportFormat.CSV, null);
+        System.out.printf("%-16s %12d %12d %12.2f %14.0f %14.1f%n", name,
+                result.getImported(), result.getRejected(), result.getNanos() / 1e9,
+                result.getRowsPerSecond(), peakHeap() / (1024.0 * 1024.0));
+        if (!result.getRejects().isEmpty()) {
+            System.out.println("  first reject: " + result.getRejects().get(0));
+        }
+    }
+
+    /** Accepts every import batch without storing it. */
+    private static final class DiscardingStorage extends EmbeddedExpenseStorage {
+        DiscardingStorage(Path directory) throws IOException {
+            super(directory);
+        }
+
+        @Override
+        public BatchInsertResult importExpenses(Collection<CategorizedExpense> expenses) {
+            BatchInsertResult result = new BatchInsertResult();
+            expenses.forEach(result::addInserted);
+            return result;
+        }
+    }
+
+    /** Writes CSV rows until the file reaches the given size; returns the row count. */
+    private static long generate(Path file, long bytes) throws IOException {
+        Random random = new Random(42);
+        LocalDate start = LocalDate.now().minusYears(5);
+        StringBuilder line = new StringBuilder(128);
+        long written = 0;
+        long rows = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Date,Description,Amount,Category\n");
+            while (written < bytes) {
+                rows++;
+                line.setLength(0);
+                ExpenseFormat.appendDate(line, start.plusDays(random.nextInt(5 * 365))).append(',');
+                line.append("\"Card payment ").append(rows).append(", store ").append(random.nextInt(500)).append("\",");
+                if (rows % BAD_ROW_INTERVAL == 0) {
+                    line.append("n/a");
+                } else {
+                    ExpenseFormat.appendAmount(line, random.nextInt(50_000) / 100.0);
+                }
+                line.append(',').append(CATEGORIES[random.nextInt(CATEGORIES.length)]).append('\n');
+                writer.append(line);
+                written += line.length();
+            }
+        }
+        return rows;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** Sum of the heap pools' peaks; an upper bound, as the pools peak at different times. */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
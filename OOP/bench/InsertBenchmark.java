@@ -0,0 +1,113 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares single-row inserts, JDBC batch inserts and COPY against the local database.
+ * Every run deletes the rows it inserted, so it can be pointed at the normal database.
+ *
+ * Usage: java -cp "bin;lib/postgresql-42.7.6.jar" InsertBenchmark [rows...]
+ * Single-row inserts are skipped above 100k rows unless -Dbench.singleAll=true is set.
+ */
+public class InsertBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {10_000, 100_000, 1_000_000};
+    private static final int SINGLE_INSERT_LIMIT = 100_000;
+    private static final String[] CATEGORIES = {
+        "FOOD", "TRANSPORT", "UTILITIES", "ENTERTAINMENT", "HOUSING", "HEALTH", "EDUCATION", "OTHER"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        boolean singleAll = Boolean.getBoolean("bench.singleAll");
+
+        Class.forName("org.postgresql.Driver");
+        ExpenseTrackerDAO dao = new ExpenseTrackerDAO();
+        try {
+            System.out.printf("%-10s %10s %12s %14s%n", "mode", "rows", "millis", "rows/sec");
+            for (int rows : sizes) {
+                if (rows <= SINGLE_INSERT_LIMIT || singleAll) {
+                    List<CategorizedExpense> data = generate(rows);
+                    long start = System.nanoTime();
+                    for (CategorizedExpense expense : data) {
+                        dao.addExpense(expense);
+                    }
+                    report("single", rows, System.nanoTime() - start);
+                    cleanUp(dao, data);
+                }
+
+                List<CategorizedExpense> data = generate(rows);
+                long start = System.nanoTime();
+                BatchInsertResult result = dao.addExpenses(data);
+                report("batch", result.getInsertedCount(), System.nanoTime() - start);
+                cleanUp(dao, data);
+
+                data = generate(rows);
+                start = System.nanoTime();
+                result = dao.addExpensesWithCopy(data);
+                report("copy", result.getInsertedCount(), System.nanoTime() - start);
+                cleanUp(dao, data);
+            }
+            System.out.println("Pool: " + dao.getPoolStats());
+        } finally {
+            dao.close();
+        }
+    }
+
+    static List<CategorizedExpense> generate(int rows) {
+        Random random = new Random(42);
+        LocalDate start = LocalDate.now().minusYears(5);
+        List<CategorizedExpense> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            double amount = Math.round(random.nextDouble() * 50_000) / 100.0;
+            data.add(new CategorizedExpense(amount,
+                    CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    "Benchmark row " + i,
+                    start.plusDays(random.nextInt(5 * 365))));
+        }
+        return data;
+    }
+
+    private static void report(String mode, int rows, long nanos) {
+        double millis = nanos / 1_000_000.0;
+        System.out.printf("%-10s %10d %12.1f %14.0f%n", mode, rows, millis, rows / (millis / 1000.0));
+    }
+
+    /** Deletes the benchmark rows of the given list, and nothing else. */
+    static void cleanUp(ExpenseTrackerDAO dao, List<CategorizedExpense> data) throws SQLException {
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        for (CategorizedExpense expense : data) {
+            if (expense.getId() > 0) {
+                minId = Math.min(minId, expense.getId());
+                maxId = Math.max(maxId, expense.getId());
+            }
+        }
+        deleteRows(dao, minId, maxId);
+    }
+
+    /**
+     * Deletes the benchmark rows with ids in the given range, so a benchmark run against a
+     * real database only removes the rows it inserted.
+     */
+    static void deleteRows(ExpenseTrackerDAO dao, int minId, int maxId) throws SQLException {
+        if (minId > maxId) {
+            return;
+        }
+        try (ConnectionPool.PooledConnection conn = dao.getConnection()) {
+            PreparedStatement pstmt = conn.prepare("DELETE FROM expenses WHERE id BETWEEN ? AND ? AND description LIKE 'Benchmark row %'");
+            pstmt.setInt(1, minId);
+            pstmt.setInt(2, maxId);
+            pstmt.executeUpdate();
+        }
+    }
+}
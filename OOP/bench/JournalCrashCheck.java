@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that ExpenseJournal never loses an acknowledged expense when the process dies.
+ *
+ * The check starts a child JVM that appends expenses as fast as it can and prints the
+ * sequence of each one after append() returns, kills it without warning partway
+ * through, reopens the journal and verifies that every printed sequence is there.
+ *
+ * Usage: java -cp "bin;lib/postgresql-42.7.6.jar" JournalCrashCheck [rounds]
+ * Exits with status 1 if an acknowledged expense is missing.
+ */
+public class JournalCrashCheck {
+
+    private static final int DEFAULT_ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && "--writer".equals(args[0])) {
+            runWriter(Path.of(args[1]));
+            return;
+        }
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+        boolean passed = true;
+        for (int round = 1; round <= rounds; round++) {
+            passed &= runRound(round);
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean runRound(int round) throws Exception {
+        Path file = Files.createTempFile("expense-journal-", ".journal");
+        Files.delete(file);
+        try {
+            Process writer = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    JournalCrashCheck.class.getName(), "--writer", file.toString())
+                    .redirectErrorStream(true)
+                    .start();
+
+            // Read acknowledgements for a while, then kill the writer mid-stream
+            Set<Long> acknowledged = new HashSet<>();
+            long killAt = System.nanoTime() + (200 + (round * 37L) % 300) * 1_000_000L;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while (System.nanoTime() < killAt && (line = reader.readLine()) != null) {
+                    acknowledged.add(Long.parseLong(line.trim()));
+                }
+            } finally {
+                // Killing the process also closes the pipe; lines still in it are not counted
+                writer.destroyForcibly().waitFor();
+            }
+
+            Set<Long> recovered = new HashSet<>();
+            try (ExpenseJournal journal = new ExpenseJournal(file)) {
+                for (ExpenseJournal.Record record : journal.getRecoveredRecords()) {
+                    recovered.add(record.sequence);
+                }
+            }
+            int missing = 0;
+            for (long sequence : acknowledged) {
+                if (!recovered.contains(sequence)) {
+                    missing++;
+                }
+            }
+            System.out.println("round " + round + ": acknowledged " + acknowledged.size()
+                    + ", recovered " + recovered.size() + ", missing " + missing);
+            return missing == 0;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void runWriter(Path file) throws Exception {
+        try (ExpenseJournal journal = new ExpenseJournal(file)) {
+            for (int i = 0; ; i++) {
+                List<CategorizedExpense> batch = InsertBenchmark.generate(1 + i % 8);
+                for (ExpenseJournal.Record record : journal.appendAll(batch)) {
+                    System.out.println(record.sequence);
+                }
+                System.out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares the embedded storage with PostgreSQL on what the user notices: startup (open
+ * the backend and load what the window first shows: row count, total and the newest
+ * page) and insert latency, one expense at a time and as a batch. snapshot.startup is
+ * the time to show all rows from the snapshot saved at the previous exit.
+ *
+ * Usage: java -Xms2g -Xmx2g -cp "bin;lib/postgresql-42.7.6.jar" StorageBenchmark [rows...]
+ * Default sizes are 10k and 1M stored rows. The embedded storage lives in a temporary
+ * directory. The PostgreSQL runs are skipped if the local database cannot be reached or
+ * with -Dbench.db=false; every row they insert is deleted again.
+ */
+public class StorageBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {10_000, 1_000_000};
+    // Expenses added one call at a time per measured iteration
+    private static final int SINGLE_INSERTS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        boolean database = Boolean.parseBoolean(System.getProperty("bench.db", "true")) && databaseAvailable();
+
+        Bench bench = Bench.fromSystemProperties();
+        Bench.printHeader();
+        for (int rows : sizes) {
+            runEmbedded(bench, rows);
+            runSnapshot(bench, rows);
+            if (database) {
+                runDatabase(bench, rows);
+            }
+        }
+    }
+
+    private static void runEmbedded(Bench bench, int rows) throws Exception {
+        Path directory = Files.createTempDirectory("expense-storage-bench");
+        try {
+            try (EmbeddedExpenseStorage storage = new EmbeddedExpenseStorage(directory)) {
+                storage.addExpenses(InsertBenchmark.generate(rows));
+            }
+
+            List<ExpenseStorage> opened = new ArrayList<>();
+            bench.run("embedded.startup", rows, () -> closeAll(opened), () -> {
+                EmbeddedExpenseStorage storage = new EmbeddedExpenseStorage(directory);
+                opened.add(storage);
+                return loadFirstScreen(storage);
+            });
+            closeAll(opened);
+
+            try (EmbeddedExpenseStorage storage = new EmbeddedExpenseStorage(directory)) {
+                runInserts(bench, "embedded", storage, rows);
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /** Startup from ExpenseSnapshot: read the file and fill the store the table shows. */
+    private static void runSnapshot(Bench bench, int rows) throws Exception {
+        Path directory = Files.createTempDirectory("expense-snapshot-bench");
+        try {
+            Path file = directory.resolve("expenses.snapshot");
+            List<CategorizedExpense> expenses = InsertBenchmark.generate(rows);
+            for (int i = 0; i < expenses.size(); i++) {
+                expenses.get(i).setId(rows - i);
+            }
+            ExpenseStore saved = new ExpenseStore();
+            saved.replaceWithFirstPage(expenses, rows, 0);
+            ExpenseSnapshot.write(file, saved, -1);
+
+            bench.run("snapshot.startup", rows, () -> {
+                ExpenseSnapshot snapshot = ExpenseSnapshot.read(file);
+                ExpenseStore store = new ExpenseStore();
+                store.replaceWithFirstPage(snapshot.getRows(), snapshot.getTableRowCount(),
+                        snapshot.getTableTotalCents());
+                return store.size();
+            });
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void runDatabase(Bench bench, int rows) throws Exception {
+        try (ExpenseTrackerDAO seed = new ExpenseTrackerDAO()) {
+            // Rows inserted from here on get higher ids; the cleanup deletes no others
+            int firstId = seed.getDataVersion().getMaxId() + 1;
+            seed.addExpensesWithCopy(InsertBenchmark.generate(rows));
+            List<ExpenseStorage> opened = new ArrayList<>();
+            // Includes connecting, as the first screen of the application does
+            bench.run("postgres.startup", rows, () -> closeAll(opened), () -> {
+                ExpenseTrackerDAO dao = new ExpenseTrackerDAO();
+                opened.add(dao);
+                return loadFirstScreen(dao);
+            });
+            closeAll(opened);
+
+            runInserts(bench, "postgres", seed, rows);
+            InsertBenchmark.deleteRows(seed, firstId, seed.getDataVersion().getMaxId());
+        }
+    }
+
+    private static void runInserts(Bench bench, String backend, ExpenseStorage storage, int rows)
+            throws Exception {
+        List<CategorizedExpense> single = InsertBenchmark.generate(SINGLE_INSERTS);
+        bench.run(backend + ".insert.single", SINGLE_INSERTS, () -> {
+            for (CategorizedExpense expense : single) {
+                storage.addExpense(expense);
+            }
+            return single.size();
+        });
+        int batchRows = Math.min(rows, 100_000);
+        List<List<CategorizedExpense>> batches = new ArrayList<>();
+        bench.run(backend + ".insert.batch", batchRows,
+                () -> batches.add(InsertBenchmark.generate(batchRows)),
+                () -> storage.addExpenses(batches.get(batches.size() - 1)));
+    }
+
+    /** What ExpenseService.loadFirstPage() reads before the window can show anything. */
+    private static Object loadFirstScreen(ExpenseStorage storage) throws SQLException {
+        DataVersion version = storage.getDataVersion();
+        long total = storage.getTotalCents();
+        List<CategorizedExpense> page = storage.getExpensesPage(0, ExpenseTableModel.PAGE_SIZE);
+        return version.getRowCount() + page.size() + total;
+    }
+
+    private static void closeAll(List<ExpenseStorage> opened) {
+        for (ExpenseStorage storage : opened) {
+            storage.close();
+        }
+        opened.clear();
+    }
+
+    private static boolean databaseAvailable() {
+        try {
+            Class.forName("org.postgresql.Driver");
+            try (ExpenseTrackerDAO dao = new ExpenseTrackerDAO()) {
+                dao.getDataVersion();
+            }
+            return true;
+        } catch (ClassNotFoundException | SQLException | RuntimeException e) {
+            System.out.println("Database not available, skipping PostgreSQL runs: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -3,29 +3,39 @@ import java.time.LocalDate;
 /**
  * An abstract base class for expenses.
  * It contains common fields and methods for all expense types.
+ * The amount is kept as a whole number of cents (see Money).
  */
 public abstract class BaseExpense {
     protected int id;
-    protected double amount;
+    protected long amountCents;
     protected String description;
     protected LocalDate date;
+    // Raised by the database on every update; 0 if not read from the database
+    protected int version;
 
     // Constructor for new expenses (no ID)
     public BaseExpense(double amount, String description, LocalDate date) {
-        this.amount = amount;
-        this.description = description;
-        this.date = date;
+        this(0, Money.toCents(amount), description, date);
     }
 
     // Constructor for expenses retrieved from the database (with ID)
     public BaseExpense(int id, double amount, String description, LocalDate date) {
-        this(amount, description, date);
+        this(id, Money.toCents(amount), description, date);
+    }
+
+    protected BaseExpense(int id, long amountCents, String description, LocalDate date) {
         this.id = id;
+        this.amountCents = amountCents;
+        this.description = description;
+        this.date = date;
     }
 
     public int getId() { return id; }
     public void setId(int id) { this.id = id; }
-    public double getAmount() { return amount; }
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+    public long getAmountCents() { return amountCents; }
+    public double getAmount() { return Money.toDouble(amountCents); }
     public String getDescription() { return description; }
     public LocalDate getDate() { return date; }
 
@@ -0,0 +1,60 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a bulk insert: the rows that were stored (with their generated ids)
+ * and the rows that were rejected, each with the reason.
+ */
+class BatchInsertResult {
+    private final List<CategorizedExpense> inserted = new ArrayList<>();
+    private final List<Failure> failures = new ArrayList<>();
+
+    void addInserted(CategorizedExpense expense) {
+        inserted.add(expense);
+    }
+
+    void addFailure(int index, CategorizedExpense expense, Exception cause) {
+        failures.add(new Failure(index, expense, cause));
+    }
+
+    public List<CategorizedExpense> getInserted() {
+        return Collections.unmodifiableList(inserted);
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public int getInsertedCount() {
+        return inserted.size();
+    }
+
+    public int getFailureCount() {
+        return failures.size();
+    }
+
+    /**
+     * A rejected row. The index is the row's position in the submitted collection.
+     */
+    static class Failure {
+        private final int index;
+        private final CategorizedExpense expense;
+        private final Exception cause;
+
+        Failure(int index, CategorizedExpense expense, Exception cause) {
+            this.index = index;
+            this.expense = expense;
+            this.cause = cause;
+        }
+
+        public int getIndex() { return index; }
+        public CategorizedExpense getExpense() { return expense; }
+        public Exception getCause() { return cause; }
+
+        @Override
+        public String toString() {
+            return "Row " + index + ": " + cause.getMessage();
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
@@ -25,6 +26,19 @@ public class CategorizedExpense extends BaseExpense implements Summarizable, Pri
         this.category = category;
     }
 
+    private CategorizedExpense(int id, long amountCents, String category, String description, LocalDate date) {
+        super(id, amountCents, description, date);
+        this.category = category;
+    }
+
+    /**
+     * Creates an expense from an amount in cents, e.g. 1234 for 12.34.
+     */
+    public static CategorizedExpense ofCents(int id, long amountCents, String category, String description,
+                                             LocalDate date) {
+        return new CategorizedExpense(id, amountCents, category, description, date);
+    }
+
     public String getCategory() 
     { return category; }
 
@@ -34,14 +48,55 @@ public class CategorizedExpense extends BaseExpense implements Summarizable, Pri
      */
     @Override
     public String getSummary() {
-        return String.format("Category: %s, Amount: $%.2f, Description: %s, Date: %s",
-                category, amount, description, date.format(FORMATTER));
+        return appendSummaryTo(new StringBuilder(96)).toString();
     }
 
     
     public String getSummary(String currency) {
-        return String.format("Category: %s, Amount: %.2f (%s), Description: %s, Date: %s",
-                category, amount, currency, description, date.format(FORMATTER));
+        return appendSummaryTo(new StringBuilder(96), currency).toString();
+    }
+
+    /**
+     * Appends the text of getSummary() without creating intermediate strings.
+     */
+    public StringBuilder appendSummaryTo(StringBuilder sb) {
+        sb.append("Category: ").append(category).append(", Amount: $");
+        ExpenseFormat.appendCents(sb, amountCents);
+        sb.append(", Description: ").append(description).append(", Date: ");
+        return ExpenseFormat.appendDate(sb, date);
+    }
+
+    /**
+     * Appends the text of getSummary(currency) without creating intermediate strings.
+     */
+    public StringBuilder appendSummaryTo(StringBuilder sb, String currency) {
+        sb.append("Category: ").append(category).append(", Amount: ");
+        ExpenseFormat.appendCents(sb, amountCents);
+        sb.append(" (").append(currency).append("), Description: ").append(description).append(", Date: ");
+        return ExpenseFormat.appendDate(sb, date);
+    }
+
+    /**
+     * Appends the summary to any Appendable, such as a Writer. StringBuilders are
+     * written to directly; other targets receive the text in a single append.
+     */
+    public void appendSummaryTo(Appendable out) throws IOException {
+        if (out instanceof StringBuilder) {
+            appendSummaryTo((StringBuilder) out);
+        } else {
+            out.append(appendSummaryTo(new StringBuilder(96)));
+        }
+    }
+
+    /**
+     * Appends the text of toString() without creating intermediate strings.
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        sb.append("ID: ").append(id).append(", Amount: $");
+        ExpenseFormat.appendCents(sb, amountCents);
+        sb.append(", Category: ").append(category).append(", Description: ").append(description)
+                .append(", Date: ");
+        return ExpenseFormat.appendDate(sb, date);
     }
 
     /**
@@ -52,7 +107,7 @@ public class CategorizedExpense extends BaseExpense implements Summarizable, Pri
     @Override
     public void printDetails() {
         System.out.printf("Printing details for Expense ID %d:%n", this.id);
-        System.out.printf("  Amount: $%.2f%n", this.amount);
+        System.out.printf("  Amount: $%s%n", ExpenseFormat.formatCents(this.amountCents));
         System.out.printf("  Category: %s%n", this.category);
         System.out.printf("  Description: %s%n", this.description);
         System.out.printf("  Date: %s%n", this.date.format(FORMATTER));
@@ -60,7 +115,6 @@ public class CategorizedExpense extends BaseExpense implements Summarizable, Pri
 
     @Override
     public String toString() {
-        return String.format("ID: %d, Amount: $%.2f, Category: %s, Description: %s, Date: %s",
-                id, amount, category, description, date);
+        return appendTo(new StringBuilder(96)).toString();
     }
 }
@@ -1,17 +1,144 @@
-
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-
+/**
+ * The registry of expense categories: the built-in ones plus those the user defined,
+ * which the storage keeps alongside the expenses. Every category gets a small int id in
+ * registration order, so the built-in ones always have the ids 0 to 7.
+ *
+ * The manager also keeps the number and sum of the expenses of each category for the
+ * whole table, loaded or not. They are set from the storage after a load and then
+ * adjusted on every add and delete, so reading a category's figures is an array
+ * lookup instead of a scan. Names and ids can be read from any thread; the totals,
+ * like ExpenseStore, belong to the EDT.
+ */
 class CategoryManager {
-   
-    private static final List<String> CATEGORIES = Collections.unmodifiableList(Arrays.asList(
+
+    static final List<String> DEFAULT_CATEGORIES = Collections.unmodifiableList(Arrays.asList(
         "FOOD", "TRANSPORT", "UTILITIES", "ENTERTAINMENT", "HOUSING", "HEALTH", "EDUCATION", "OTHER"
     ));
+    static final int MAX_NAME_LENGTH = 40;
+
+    private final List<String> names = new CopyOnWriteArrayList<>();
+    private final List<String> view = Collections.unmodifiableList(names);
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Indexed by category id
+    private long[] counts = new long[16];
+    private long[] sumCents = new long[16];
 
-  
+    public CategoryManager() {
+        for (String category : DEFAULT_CATEGORIES) {
+            register(category);
+        }
+    }
+
+    /** Returns the built-in categories followed by the user-defined ones, in id order. */
     public List<String> getAllCategories() {
-        return CATEGORIES;
+        return view;
+    }
+
+    /** Returns the id of a category, or -1 if it is not registered. */
+    public int getId(String category) {
+        Integer id = ids.get(category);
+        return id == null ? -1 : id;
+    }
+
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public boolean isDefault(String category) {
+        int id = getId(category);
+        return id >= 0 && id < DEFAULT_CATEGORIES.size();
+    }
+
+    /**
+     * Registers a category if it is new.
+     *
+     * @return its id.
+     */
+    public synchronized int register(String category) {
+        Integer id = ids.get(category);
+        if (id != null) {
+            return id;
+        }
+        int next = names.size();
+        if (next == counts.length) {
+            counts = Arrays.copyOf(counts, next * 2);
+            sumCents = Arrays.copyOf(sumCents, next * 2);
+        }
+        names.add(category);
+        ids.put(category, next);
+        return next;
+    }
+
+    /**
+     * Returns the name a user-typed category is stored under: trimmed and upper case,
+     * like the built-in ones.
+     *
+     * @throws IllegalArgumentException if the name is empty or too long.
+     */
+    public static String normalize(String category) {
+        String name = category == null ? "" : category.trim().toUpperCase(Locale.ROOT);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Category name is required.");
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Category name must be at most " + MAX_NAME_LENGTH + " characters.");
+        }
+        return name;
+    }
+
+    // --- Running totals ---
+
+    /**
+     * Replaces the figures of every category, e.g. with those read from the storage
+     * after a load. Categories missing from the map are set to zero; unknown ones, such
+     * as a category another client defined, are registered.
+     */
+    public void resetTotals(Map<String, CategoryTotal> totals) {
+        Arrays.fill(counts, 0);
+        Arrays.fill(sumCents, 0);
+        for (Map.Entry<String, CategoryTotal> entry : totals.entrySet()) {
+            int id = register(entry.getKey());
+            counts[id] = entry.getValue().getCount();
+            sumCents[id] = entry.getValue().getSumCents();
+        }
+    }
+
+    public void expenseAdded(CategorizedExpense expense) {
+        int id = register(expense.getCategory());
+        counts[id]++;
+        sumCents[id] += expense.getAmountCents();
+    }
+
+    public void expenseRemoved(CategorizedExpense expense) {
+        int id = getId(expense.getCategory());
+        if (id >= 0 && counts[id] > 0) {
+            counts[id]--;
+            sumCents[id] -= expense.getAmountCents();
+        }
+    }
+
+    public CategoryTotal getTotal(String category) {
+        int id = getId(category);
+        return id < 0 ? new CategoryTotal(0, 0) : new CategoryTotal(counts[id], sumCents[id]);
+    }
+
+    /** Returns the figures of every category that has expenses, in id order. */
+    public Map<String, CategoryTotal> getTotals() {
+        Map<String, CategoryTotal> totals = new LinkedHashMap<>();
+        for (int id = 0; id < names.size(); id++) {
+            if (counts[id] > 0) {
+                totals.put(names.get(id), new CategoryTotal(counts[id], sumCents[id]));
+            }
+        }
+        return totals;
     }
 }
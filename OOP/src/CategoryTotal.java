@@ -0,0 +1,25 @@
+/**
+ * Number and sum (in cents) of the expenses of one category.
+ */
+class CategoryTotal {
+    private final long count;
+    private final long sumCents;
+
+    public CategoryTotal(long count, long sumCents) {
+        this.count = count;
+        this.sumCents = sumCents;
+    }
+
+    public long getCount() { return count; }
+    public long getSumCents() { return sumCents; }
+    public double getSum() { return Money.toDouble(sumCents); }
+
+    public double getAverage() {
+        return count == 0 ? 0.0 : (double) sumCents / count / 100;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", sum=" + ExpenseFormat.formatCents(sumCents);
+    }
+}
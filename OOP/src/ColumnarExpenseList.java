@@ -0,0 +1,333 @@
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A compact, column-oriented list of expenses for very large histories.
+ *
+ * Instead of one object per expense, each field lives in a primitive array:
+ * amounts as long cents, row versions as ints, dates as int epoch days, categories as int codes whose
+ * first values are the CategoryManager ids of the built-in categories, and descriptions as int codes into
+ * a dictionary that stores each distinct text once. get() builds a CategorizedExpense
+ * on demand, so the list can be used wherever a List of expenses is expected, while
+ * the scan methods (sumCents, sumCentsByCategory, ...) read the arrays without
+ * allocating anything.
+ */
+class ColumnarExpenseList extends AbstractList<CategorizedExpense> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int[] ids;
+    private long[] amountCents;
+    private int[] versions;
+    private int[] epochDays;
+    private int[] categoryCodes;
+    private int[] descriptionCodes;
+    private int size;
+
+    private final List<String> categories = new ArrayList<>();
+    private final Map<String, Integer> categoryIndex = new HashMap<>();
+    private final List<String> descriptions = new ArrayList<>();
+    private final Map<String, Integer> descriptionIndex = new HashMap<>();
+
+    public ColumnarExpenseList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ColumnarExpenseList(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        ids = new int[capacity];
+        amountCents = new long[capacity];
+        versions = new int[capacity];
+        epochDays = new int[capacity];
+        categoryCodes = new int[capacity];
+        descriptionCodes = new int[capacity];
+        for (String category : CategoryManager.DEFAULT_CATEGORIES) {
+            categoryCode(category);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public CategorizedExpense get(int index) {
+        checkIndex(index, size);
+        CategorizedExpense expense = CategorizedExpense.ofCents(ids[index],
+                amountCents[index],
+                categories.get(categoryCodes[index]),
+                descriptions.get(descriptionCodes[index]),
+                LocalDate.ofEpochDay(epochDays[index]));
+        expense.setVersion(versions[index]);
+        return expense;
+    }
+
+    @Override
+    public CategorizedExpense set(int index, CategorizedExpense expense) {
+        CategorizedExpense previous = get(index);
+        write(index, expense);
+        return previous;
+    }
+
+    @Override
+    public boolean add(CategorizedExpense expense) {
+        ensureCapacity(size + 1);
+        write(size, expense);
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, CategorizedExpense expense) {
+        checkIndex(index, size + 1);
+        ensureCapacity(size + 1);
+        int moved = size - index;
+        if (moved > 0) {
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(amountCents, index, amountCents, index + 1, moved);
+            System.arraycopy(versions, index, versions, index + 1, moved);
+            System.arraycopy(epochDays, index, epochDays, index + 1, moved);
+            System.arraycopy(categoryCodes, index, categoryCodes, index + 1, moved);
+            System.arraycopy(descriptionCodes, index, descriptionCodes, index + 1, moved);
+        }
+        write(index, expense);
+        size++;
+        modCount++;
+    }
+
+    /** Inserts the expenses at the index with one shift of the columns. */
+    @Override
+    public boolean addAll(int index, Collection<? extends CategorizedExpense> expenses) {
+        checkIndex(index, size + 1);
+        int count = expenses.size();
+        if (count == 0) {
+            return false;
+        }
+        ensureCapacity(size + count);
+        int moved = size - index;
+        if (moved > 0) {
+            System.arraycopy(ids, index, ids, index + count, moved);
+            System.arraycopy(amountCents, index, amountCents, index + count, moved);
+            System.arraycopy(versions, index, versions, index + count, moved);
+            System.arraycopy(epochDays, index, epochDays, index + count, moved);
+            System.arraycopy(categoryCodes, index, categoryCodes, index + count, moved);
+            System.arraycopy(descriptionCodes, index, descriptionCodes, index + count, moved);
+        }
+        int target = index;
+        for (CategorizedExpense expense : expenses) {
+            write(target++, expense);
+        }
+        size += count;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public CategorizedExpense remove(int index) {
+        CategorizedExpense removed = get(index);
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(ids, index + 1, ids, index, moved);
+            System.arraycopy(amountCents, index + 1, amountCents, index, moved);
+            System.arraycopy(versions, index + 1, versions, index, moved);
+            System.arraycopy(epochDays, index + 1, epochDays, index, moved);
+            System.arraycopy(categoryCodes, index + 1, categoryCodes, index, moved);
+            System.arraycopy(descriptionCodes, index + 1, descriptionCodes, index, moved);
+        }
+        size--;
+        modCount++;
+        return removed;
+    }
+
+    /** Removes the rows from fromIndex to toIndex (exclusive) with one shift of the columns. */
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        int moved = size - toIndex;
+        if (moved > 0) {
+            System.arraycopy(ids, toIndex, ids, fromIndex, moved);
+            System.arraycopy(amountCents, toIndex, amountCents, fromIndex, moved);
+            System.arraycopy(versions, toIndex, versions, fromIndex, moved);
+            System.arraycopy(epochDays, toIndex, epochDays, fromIndex, moved);
+            System.arraycopy(categoryCodes, toIndex, categoryCodes, fromIndex, moved);
+            System.arraycopy(descriptionCodes, toIndex, descriptionCodes, fromIndex, moved);
+        }
+        size -= toIndex - fromIndex;
+        modCount++;
+    }
+
+    /**
+     * Removes all rows. The description dictionary is kept, since reloads usually
+     * bring back the same texts.
+     */
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    // --- Column access without allocation ---
+
+    public int idAt(int index) {
+        checkIndex(index, size);
+        return ids[index];
+    }
+
+    public long amountCentsAt(int index) {
+        checkIndex(index, size);
+        return amountCents[index];
+    }
+
+    public int epochDayAt(int index) {
+        checkIndex(index, size);
+        return epochDays[index];
+    }
+
+    public int categoryCodeAt(int index) {
+        checkIndex(index, size);
+        return categoryCodes[index];
+    }
+
+    /** Returns the code of a category, or -1 if no row has used it. */
+    public int findCategoryCode(String category) {
+        Integer code = categoryIndex.get(category);
+        return code == null ? -1 : code;
+    }
+
+    public String categoryName(int code) {
+        return categories.get(code);
+    }
+
+    public int categoryCount() {
+        return categories.size();
+    }
+
+    /** Number of distinct descriptions stored in the dictionary. */
+    public int distinctDescriptionCount() {
+        return descriptions.size();
+    }
+
+    // --- Scans ---
+
+    public long sumCents() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += amountCents[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the sum of each category to out[code]. out must have at least
+     * categoryCount() elements; reusing it across calls avoids any allocation.
+     */
+    public void sumCentsByCategory(long[] out) {
+        for (int i = 0; i < size; i++) {
+            out[categoryCodes[i]] += amountCents[i];
+        }
+    }
+
+    public long sumCentsForCategory(int categoryCode) {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            if (categoryCodes[i] == categoryCode) {
+                sum += amountCents[i];
+            }
+        }
+        return sum;
+    }
+
+    /** Sums the amounts dated between the two days, inclusive. */
+    public long sumCentsBetween(LocalDate from, LocalDate to) {
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            int day = epochDays[i];
+            if (day >= fromDay && day <= toDay) {
+                sum += amountCents[i];
+            }
+        }
+        return sum;
+    }
+
+    /** Counts the rows dated between the two days, inclusive. */
+    public int countBetween(LocalDate from, LocalDate to) {
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int day = epochDays[i];
+            if (day >= fromDay && day <= toDay) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Approximate heap used by the columns and dictionaries, in bytes. */
+    public long estimateFootprintBytes() {
+        long bytes = (long) ids.length * (4 + 8 + 4 + 4 + 4 + 4);
+        for (String description : descriptions) {
+            // String header + array header + one byte per Latin-1 char, plus the map entry
+            bytes += 24 + 16 + description.length() + 48;
+        }
+        return bytes;
+    }
+
+    private void write(int index, CategorizedExpense expense) {
+        ids[index] = expense.getId();
+        amountCents[index] = expense.getAmountCents();
+        versions[index] = expense.getVersion();
+        epochDays[index] = (int) expense.getDate().toEpochDay();
+        categoryCodes[index] = categoryCode(expense.getCategory());
+        descriptionCodes[index] = descriptionCode(expense.getDescription());
+    }
+
+    private int categoryCode(String category) {
+        Integer code = categoryIndex.get(category);
+        if (code == null) {
+            code = categories.size();
+            categories.add(category);
+            categoryIndex.put(category, code);
+        }
+        return code;
+    }
+
+    private int descriptionCode(String description) {
+        Integer code = descriptionIndex.get(description);
+        if (code == null) {
+            code = descriptions.size();
+            descriptions.add(description);
+            descriptionIndex.put(description, code);
+        }
+        return code;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, newCapacity);
+        amountCents = Arrays.copyOf(amountCents, newCapacity);
+        versions = Arrays.copyOf(versions, newCapacity);
+        epochDays = Arrays.copyOf(epochDays, newCapacity);
+        categoryCodes = Arrays.copyOf(categoryCodes, newCapacity);
+        descriptionCodes = Arrays.copyOf(descriptionCodes, newCapacity);
+    }
+
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + limit);
+        }
+    }
+}
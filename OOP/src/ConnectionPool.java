@@ -0,0 +1,406 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded JDBC connection pool used by the DAO.
+ * Connections are validated when borrowed, evicted after sitting idle for too long,
+ * and keep a per-connection cache of prepared statements so that repeated queries
+ * reuse the same server-side prepared statement.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    // Time to get a connection, shared by all pools (the statistics below are per pool)
+    private static final Metrics.Timer BORROW_TIMER = Metrics.timer("pool.borrow");
+
+    private final String url;
+    private final Properties connectionProperties;
+    private final int minIdle;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int statementCacheSize;
+
+    // Permits bound the number of connections that can be handed out at once
+    private final Semaphore permits;
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private int active;
+    private boolean closed;
+
+    // Statistics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * Creates a pool. No connection is opened until the first borrow; the idle
+     * evictor then keeps at least {@code minIdle} connections open.
+     *
+     * @param minIdle Number of idle connections kept open between bursts.
+     * @param maxSize Maximum number of connections open at the same time.
+     * @param borrowTimeoutMillis How long borrow() waits for a free connection.
+     * @param idleTimeoutMillis How long an idle connection above minIdle is kept.
+     * @param statementCacheSize Prepared statements cached per connection.
+     */
+    public ConnectionPool(String url, String user, String password,
+                          int minIdle, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis,
+                          int statementCacheSize) {
+        if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minIdle + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        connectionProperties = new Properties();
+        connectionProperties.setProperty("user", user);
+        connectionProperties.setProperty("password", password);
+        // Let pgjdbc switch to a named server-side statement on the first execution
+        connectionProperties.setProperty("prepareThreshold", "1");
+        // Collapse batched INSERTs into multi-row statements
+        connectionProperties.setProperty("reWriteBatchedInserts", "true");
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting at most the configured borrow timeout.
+     * The returned connection must be closed to give it back to the pool.
+     */
+    public PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                Metrics.counter("pool.timeouts").increment();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis
+                        + " ms waiting for a database connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            synchronized (this) {
+                if (closed) {
+                    pooled.closeQuietly();
+                    throw new SQLException("Connection pool is closed");
+                }
+                active++;
+            }
+            recordWait(System.nanoTime() - start);
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Called by PooledConnection.close().
+     */
+    void release(PooledConnection pooled) {
+        boolean reusable;
+        try {
+            Connection conn = pooled.getConnection();
+            reusable = !conn.isClosed();
+            if (reusable && !conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        synchronized (this) {
+            active--;
+            if (reusable && !closed) {
+                pooled.lastUsedMillis = System.currentTimeMillis();
+                idle.push(pooled);
+                pooled = null;
+            }
+        }
+        if (pooled != null) {
+            pooled.closeQuietly();
+        }
+        permits.release();
+    }
+
+    /**
+     * Opens a connection with the pool's settings that does not count against its size,
+     * for a session that stays open as long as the application runs, such as one waiting
+     * for notifications. The caller closes it.
+     */
+    public Connection openUnpooled() throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+        }
+        return DriverManager.getConnection(url, connectionProperties);
+    }
+
+    /**
+     * Returns a snapshot of the pool counters, useful when sizing the pool under load.
+     */
+    public Stats getStats() {
+        synchronized (this) {
+            return new Stats(active, idle.size(), maxSize,
+                    borrowCount.get(), totalWaitNanos.get(), maxWaitNanos.get(),
+                    createdCount.get(), evictedCount.get(), timeoutCount.get());
+        }
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        ArrayDeque<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled : toClose) {
+            pooled.closeQuietly();
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (this) {
+                pooled = idle.poll();
+            }
+            if (pooled == null) {
+                return null;
+            }
+            try {
+                if (pooled.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return pooled;
+                }
+            } catch (SQLException e) {
+                // fall through and discard the broken connection
+            }
+            evictedCount.incrementAndGet();
+            pooled.closeQuietly();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, connectionProperties);
+        createdCount.incrementAndGet();
+        return new PooledConnection(this, conn, statementCacheSize);
+    }
+
+    private void recordWait(long nanos) {
+        BORROW_TIMER.record(nanos);
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Runs periodically: closes connections idle for longer than the idle timeout
+     * (keeping minIdle of them) and tops the idle set back up to minIdle.
+     */
+    private void maintain() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        ArrayDeque<PooledConnection> expired = new ArrayDeque<>();
+        int missing;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // The oldest connections sit at the tail because release() pushes to the head
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledConnection pooled = it.next();
+                if (pooled.lastUsedMillis >= cutoff) {
+                    break;
+                }
+                it.remove();
+                expired.add(pooled);
+            }
+            missing = Math.min(minIdle - idle.size(), maxSize - active - idle.size());
+        }
+        for (PooledConnection pooled : expired) {
+            evictedCount.incrementAndGet();
+            pooled.closeQuietly();
+        }
+
+        for (int i = 0; i < missing; i++) {
+            // Opening under a permit keeps a borrower from opening one at the same time,
+            // which could take the pool past maxSize; if none is free, the pool is busy anyway
+            if (!permits.tryAcquire()) {
+                return;
+            }
+            try {
+                PooledConnection pooled = open();
+                pooled.lastUsedMillis = System.currentTimeMillis();
+                synchronized (this) {
+                    if (closed) {
+                        pooled.closeQuietly();
+                        return;
+                    }
+                    idle.addLast(pooled);
+                }
+            } catch (SQLException e) {
+                // The database is unreachable; try again on the next run
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * A borrowed connection. Closing it returns the underlying connection to the pool.
+     * Statements obtained from prepare() are owned by the connection and must not be closed.
+     */
+    static class PooledConnection implements AutoCloseable {
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statementCache;
+        private long lastUsedMillis;
+
+        PooledConnection(ConnectionPool pool, Connection connection, int cacheSize) {
+            this.pool = pool;
+            this.connection = connection;
+            this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > cacheSize) {
+                        closeStatementQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Returns a cached prepared statement for the SQL text, preparing it on first use.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement pstmt = statementCache.get(sql);
+            if (pstmt == null || pstmt.isClosed()) {
+                pstmt = connection.prepareStatement(sql);
+                statementCache.put(sql, pstmt);
+            } else {
+                pstmt.clearParameters();
+            }
+            return pstmt;
+        }
+
+        @Override
+        public void close() {
+            pool.release(this);
+        }
+
+        void closeQuietly() {
+            for (PreparedStatement pstmt : statementCache.values()) {
+                closeStatementQuietly(pstmt);
+            }
+            statementCache.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // ignored, the connection is being discarded
+            }
+        }
+
+        private static void closeStatementQuietly(PreparedStatement pstmt) {
+            try {
+                pstmt.close();
+            } catch (SQLException e) {
+                // ignored, the statement is being discarded
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of pool statistics.
+     */
+    static class Stats {
+        private final int active;
+        private final int idle;
+        private final int maxSize;
+        private final long borrowCount;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long createdCount;
+        private final long evictedCount;
+        private final long timeoutCount;
+
+        Stats(int active, int idle, int maxSize, long borrowCount, long totalWaitNanos,
+              long maxWaitNanos, long createdCount, long evictedCount, long timeoutCount) {
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.borrowCount = borrowCount;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.createdCount = createdCount;
+            this.evictedCount = evictedCount;
+            this.timeoutCount = timeoutCount;
+        }
+
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public int getMaxSize() { return maxSize; }
+        public long getBorrowCount() { return borrowCount; }
+        public long getCreatedCount() { return createdCount; }
+        public long getEvictedCount() { return evictedCount; }
+        public long getTimeoutCount() { return timeoutCount; }
+        public double getMaxWaitMillis() { return maxWaitNanos / 1_000_000.0; }
+
+        public double getAverageWaitMillis() {
+            return borrowCount == 0 ? 0.0 : totalWaitNanos / 1_000_000.0 / borrowCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active=%d, idle=%d, max=%d, borrows=%d, avgWait=%.3f ms, maxWait=%.3f ms, "
+                            + "created=%d, evicted=%d, timeouts=%d",
+                    active, idle, maxSize, borrowCount, getAverageWaitMillis(), getMaxWaitMillis(),
+                    createdCount, evictedCount, timeoutCount);
+        }
+    }
+}
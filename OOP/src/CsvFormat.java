@@ -0,0 +1,39 @@
+/**
+ * Minimal CSV helpers shared by the COPY fast path and file exports.
+ */
+class CsvFormat {
+
+    private CsvFormat() {
+    }
+
+    /**
+     * Appends a field, quoting it only when it contains a separator, quote or line break.
+     */
+    public static void appendField(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                needsQuotes = true;
+                break;
+            }
+        }
+        // An empty quoted string keeps COPY from reading the field as NULL
+        if (!needsQuotes && !value.isEmpty()) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+}
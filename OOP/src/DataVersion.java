@@ -0,0 +1,38 @@
+/**
+ * A cheap fingerprint of the expenses table (row count and highest id), used to
+ * decide whether the in-memory copy needs to be re-synced with the database.
+ */
+class DataVersion {
+    private final long rowCount;
+    private final int maxId;
+
+    public DataVersion(long rowCount, int maxId) {
+        this.rowCount = rowCount;
+        this.maxId = maxId;
+    }
+
+    public long getRowCount() { return rowCount; }
+    public int getMaxId() { return maxId; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DataVersion)) {
+            return false;
+        }
+        DataVersion other = (DataVersion) o;
+        return rowCount == other.rowCount && maxId == other.maxId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(rowCount) * 31 + maxId;
+    }
+
+    @Override
+    public String toString() {
+        return "rows=" + rowCount + ", maxId=" + maxId;
+    }
+}
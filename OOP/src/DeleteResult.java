@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a delete that checks row versions: the expenses that were deleted,
+ * those left alone because another client changed them after they were read, and
+ * those that were already gone.
+ */
+class DeleteResult {
+    private final List<CategorizedExpense> deleted = new ArrayList<>();
+    private final List<CategorizedExpense> changed = new ArrayList<>();
+    private final List<CategorizedExpense> missing = new ArrayList<>();
+
+    void addDeleted(CategorizedExpense expense) {
+        deleted.add(expense);
+    }
+
+    void addChanged(CategorizedExpense expense) {
+        changed.add(expense);
+    }
+
+    void addMissing(CategorizedExpense expense) {
+        missing.add(expense);
+    }
+
+    public List<CategorizedExpense> getDeleted() {
+        return Collections.unmodifiableList(deleted);
+    }
+
+    /** Expenses that still exist but at another version than the one passed in. */
+    public List<CategorizedExpense> getChanged() {
+        return Collections.unmodifiableList(changed);
+    }
+
+    public List<CategorizedExpense> getMissing() {
+        return Collections.unmodifiableList(missing);
+    }
+
+    public int getDeletedCount() {
+        return deleted.size();
+    }
+}
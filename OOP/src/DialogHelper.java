@@ -23,6 +23,16 @@ class DialogHelper {
     }
 
 
+    /**
+     * Asks for a line of text.
+     *
+     * @return the text entered, or null if the dialog was cancelled.
+     */
+    public static String showInput(Component parentComponent, String message, String title) {
+        return JOptionPane.showInputDialog(parentComponent, message, title, JOptionPane.QUESTION_MESSAGE);
+    }
+
+
     public static int showConfirm(Component parentComponent, String message, String title) {
         return JOptionPane.showConfirmDialog(parentComponent, message, title, JOptionPane.YES_NO_OPTION);
     }
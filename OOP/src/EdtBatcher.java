@@ -0,0 +1,57 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Collects items handed over from any thread and passes them to the Event Dispatch
+ * Thread in one batch per frame. A burst of changes, such as a write-behind flush
+ * storing hundreds of expenses, then costs one store update, one table event and one
+ * repaint instead of one of each per item.
+ */
+class EdtBatcher<T> {
+
+    // About one frame at 60 Hz; the first item of a burst waits at most this long
+    static final int FRAME_MILLIS = 16;
+
+    private final Consumer<List<T>> consumer;
+    private final Timer timer;
+    private List<T> pending = new ArrayList<>();
+
+    /**
+     * @param consumer Called on the EDT with the items collected during the last frame,
+     *        in the order they were added.
+     */
+    public EdtBatcher(Consumer<List<T>> consumer) {
+        this.consumer = consumer;
+        timer = new Timer(FRAME_MILLIS, e -> flush());
+        timer.setRepeats(false);
+    }
+
+    /** Queues an item. May be called from any thread. */
+    public void add(T item) {
+        boolean first;
+        synchronized (this) {
+            first = pending.isEmpty();
+            pending.add(item);
+        }
+        if (first) {
+            SwingUtilities.invokeLater(timer::start);
+        }
+    }
+
+    /** Hands over whatever is queued right away. Must be called on the EDT. */
+    public void flush() {
+        timer.stop();
+        List<T> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        consumer.accept(batch);
+    }
+}
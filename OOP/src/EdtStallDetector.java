@@ -0,0 +1,81 @@
+import java.awt.EventQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the Event Dispatch Thread for stalls. A daemon thread posts a small task to
+ * the EDT every PING_MILLIS and records how long it waited to run in the "ui.edtLatency"
+ * timer. When a task has been waiting longer than the stall threshold, the stall is
+ * counted in "ui.edtStalls" and the EDT's stack is printed once, which shows what was
+ * blocking it: usually database or file work that belongs on a background thread.
+ *
+ * The pings keep the AWT event thread busy, so AWT never shuts itself down while the
+ * detector runs; the application exits with System.exit (EXIT_ON_CLOSE) or calls stop().
+ */
+class EdtStallDetector {
+
+    private static final long PING_MILLIS = 100;
+
+    private final long stallNanos;
+    private final Metrics.Timer latency = Metrics.timer("ui.edtLatency");
+    // When the ping now in the queue was posted, or 0 if it has run
+    private final AtomicLong pendingSince = new AtomicLong();
+    private volatile Thread eventThread;
+    private Thread watcher;
+
+    public EdtStallDetector(long stallMillis) {
+        this.stallNanos = stallMillis * 1_000_000L;
+    }
+
+    public synchronized void start() {
+        if (watcher != null) {
+            return;
+        }
+        watcher = new Thread(this::watch, "edt-stall-detector");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public synchronized void stop() {
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    private void watch() {
+        boolean reported = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            long posted = pendingSince.get();
+            if (posted == 0) {
+                long now = System.nanoTime();
+                pendingSince.set(now);
+                reported = false;
+                EventQueue.invokeLater(() -> {
+                    eventThread = Thread.currentThread();
+                    latency.recordSince(now);
+                    pendingSince.set(0);
+                });
+            } else if (!reported && System.nanoTime() - posted > stallNanos) {
+                reported = true;
+                Metrics.counter("ui.edtStalls").increment();
+                reportStall((System.nanoTime() - posted) / 1_000_000);
+            }
+            try {
+                Thread.sleep(PING_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void reportStall(long millis) {
+        StringBuilder sb = new StringBuilder("Event Dispatch Thread blocked for ").append(millis).append(" ms");
+        Thread edt = eventThread;
+        if (edt != null) {
+            for (StackTraceElement frame : edt.getStackTrace()) {
+                sb.append("\n\tat ").append(frame);
+            }
+        }
+        System.err.println(sb);
+    }
+}
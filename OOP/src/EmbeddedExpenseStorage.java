@@ -0,0 +1,1139 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps expenses in local memory-mapped files, so the tracker starts at once and keeps
+ * working without a database server.
+ *
+ * expenses.dat holds fixed-width 32-byte records appended one after another:
+ * [int id][int flags][long amount in cents][int epoch day][int category ref][long description ref].
+ * Category and description text lives in strings.dat, an append-only heap of
+ * length-prefixed UTF-8 entries; each category is stored once and shared by reference.
+ * Records are never moved: a delete only sets a flag. On open the live records are
+ * indexed by id in two sorted int arrays, which answer pages and lookups by binary search.
+ * A bulk delete also marks its records as tombstones, so restoreExpenses() can clear the
+ * flags again until the delete has been sent to the database.
+ *
+ * Each write is forced to disk before it returns. A record only counts once the record
+ * count in the header covers it, and the header is written last, so a crash halfway
+ * through an insert loses nothing that was acknowledged.
+ *
+ * Expenses created here get ids from LOCAL_ID_BASE upwards so they can never clash with
+ * PostgreSQL ids. ExpenseSync pushes them to the database, which gives them their real
+ * ids, and pulls rows added there; the flags below track what still has to be sent.
+ */
+class EmbeddedExpenseStorage implements ExpenseStorage {
+
+    /** First id given to expenses created locally, far above any database id. */
+    static final int LOCAL_ID_BASE = 1 << 30;
+
+    // Record flags
+    private static final int DELETED = 1;
+    private static final int PENDING_INSERT = 2;
+    private static final int PENDING_DELETE = 4;
+    // Deleted by deleteExpenses() and not yet confirmed by the database
+    private static final int TOMBSTONE = 8;
+
+    private static final int MAGIC = 0x45585044; // "EXPD"
+    private static final int STRINGS_MAGIC = 0x45585053; // "EXPS"
+    // Version 1 stored the amount as a double; open() converts such files to cents
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int STRINGS_HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+    private static final int INITIAL_RECORDS = 4_096;
+    private static final int INITIAL_STRING_BYTES = 256 * 1024;
+    // A single mapping is limited to 2 GB
+    private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+    // Header fields of expenses.dat
+    private static final int RECORD_COUNT_OFFSET = 24;
+    private static final int NEXT_LOCAL_ID_OFFSET = 28;
+    private static final int SYNCED_MAX_ID_OFFSET = 32;
+    // Header field of strings.dat
+    private static final int STRINGS_END_OFFSET = 8;
+
+    private final FileChannel recordChannel;
+    private final FileChannel stringChannel;
+    private final FileLock fileLock;
+    private final String storeId;
+    private final Path categoriesFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer records;
+    private MappedByteBuffer strings;
+    private int recordCount;
+    private int nextLocalId;
+    private int syncedMaxId;
+    private long stringsEnd;
+
+    // Live records sorted by id: ids[i] is stored in slot slots[i]
+    private int[] ids = new int[INITIAL_RECORDS];
+    private int[] slots = new int[INITIAL_RECORDS];
+    private int liveCount;
+    private long totalCents;
+    private int pendingInserts;
+    private final Set<Integer> pendingDeletes = new HashSet<>();
+    // Filled lazily by readers too, so these must tolerate concurrent access
+    private final Map<Integer, String> categoriesByRef = new ConcurrentHashMap<>();
+    private final Map<String, Integer> refsByCategory = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the storage in the directory, creating it if needed. Only one process can
+     * have it open at a time.
+     */
+    public EmbeddedExpenseStorage(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        categoriesFile = directory.resolve("categories.txt");
+        recordChannel = FileChannel.open(directory.resolve("expenses.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel openedStrings = null;
+        FileLock acquired = null;
+        try {
+            acquired = recordChannel.tryLock();
+            if (acquired == null) {
+                throw new IOException("Expense storage is in use by another process: " + directory);
+            }
+            openedStrings = FileChannel.open(directory.resolve("strings.dat"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            stringChannel = openedStrings;
+            fileLock = acquired;
+            if (recordChannel.size() < HEADER_SIZE) {
+                storeId = UUID.randomUUID().toString();
+                create();
+            } else {
+                storeId = open(directory);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (openedStrings != null) {
+                openedStrings.close();
+            }
+            recordChannel.close();
+            throw e;
+        }
+    }
+
+    private void create() throws IOException {
+        records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) INITIAL_RECORDS * RECORD_SIZE);
+        strings = stringChannel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_STRING_BYTES);
+        UUID uuid = UUID.fromString(storeId);
+        records.putInt(0, MAGIC);
+        records.putInt(4, VERSION);
+        records.putLong(8, uuid.getMostSignificantBits());
+        records.putLong(16, uuid.getLeastSignificantBits());
+        nextLocalId = LOCAL_ID_BASE + 1;
+        writeHeader();
+        strings.putInt(0, STRINGS_MAGIC);
+        strings.putInt(4, VERSION);
+        stringsEnd = STRINGS_HEADER_SIZE;
+        strings.putLong(STRINGS_END_OFFSET, stringsEnd);
+        strings.force();
+        records.force();
+    }
+
+    private String open(Path directory) throws IOException {
+        records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, recordChannel.size());
+        if (records.getInt(0) != MAGIC || (records.getInt(4) != VERSION && records.getInt(4) != 1)) {
+            throw new IOException("Not an expense storage file: " + directory.resolve("expenses.dat"));
+        }
+        if (records.getInt(4) == 1) {
+            upgradeAmountsToCents(directory);
+        }
+        strings = stringChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(stringChannel.size(), INITIAL_STRING_BYTES));
+        if (strings.getInt(0) != STRINGS_MAGIC) {
+            throw new IOException("Not an expense strings file: " + directory.resolve("strings.dat"));
+        }
+        stringsEnd = strings.getLong(STRINGS_END_OFFSET);
+        recordCount = records.getInt(RECORD_COUNT_OFFSET);
+        nextLocalId = records.getInt(NEXT_LOCAL_ID_OFFSET);
+        syncedMaxId = records.getInt(SYNCED_MAX_ID_OFFSET);
+        buildIndex();
+        return new UUID(records.getLong(8), records.getLong(16)).toString();
+    }
+
+    /**
+     * Rewrites the double amounts of a version 1 file as cents. The file is copied to
+     * expenses.dat.v1 first and the copy is only deleted once the new version is on
+     * disk, so an upgrade cut short by a crash starts over from the copy.
+     */
+    private void upgradeAmountsToCents(Path directory) throws IOException {
+        Path backup = directory.resolve("expenses.dat.v1");
+        if (Files.exists(backup)) {
+            try (FileChannel source = FileChannel.open(backup, StandardOpenOption.READ)) {
+                ByteBuffer target = records.duplicate();
+                target.clear();
+                while (target.hasRemaining() && source.read(target) >= 0) {
+                    // Copies the untouched version 1 content back
+                }
+            }
+        } else {
+            Path temp = directory.resolve("expenses.dat.v1.tmp");
+            try (FileChannel copy = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer source = records.duplicate();
+                source.clear();
+                while (source.hasRemaining()) {
+                    copy.write(source);
+                }
+                copy.force(true);
+            }
+            Files.move(temp, backup, StandardCopyOption.ATOMIC_MOVE);
+        }
+        int count = records.getInt(RECORD_COUNT_OFFSET);
+        for (int slot = 0; slot < count; slot++) {
+            int position = recordPosition(slot);
+            records.putLong(position + 8, Money.toCents(records.getDouble(position + 8)));
+        }
+        records.force();
+        records.putInt(4, VERSION);
+        records.force();
+        Files.delete(backup);
+    }
+
+    /** Indexes the live records and caches the category names. */
+    private void buildIndex() {
+        ids = new int[Math.max(INITIAL_RECORDS, recordCount)];
+        slots = new int[ids.length];
+        boolean sorted = true;
+        for (int slot = 0; slot < recordCount; slot++) {
+            int position = recordPosition(slot);
+            int id = records.getInt(position);
+            int flags = records.getInt(position + 4);
+            if ((flags & PENDING_DELETE) != 0) {
+                pendingDeletes.add(id);
+            }
+            if ((flags & (DELETED | PENDING_DELETE)) != 0) {
+                continue;
+            }
+            if ((flags & PENDING_INSERT) != 0) {
+                pendingInserts++;
+            }
+            sorted &= liveCount == 0 || ids[liveCount - 1] < id;
+            ids[liveCount] = id;
+            slots[liveCount] = slot;
+            liveCount++;
+            totalCents += records.getLong(position + 8);
+            categoryAt(records.getInt(position + 20));
+        }
+        if (!sorted) {
+            // Rows pulled from the database can land after newer local rows; sort id/slot pairs
+            long[] pairs = new long[liveCount];
+            for (int i = 0; i < liveCount; i++) {
+                pairs[i] = ((long) ids[i] << 32) | slots[i];
+            }
+            Arrays.sort(pairs);
+            for (int i = 0; i < liveCount; i++) {
+                ids[i] = (int) (pairs[i] >>> 32);
+                slots[i] = (int) pairs[i];
+            }
+        }
+    }
+
+    /** The id under which the database remembers which local expenses it already has. */
+    public String getStoreId() {
+        return storeId;
+    }
+
+    @Override
+    public CategorizedExpense addExpense(CategorizedExpense expense) throws SQLException {
+        try {
+            ExpenseValidator.validate(expense);
+        } catch (InvalidExpenseException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+        lock.writeLock().lock();
+        Staging staging = new Staging();
+        try {
+            int id = nextLocalId;
+            append(id, PENDING_INSERT, expense);
+            nextLocalId = id + 1;
+            commit();
+            staging.committed = true;
+            expense.setId(id);
+            return expense;
+        } catch (IOException e) {
+            throw storageError("Failed to store the expense", e);
+        } finally {
+            staging.discardIfUncommitted();
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BatchInsertResult addExpenses(Collection<CategorizedExpense> expenses) throws SQLException {
+        BatchInsertResult result = new BatchInsertResult();
+        List<CategorizedExpense> valid = new ArrayList<>(expenses.size());
+        int index = 0;
+        for (CategorizedExpense expense : expenses) {
+            try {
+                ExpenseValidator.validate(expense);
+                valid.add(expense);
+            } catch (InvalidExpenseException e) {
+                result.addFailure(index, expense, e);
+            }
+            index++;
+        }
+        lock.writeLock().lock();
+        Staging staging = new Staging();
+        try {
+            // One force for the whole batch; nothing counts until the header is written
+            int id = nextLocalId;
+            for (CategorizedExpense expense : valid) {
+                append(id++, PENDING_INSERT, expense);
+            }
+            nextLocalId = id;
+            commit();
+            staging.committed = true;
+            id = nextLocalId - valid.size();
+            for (CategorizedExpense expense : valid) {
+                expense.setId(id++);
+                result.addInserted(expense);
+            }
+            return result;
+        } catch (IOException e) {
+            throw storageError("Failed to store the expenses", e);
+        } finally {
+            staging.discardIfUncommitted();
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteExpense(int id) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(id);
+            if (index < 0) {
+                return false;
+            }
+            int position = recordPosition(slots[index]);
+            int flags = records.getInt(position + 4);
+            // A row the database has never seen can simply go; others must be deleted there too
+            boolean local = (flags & PENDING_INSERT) != 0;
+            records.putInt(position + 4, local ? DELETED : flags | PENDING_DELETE);
+            if (local) {
+                pendingInserts--;
+            } else {
+                pendingDeletes.add(id);
+            }
+            removeFromIndex(index, position);
+            records.force();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int deleteExpenses(Collection<Integer> ids) {
+        return deleteAll(ids, null);
+    }
+
+    /**
+     * Only this process writes the local storage, so no row changes behind the caller's
+     * back: every expense that still exists is deleted.
+     */
+    @Override
+    public DeleteResult deleteExpensesIfUnchanged(Collection<CategorizedExpense> expenses) {
+        Map<Integer, CategorizedExpense> byId = new LinkedHashMap<>();
+        for (CategorizedExpense expense : expenses) {
+            byId.putIfAbsent(expense.getId(), expense);
+        }
+        List<Integer> deleted = new ArrayList<>(byId.size());
+        deleteAll(byId.keySet(), deleted);
+        DeleteResult result = new DeleteResult();
+        for (int id : deleted) {
+            result.addDeleted(byId.remove(id));
+        }
+        byId.values().forEach(result::addMissing);
+        return result;
+    }
+
+    /** Deletes the ids that exist, adding them to deletedIds if it is not null. */
+    private int deleteAll(Collection<Integer> ids, List<Integer> deletedIds) {
+        lock.writeLock().lock();
+        try {
+            int deleted = 0;
+            for (int id : ids) {
+                int index = indexOf(id);
+                if (index < 0 || slots[index] < 0) {
+                    continue;
+                }
+                int position = recordPosition(slots[index]);
+                int flags = records.getInt(position + 4);
+                boolean local = (flags & PENDING_INSERT) != 0;
+                records.putInt(position + 4, (local ? DELETED : flags | PENDING_DELETE) | TOMBSTONE);
+                if (local) {
+                    pendingInserts--;
+                } else {
+                    pendingDeletes.add(id);
+                }
+                totalCents -= records.getLong(position + 8);
+                // Dropped from the index below, in one pass for all of them
+                slots[index] = -1;
+                deleted++;
+                if (deletedIds != null) {
+                    deletedIds.add(id);
+                }
+            }
+            if (deleted > 0) {
+                compactIndex();
+                records.force();
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int restoreExpenses(Collection<Integer> ids) {
+        Set<Integer> wanted = new HashSet<>(ids);
+        lock.writeLock().lock();
+        try {
+            List<long[]> restored = new ArrayList<>();
+            // Newest records first, so only the latest record of an id is considered
+            for (int slot = recordCount - 1; slot >= 0 && !wanted.isEmpty(); slot--) {
+                int position = recordPosition(slot);
+                int id = records.getInt(position);
+                int flags = records.getInt(position + 4);
+                if ((flags & TOMBSTONE) == 0 || !wanted.remove(id) || indexOf(id) >= 0) {
+                    continue;
+                }
+                if ((flags & DELETED) != 0) {
+                    // Created here and never sent: pending again
+                    records.putInt(position + 4, PENDING_INSERT);
+                    pendingInserts++;
+                } else {
+                    records.putInt(position + 4, flags & ~(PENDING_DELETE | TOMBSTONE));
+                    pendingDeletes.remove(id);
+                }
+                totalCents += records.getLong(position + 8);
+                restored.add(new long[] {id, slot});
+            }
+            if (!restored.isEmpty()) {
+                mergeIntoIndex(restored);
+                records.force();
+            }
+            return restored.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<CategorizedExpense> getExpensesPage(int afterId, int limit) {
+        return findExpenses(ExpenseFilter.ALL, afterId, limit);
+    }
+
+    @Override
+    public List<CategorizedExpense> getExpensesAfter(int afterId, int limit) {
+        List<CategorizedExpense> rows = new ArrayList<>(Math.min(limit, 1024));
+        lock.readLock().lock();
+        try {
+            for (int i = indexAtOrAbove(afterId + 1); i < liveCount && rows.size() < limit; i++) {
+                rows.add(readExpense(recordPosition(slots[i])));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return rows;
+    }
+
+    @Override
+    public List<CategorizedExpense> findExpenses(ExpenseFilter filter, int afterId, int limit) {
+        List<CategorizedExpense> page = new ArrayList<>(Math.min(limit, 1024));
+        lock.readLock().lock();
+        try {
+            Matcher matcher = new Matcher(filter);
+            for (int i = startBelow(afterId); i >= 0 && page.size() < limit; i--) {
+                int position = recordPosition(slots[i]);
+                if (matcher.matchesColumns(position)) {
+                    CategorizedExpense expense = readExpense(position);
+                    if (matcher.matchesText(expense)) {
+                        page.add(expense);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return page;
+    }
+
+    @Override
+    public Cursor openCursor() {
+        int[] snapshot;
+        lock.readLock().lock();
+        try {
+            snapshot = Arrays.copyOf(slots, liveCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Cursor() {
+            private int next = snapshot.length - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public CategorizedExpense next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                lock.readLock().lock();
+                try {
+                    return readExpense(recordPosition(snapshot[next--]));
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                next = -1;
+            }
+        };
+    }
+
+    @Override
+    public DataVersion getDataVersion() {
+        lock.readLock().lock();
+        try {
+            return new DataVersion(liveCount, liveCount == 0 ? 0 : ids[liveCount - 1]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getTotalCents() {
+        lock.readLock().lock();
+        try {
+            return totalCents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ExpenseStatistics getStatistics(LocalDate from, LocalDate to) {
+        return getStatistics(ExpenseFilter.ALL.withDateRange(from, to));
+    }
+
+    /**
+     * Groups the matching records by category and day straight from the mapped file,
+     * then hands one group per pair to ExpenseStatistics, like the database GROUP BY.
+     */
+    @Override
+    public ExpenseStatistics getStatistics(ExpenseFilter filter) {
+        // [count, sum, min, max] per category and day
+        Map<Long, long[]> groups = new HashMap<>();
+        ExpenseStatistics statistics = new ExpenseStatistics();
+        lock.readLock().lock();
+        try {
+            Matcher matcher = new Matcher(filter);
+            for (int i = 0; i < liveCount; i++) {
+                int position = recordPosition(slots[i]);
+                if (!matcher.matchesColumns(position)
+                        || (filter.getText() != null && !matcher.matchesText(readExpense(position)))) {
+                    continue;
+                }
+                long amount = records.getLong(position + 8);
+                long key = ((long) records.getInt(position + 20) << 32) | (records.getInt(position + 16) & 0xFFFFFFFFL);
+                long[] group = groups.get(key);
+                if (group == null) {
+                    groups.put(key, new long[]{1, amount, amount, amount});
+                } else {
+                    group[0]++;
+                    group[1] += amount;
+                    group[2] = Math.min(group[2], amount);
+                    group[3] = Math.max(group[3], amount);
+                }
+            }
+            for (Map.Entry<Long, long[]> entry : groups.entrySet()) {
+                long key = entry.getKey();
+                long[] group = entry.getValue();
+                statistics.acceptGroup(categoryAt((int) (key >>> 32)), LocalDate.ofEpochDay((int) key),
+                        group[0], group[1], group[2], group[3]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return statistics;
+    }
+
+    @Override
+    public Map<String, CategoryTotal> getCategoryTotals() {
+        Map<Integer, long[]> byRef = new HashMap<>();
+        Map<String, CategoryTotal> totals = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < liveCount; i++) {
+                int position = recordPosition(slots[i]);
+                long[] group = byRef.computeIfAbsent(records.getInt(position + 20), k -> new long[2]);
+                group[0]++;
+                group[1] += records.getLong(position + 8);
+            }
+            for (Map.Entry<Integer, long[]> entry : byRef.entrySet()) {
+                totals.put(categoryAt(entry.getKey()),
+                        new CategoryTotal(entry.getValue()[0], entry.getValue()[1]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return totals;
+    }
+
+    /** User-defined categories live in categories.txt, one name per line. */
+    @Override
+    public List<String> getCustomCategories() throws SQLException {
+        lock.readLock().lock();
+        try {
+            return Files.exists(categoriesFile)
+                    ? Files.readAllLines(categoriesFile, StandardCharsets.UTF_8)
+                    : new ArrayList<>();
+        } catch (IOException e) {
+            throw storageError("Failed to read the categories", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addCategory(String name) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            List<String> names = Files.exists(categoriesFile)
+                    ? Files.readAllLines(categoriesFile, StandardCharsets.UTF_8)
+                    : new ArrayList<>();
+            if (names.contains(name)) {
+                return;
+            }
+            names.add(name);
+            Path temporary = categoriesFile.resolveSibling(categoriesFile.getFileName() + ".tmp");
+            Files.write(temporary, names, StandardCharsets.UTF_8);
+            Files.move(temporary, categoriesFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw storageError("Failed to save the category", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Used by ExpenseSync ---
+
+    /** Highest database id copied into this storage so far. */
+    int getSyncedMaxId() {
+        lock.readLock().lock();
+        try {
+            return syncedMaxId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** True if local changes are waiting to be sent to the database. */
+    boolean hasPendingChanges() {
+        lock.readLock().lock();
+        try {
+            return pendingInserts > 0 || !pendingDeletes.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Expenses created locally and not yet in the database, oldest first. */
+    List<CategorizedExpense> getPendingInserts() {
+        List<CategorizedExpense> pending = new ArrayList<>(pendingInserts);
+        lock.readLock().lock();
+        try {
+            // Local ids are the highest, so the pending rows sit at the end of the index
+            for (int i = indexAtOrAbove(LOCAL_ID_BASE); i < liveCount; i++) {
+                int position = recordPosition(slots[i]);
+                if ((records.getInt(position + 4) & PENDING_INSERT) != 0) {
+                    pending.add(readExpense(position));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return pending;
+    }
+
+    /** Ids deleted locally that still have to be deleted in the database. */
+    int[] getPendingDeletes() {
+        lock.readLock().lock();
+        try {
+            return pendingDeletes.stream().mapToInt(Integer::intValue).sorted().toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces a locally created expense by the row the database stored for it. If the
+     * local expense was deleted in the meantime, the stored row is queued for deletion.
+     */
+    void confirmInserted(int localId, CategorizedExpense stored) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(localId);
+            if (index >= 0) {
+                int position = recordPosition(slots[index]);
+                records.putInt(position + 4, DELETED);
+                removeFromIndex(index, position);
+                pendingInserts--;
+                if (indexOf(stored.getId()) < 0) {
+                    appendSynced(stored, 0);
+                }
+            } else if (indexOf(stored.getId()) < 0 && !pendingDeletes.contains(stored.getId())) {
+                appendSynced(stored, PENDING_DELETE);
+            }
+            commit();
+        } catch (IOException e) {
+            throw storageError("Failed to record the stored expense", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets locally deleted expenses once the database has deleted them too. They can
+     * no longer be restored here.
+     */
+    void confirmDeleted(int[] ids) {
+        lock.writeLock().lock();
+        try {
+            Set<Integer> confirmed = new HashSet<>();
+            for (int id : ids) {
+                if (pendingDeletes.remove(id)) {
+                    confirmed.add(id);
+                }
+            }
+            if (confirmed.isEmpty()) {
+                return;
+            }
+            for (int slot = recordCount - 1; slot >= 0 && !confirmed.isEmpty(); slot--) {
+                int position = recordPosition(slot);
+                if ((records.getInt(position + 4) & PENDING_DELETE) != 0 && confirmed.remove(records.getInt(position))) {
+                    records.putInt(position + 4, DELETED);
+                }
+            }
+            records.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds rows read from the database, oldest first, and moves the sync watermark to
+     * the last one. Rows already here, or deleted here but not yet in the database, are skipped.
+     *
+     * @return the number of rows added.
+     */
+    int applyRemoteRows(List<CategorizedExpense> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        lock.writeLock().lock();
+        Staging staging = new Staging();
+        try {
+            int added = 0;
+            for (CategorizedExpense row : rows) {
+                if (indexOf(row.getId()) < 0 && !pendingDeletes.contains(row.getId())) {
+                    appendSynced(row, 0);
+                    added++;
+                }
+                syncedMaxId = Math.max(syncedMaxId, row.getId());
+            }
+            commit();
+            staging.committed = true;
+            return added;
+        } catch (IOException e) {
+            throw storageError("Failed to store the database rows", e);
+        } finally {
+            staging.discardIfUncommitted();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the database rows held here whose ids are no longer in the database, i.e. that
+     * were deleted by another client.
+     *
+     * @param remoteIds every id in the database, ascending.
+     * @return the number of rows dropped.
+     */
+    int removeMissing(int[] remoteIds) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int i = liveCount - 1; i >= 0; i--) {
+                int id = ids[i];
+                if (id >= LOCAL_ID_BASE || id > syncedMaxId || Arrays.binarySearch(remoteIds, id) >= 0) {
+                    continue;
+                }
+                int position = recordPosition(slots[i]);
+                records.putInt(position + 4, DELETED);
+                removeFromIndex(i, position);
+                removed++;
+            }
+            if (removed > 0) {
+                records.force();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Number of rows held here that came from the database. */
+    int getSyncedCount() {
+        lock.readLock().lock();
+        try {
+            return liveCount - pendingInserts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            records.force();
+            strings.force();
+            fileLock.release();
+            recordChannel.close();
+            stringChannel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the expense storage: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Records ---
+
+    private void appendSynced(CategorizedExpense expense, int flags) throws IOException {
+        append(expense.getId(), flags, expense);
+    }
+
+    /**
+     * Writes a record after the committed ones and indexes it. It only becomes durable
+     * with the next commit().
+     */
+    private void append(int id, int flags, CategorizedExpense expense) throws IOException {
+        ensureRecordCapacity(recordCount + 1);
+        int categoryRef = categoryRef(expense.getCategory());
+        long descriptionRef = appendString(expense.getDescription());
+        int position = recordPosition(recordCount);
+        records.putInt(position, id);
+        records.putInt(position + 4, flags);
+        records.putLong(position + 8, expense.getAmountCents());
+        records.putInt(position + 16, (int) expense.getDate().toEpochDay());
+        records.putInt(position + 20, categoryRef);
+        records.putLong(position + 24, descriptionRef);
+        if ((flags & PENDING_DELETE) != 0) {
+            pendingDeletes.add(id);
+        } else {
+            addToIndex(id, recordCount);
+            totalCents += expense.getAmountCents();
+            if ((flags & PENDING_INSERT) != 0) {
+                pendingInserts++;
+            }
+        }
+        recordCount++;
+    }
+
+    /**
+     * The in-memory state before a group of append()s. If they are not committed (a full
+     * storage, a failed force), discardIfUncommitted() takes the staged records back out
+     * of the index, the totals and the pending counts, so memory matches the file again.
+     * Must be used under the write lock.
+     */
+    private final class Staging {
+        private final int recordCount = EmbeddedExpenseStorage.this.recordCount;
+        private final long stringsEnd = EmbeddedExpenseStorage.this.stringsEnd;
+        private final int nextLocalId = EmbeddedExpenseStorage.this.nextLocalId;
+        private final int syncedMaxId = EmbeddedExpenseStorage.this.syncedMaxId;
+        private final long totalCents = EmbeddedExpenseStorage.this.totalCents;
+        private final int pendingInserts = EmbeddedExpenseStorage.this.pendingInserts;
+        boolean committed;
+
+        void discardIfUncommitted() {
+            if (committed) {
+                return;
+            }
+            for (int slot = recordCount; slot < EmbeddedExpenseStorage.this.recordCount; slot++) {
+                int position = recordPosition(slot);
+                if ((records.getInt(position + 4) & PENDING_DELETE) != 0) {
+                    pendingDeletes.remove(records.getInt(position));
+                }
+            }
+            for (int i = 0; i < liveCount; i++) {
+                if (slots[i] >= recordCount) {
+                    slots[i] = -1;
+                }
+            }
+            compactIndex();
+            // Categories first seen in the batch point at strings that are being dropped
+            refsByCategory.values().removeIf(ref -> ref >= stringsEnd);
+            categoriesByRef.keySet().removeIf(ref -> ref >= stringsEnd);
+            EmbeddedExpenseStorage.this.recordCount = recordCount;
+            EmbeddedExpenseStorage.this.stringsEnd = stringsEnd;
+            EmbeddedExpenseStorage.this.nextLocalId = nextLocalId;
+            EmbeddedExpenseStorage.this.syncedMaxId = syncedMaxId;
+            EmbeddedExpenseStorage.this.totalCents = totalCents;
+            EmbeddedExpenseStorage.this.pendingInserts = pendingInserts;
+            // commit() may have got as far as the header
+            strings.putLong(STRINGS_END_OFFSET, stringsEnd);
+            writeHeader();
+        }
+    }
+
+    /** Forces the strings and records to disk, then the header that makes them count. */
+    private void commit() {
+        strings.putLong(STRINGS_END_OFFSET, stringsEnd);
+        strings.force();
+        records.force();
+        writeHeader();
+        records.force();
+    }
+
+    private void writeHeader() {
+        records.putInt(RECORD_COUNT_OFFSET, recordCount);
+        records.putInt(NEXT_LOCAL_ID_OFFSET, nextLocalId);
+        records.putInt(SYNCED_MAX_ID_OFFSET, syncedMaxId);
+    }
+
+    private CategorizedExpense readExpense(int position) {
+        return CategorizedExpense.ofCents(
+                records.getInt(position),
+                records.getLong(position + 8),
+                categoryAt(records.getInt(position + 20)),
+                readString(records.getLong(position + 24)),
+                LocalDate.ofEpochDay(records.getInt(position + 16)));
+    }
+
+    private static int recordPosition(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private void ensureRecordCapacity(int count) throws IOException {
+        long needed = recordPosition(0) + (long) count * RECORD_SIZE;
+        if (needed > records.capacity()) {
+            records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, grow(records.capacity(), needed));
+        }
+    }
+
+    private static long grow(long capacity, long needed) throws IOException {
+        if (needed > MAX_MAPPED_BYTES) {
+            throw new IOException("Expense storage is full");
+        }
+        return Math.min(Math.max(capacity * 2, needed), MAX_MAPPED_BYTES);
+    }
+
+    // --- Strings ---
+
+    private int categoryRef(String category) throws IOException {
+        Integer ref = refsByCategory.get(category);
+        if (ref == null) {
+            long offset = appendString(category);
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Expense storage is full");
+            }
+            ref = (int) offset;
+            refsByCategory.put(category, ref);
+            categoriesByRef.put(ref, category);
+        }
+        return ref;
+    }
+
+    private String categoryAt(int ref) {
+        String category = categoriesByRef.get(ref);
+        if (category == null) {
+            category = readString(ref);
+            categoriesByRef.put(ref, category);
+            refsByCategory.put(category, ref);
+        }
+        return category;
+    }
+
+    private long appendString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long offset = stringsEnd;
+        long needed = offset + 4 + bytes.length;
+        if (needed > strings.capacity()) {
+            strings = stringChannel.map(FileChannel.MapMode.READ_WRITE, 0, grow(strings.capacity(), needed));
+        }
+        strings.putInt((int) offset, bytes.length);
+        ByteBuffer target = strings.duplicate();
+        target.position((int) offset + 4);
+        target.put(bytes);
+        stringsEnd = needed;
+        return offset;
+    }
+
+    private String readString(long offset) {
+        ByteBuffer source = strings.duplicate();
+        int length = source.getInt((int) offset);
+        byte[] bytes = new byte[length];
+        source.position((int) offset + 4);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // --- Id index ---
+
+    private int indexOf(int id) {
+        int index = Arrays.binarySearch(ids, 0, liveCount, id);
+        return index >= 0 ? index : -1;
+    }
+
+    /** Index of the newest live record with an id below afterId (all of them for afterId <= 0). */
+    private int startBelow(int afterId) {
+        if (afterId <= 0) {
+            return liveCount - 1;
+        }
+        int index = Arrays.binarySearch(ids, 0, liveCount, afterId);
+        return (index >= 0 ? index : -index - 1) - 1;
+    }
+
+    private int indexAtOrAbove(int id) {
+        int index = Arrays.binarySearch(ids, 0, liveCount, id);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void addToIndex(int id, int slot) {
+        if (liveCount == ids.length) {
+            ids = Arrays.copyOf(ids, liveCount * 2);
+            slots = Arrays.copyOf(slots, liveCount * 2);
+        }
+        // New ids are almost always the highest, so this is usually a plain append
+        int index = liveCount;
+        if (liveCount > 0 && ids[liveCount - 1] > id) {
+            index = -Arrays.binarySearch(ids, 0, liveCount, id) - 1;
+            System.arraycopy(ids, index, ids, index + 1, liveCount - index);
+            System.arraycopy(slots, index, slots, index + 1, liveCount - index);
+        }
+        ids[index] = id;
+        slots[index] = slot;
+        liveCount++;
+    }
+
+    /** Drops the index entries whose slot was set to -1. */
+    private void compactIndex() {
+        int kept = 0;
+        for (int i = 0; i < liveCount; i++) {
+            if (slots[i] >= 0) {
+                ids[kept] = ids[i];
+                slots[kept] = slots[i];
+                kept++;
+            }
+        }
+        liveCount = kept;
+    }
+
+    /** Adds many {id, slot} pairs to the index with one merge instead of one shift each. */
+    private void mergeIntoIndex(List<long[]> added) {
+        added.sort((a, b) -> Long.compare(a[0], b[0]));
+        int size = liveCount + added.size();
+        int[] mergedIds = new int[Math.max(ids.length, size)];
+        int[] mergedSlots = new int[mergedIds.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+            if (j == added.size() || (i < liveCount && ids[i] < added.get(j)[0])) {
+                mergedIds[k] = ids[i];
+                mergedSlots[k] = slots[i++];
+            } else {
+                mergedIds[k] = (int) added.get(j)[0];
+                mergedSlots[k] = (int) added.get(j++)[1];
+            }
+        }
+        ids = mergedIds;
+        slots = mergedSlots;
+        liveCount = size;
+    }
+
+    private void removeFromIndex(int index, int position) {
+        totalCents -= records.getLong(position + 8);
+        System.arraycopy(ids, index + 1, ids, index, liveCount - index - 1);
+        System.arraycopy(slots, index + 1, slots, index, liveCount - index - 1);
+        liveCount--;
+    }
+
+    private static SQLException storageError(String message, IOException cause) {
+        return new SQLException(message + ": " + cause.getMessage(), cause);
+    }
+
+    /** Checks the columns of a record against a filter without building the expense. */
+    private class Matcher {
+        private final ExpenseFilter filter;
+        private final boolean anyCategory;
+        private final int categoryRef;
+        private final long fromDay;
+        private final long toDay;
+        private final long minCents;
+        private final long maxCents;
+
+        Matcher(ExpenseFilter filter) {
+            this.filter = filter;
+            Integer ref = filter.getCategory() == null ? null : refsByCategory.get(filter.getCategory());
+            anyCategory = filter.getCategory() == null;
+            // A category never stored here matches nothing
+            categoryRef = ref == null ? -1 : ref;
+            fromDay = filter.getFrom() == null ? Long.MIN_VALUE : filter.getFrom().toEpochDay();
+            toDay = filter.getTo() == null ? Long.MAX_VALUE : filter.getTo().toEpochDay();
+            minCents = filter.getMinCents() == null ? Long.MIN_VALUE : filter.getMinCents();
+            maxCents = filter.getMaxCents() == null ? Long.MAX_VALUE : filter.getMaxCents();
+        }
+
+        boolean matchesColumns(int position) {
+            if (!anyCategory && records.getInt(position + 20) != categoryRef) {
+                return false;
+            }
+            int day = records.getInt(position + 16);
+            if (day < fromDay || day > toDay) {
+                return false;
+            }
+            long amount = records.getLong(position + 8);
+            return amount >= minCents && amount <= maxCents;
+        }
+
+        boolean matchesText(CategorizedExpense expense) {
+            return filter.getText() == null || filter.matches(expense);
+        }
+    }
+}
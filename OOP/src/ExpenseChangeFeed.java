@@ -0,0 +1,193 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Follows the inserts and deletes every client makes to the expenses table, so a client
+ * can apply them to its loaded copy as they happen instead of reloading.
+ *
+ * Triggers write each change to the expense_changes log and send a NOTIFY (see
+ * ExpenseSchema). The feed LISTENs on a connection of its own and, when woken, reads the
+ * log on from the last entry it delivered up to the newest settled one, below which no
+ * entry can still appear; while newer entries wait to settle it reads again on every
+ * poll, as their notification has already come. The log, not the
+ * notification, carries the changes: after a lost connection the feed reconnects and
+ * reads on from where it stopped, and only if the log has been purged past that point
+ * does it ask for a reload.
+ *
+ * Nothing is read until resumeFrom() gives the position the caller's data is consistent
+ * with, normally the one returned with a load (ExpenseStorage.getChangePosition()).
+ */
+class ExpenseChangeFeed implements AutoCloseable {
+
+    // How long a wait for notifications blocks before checking for resumeFrom() and close()
+    private static final int POLL_MILLIS = 200;
+    // Entries read per round trip
+    private static final int FETCH_SIZE = 1_000;
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MIN_RETRY_DELAY_MILLIS = 500;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    enum Kind {
+        INSERT, DELETE,
+        /** Changes that were not logged row by row, such as a bulk import or an archived month. */
+        RESET
+    }
+
+    /** One change log entry. The expense is null for RESET. */
+    static class Change {
+        final long sequence;
+        final Kind kind;
+        final CategorizedExpense expense;
+
+        Change(long sequence, Kind kind, CategorizedExpense expense) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.expense = expense;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + " " + kind + (expense == null ? "" : " " + expense.getId());
+        }
+    }
+
+    /** Told on the feed's thread. */
+    interface Listener {
+        /** Entries after the current position, oldest first. */
+        void changesArrived(List<Change> changes);
+
+        /**
+         * Entries after the current position were purged before they were read. The feed
+         * waits for the next resumeFrom(), which should follow a reload.
+         */
+        void changesLost();
+    }
+
+    private final ExpenseTrackerDAO database;
+    private final Listener listener;
+    private final Thread thread;
+    // Set by resumeFrom(), taken by the feed's thread; -1 when there is no new request
+    private final AtomicLong requestedPosition = new AtomicLong(-1);
+    private final Object pauseLock = new Object();
+    private volatile boolean closed;
+    // Seq of the last entry delivered, or -1 while waiting for resumeFrom(); feed thread only
+    private long position = -1;
+
+    public ExpenseChangeFeed(ExpenseTrackerDAO database, Listener listener) {
+        this.database = database;
+        this.listener = listener;
+        thread = new Thread(this::run, "expense-change-feed");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Delivers the entries after the given position from now on, including those the
+     * feed may already have delivered; the listener skips what it has applied.
+     */
+    public void resumeFrom(long position) {
+        requestedPosition.set(position);
+    }
+
+    /** Stops the feed and closes its connection. */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long retryDelay = MIN_RETRY_DELAY_MILLIS;
+        while (!closed) {
+            try (Connection conn = database.listenForChanges()) {
+                PGConnection notifications = conn.unwrap(PGConnection.class);
+                retryDelay = MIN_RETRY_DELAY_MILLIS;
+                long nextPurge = 0;
+                // Read on after (re)connecting: notifications sent meanwhile are gone
+                boolean notified = true;
+                boolean pending = false;
+                while (!closed) {
+                    long requested = requestedPosition.getAndSet(-1);
+                    if (requested >= 0) {
+                        position = requested;
+                        notified = true;
+                    }
+                    if ((notified || pending) && position >= 0) {
+                        pending = readChanges();
+                    }
+                    if (System.currentTimeMillis() >= nextPurge) {
+                        database.purgeChanges();
+                        nextPurge = System.currentTimeMillis() + PURGE_INTERVAL_MILLIS;
+                    }
+                    PGNotification[] received = notifications.getNotifications(POLL_MILLIS);
+                    notified = received != null && received.length > 0;
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                System.err.println("Change feed interrupted, reconnecting in " + retryDelay + " ms: " + e.getMessage());
+                pause(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Delivers the entries after the position, a batch at a time. The entry at the
+     * position itself comes back first as long as it is in the log; if it does not, the
+     * purge went past it and entries after it may be missing too. Returns whether the log
+     * has entries after those delivered that were not settled yet.
+     */
+    private boolean readChanges() throws SQLException {
+        while (!closed) {
+            List<Change> changes = database.getChangesFrom(position, FETCH_SIZE + 1);
+            // Position 0 was read from an empty log: there is no entry to check
+            if (position > 0 && (changes.isEmpty() || changes.get(0).sequence != position)) {
+                position = -1;
+                listener.changesLost();
+                return false;
+            }
+            List<Change> newer = position > 0 ? changes.subList(1, changes.size()) : changes;
+            if (!newer.isEmpty()) {
+                listener.changesArrived(newer);
+                position = newer.get(newer.size() - 1).sequence;
+            }
+            if (changes.size() <= FETCH_SIZE) {
+                return database.hasChangesAfter(position);
+            }
+        }
+        return false;
+    }
+
+    /** Waits before reconnecting, returning early if the feed is closed. */
+    private void pause(long millis) {
+        synchronized (pauseLock) {
+            long deadline = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (remaining > 0 && !closed) {
+                try {
+                    pauseLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over query results while the driver streams them in fetch-size chunks,
+ * so only one chunk of rows is held in memory at a time.
+ * The cursor keeps a pooled connection until it is closed.
+ */
+class ExpenseCursor implements ExpenseStorage.Cursor {
+
+    /** Sets the query parameters before the cursor is opened. */
+    interface ParameterBinder {
+        void bind(PreparedStatement pstmt) throws SQLException;
+    }
+
+    /** Maps the current row of a result set to an expense. */
+    interface RowMapper {
+        CategorizedExpense map(ResultSet rs) throws SQLException;
+    }
+
+    private final ConnectionPool.PooledConnection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper mapper;
+    private boolean hasNextRow;
+    private boolean advanced;
+    private boolean closed;
+
+    /**
+     * Opens the cursor. The connection is switched out of autocommit mode, which is
+     * what makes pgjdbc use a server-side cursor instead of reading every row at once.
+     */
+    ExpenseCursor(ConnectionPool.PooledConnection connection, String sql, int fetchSize,
+                  ParameterBinder binder, RowMapper mapper) throws SQLException {
+        this.connection = connection;
+        this.mapper = mapper;
+        PreparedStatement pstmt = null;
+        try {
+            connection.getConnection().setAutoCommit(false);
+            pstmt = connection.getConnection().prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            binder.bind(pstmt);
+            this.statement = pstmt;
+            this.resultSet = pstmt.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            if (pstmt != null) {
+                pstmt.close();
+            }
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!advanced) {
+            try {
+                hasNextRow = resultSet.next();
+            } catch (SQLException e) {
+                throw new UncheckedSQLException("Failed to read the next expense", e);
+            }
+            advanced = true;
+            if (!hasNextRow) {
+                close();
+            }
+        }
+        return hasNextRow;
+    }
+
+    @Override
+    public CategorizedExpense next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        try {
+            return mapper.map(resultSet);
+        } catch (SQLException e) {
+            throw new UncheckedSQLException("Failed to read the next expense", e);
+        }
+    }
+
+    /**
+     * Closes the result set and gives the connection back to the pool.
+     * Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+            statement.close();
+        } catch (SQLException e) {
+            // ignored, the pool rolls back and validates the connection
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * An immutable set of conditions on expenses: category, date range, amount range and
+ * a text that the description must contain (ignoring case). Conditions left null
+ * match everything. The same filter is evaluated in memory by matches() and
+ * translated to SQL by ExpenseTrackerDAO.
+ */
+class ExpenseFilter {
+
+    /** The filter that matches every expense. */
+    static final ExpenseFilter ALL = new ExpenseFilter(null, null, null, null, null, null);
+
+    private final String category;
+    private final LocalDate from;
+    private final LocalDate to;
+    // In cents
+    private final Long minCents;
+    private final Long maxCents;
+    private final String text;
+
+    private ExpenseFilter(String category, LocalDate from, LocalDate to,
+                          Long minCents, Long maxCents, String text) {
+        this.category = category;
+        this.from = from;
+        this.to = to;
+        this.minCents = minCents;
+        this.maxCents = maxCents;
+        this.text = text == null || text.trim().isEmpty() ? null : text.trim();
+    }
+
+    public ExpenseFilter withCategory(String category) {
+        return new ExpenseFilter(category, from, to, minCents, maxCents, text);
+    }
+
+    /** Restricts the dates to [from, to]; either end may be null for an open range. */
+    public ExpenseFilter withDateRange(LocalDate from, LocalDate to) {
+        return new ExpenseFilter(category, from, to, minCents, maxCents, text);
+    }
+
+    /** Restricts the amounts to [min, max] cents; either end may be null for an open range. */
+    public ExpenseFilter withAmountRange(Long minCents, Long maxCents) {
+        return new ExpenseFilter(category, from, to, minCents, maxCents, text);
+    }
+
+    /** Keeps expenses whose description contains the text, ignoring case. */
+    public ExpenseFilter withText(String text) {
+        return new ExpenseFilter(category, from, to, minCents, maxCents, text);
+    }
+
+    public String getCategory() { return category; }
+    public LocalDate getFrom() { return from; }
+    public LocalDate getTo() { return to; }
+    public Long getMinCents() { return minCents; }
+    public Long getMaxCents() { return maxCents; }
+    public String getText() { return text; }
+
+    public boolean hasDateRange() {
+        return from != null || to != null;
+    }
+
+    public boolean hasAmountRange() {
+        return minCents != null || maxCents != null;
+    }
+
+    /** Returns true if the filter has no conditions at all. */
+    public boolean isEmpty() {
+        return category == null && !hasDateRange() && !hasAmountRange() && text == null;
+    }
+
+    public boolean matches(CategorizedExpense expense) {
+        if (category != null && !category.equals(expense.getCategory())) {
+            return false;
+        }
+        LocalDate date = expense.getDate();
+        if ((from != null && date.isBefore(from)) || (to != null && date.isAfter(to))) {
+            return false;
+        }
+        long amount = expense.getAmountCents();
+        if ((minCents != null && amount < minCents) || (maxCents != null && amount > maxCents)) {
+            return false;
+        }
+        return text == null || containsIgnoreCase(expense.getDescription(), text);
+    }
+
+    private static boolean containsIgnoreCase(String value, String part) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i + part.length() <= value.length(); i++) {
+            if (value.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ExpenseFilter)) {
+            return false;
+        }
+        ExpenseFilter other = (ExpenseFilter) o;
+        return Objects.equals(category, other.category)
+                && Objects.equals(from, other.from) && Objects.equals(to, other.to)
+                && Objects.equals(minCents, other.minCents) && Objects.equals(maxCents, other.maxCents)
+                && Objects.equals(text, other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(category, from, to, minCents, maxCents, text);
+    }
+
+    @Override
+    public String toString() {
+        return "category=" + category + ", from=" + from + ", to=" + to
+                + ", min=" + minCents + ", max=" + maxCents + ", text=" + text;
+    }
+}
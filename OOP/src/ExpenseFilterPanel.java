@@ -0,0 +1,147 @@
+import java.awt.*;
+import java.awt.event.ActionListener;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import javax.swing.*;
+
+
+class ExpenseFilterPanel extends JPanel {
+    private static final String ALL_CATEGORIES = "All";
+
+    private JComboBox<String> categoryComboBox;
+    private JTextField fromDateField;
+    private JTextField toDateField;
+    private JTextField minAmountField;
+    private JTextField maxAmountField;
+    private JTextField textField;
+    private JButton applyFilterButton;
+    private JButton clearFilterButton;
+
+    public ExpenseFilterPanel(String[] categories) {
+        super(new GridBagLayout());
+        setBorder(BorderFactory.createTitledBorder("Filter Expenses"));
+
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(2, 5, 2, 5);
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+
+
+        gbc.gridx = 0; gbc.gridy = 0;
+        add(new JLabel("Category:"), gbc);
+        gbc.gridx = 1;
+        categoryComboBox = new JComboBox<>();
+        categoryComboBox.addItem(ALL_CATEGORIES);
+        for (String category : categories) {
+            categoryComboBox.addItem(category);
+        }
+        add(categoryComboBox, gbc);
+
+        gbc.gridx = 2;
+        add(new JLabel("Description contains:"), gbc);
+        gbc.gridx = 3;
+        textField = new JTextField(15);
+        add(textField, gbc);
+
+
+        gbc.gridx = 0; gbc.gridy = 1;
+        add(new JLabel("From (yyyy-MM-dd):"), gbc);
+        gbc.gridx = 1;
+        fromDateField = new JTextField(10);
+        add(fromDateField, gbc);
+
+        gbc.gridx = 2;
+        add(new JLabel("To (yyyy-MM-dd):"), gbc);
+        gbc.gridx = 3;
+        toDateField = new JTextField(10);
+        add(toDateField, gbc);
+
+
+        gbc.gridx = 0; gbc.gridy = 2;
+        add(new JLabel("Min Amount:"), gbc);
+        gbc.gridx = 1;
+        minAmountField = new JTextField(10);
+        add(minAmountField, gbc);
+
+        gbc.gridx = 2;
+        add(new JLabel("Max Amount:"), gbc);
+        gbc.gridx = 3;
+        maxAmountField = new JTextField(10);
+        add(maxAmountField, gbc);
+
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        applyFilterButton = new JButton("Apply Filter");
+        clearFilterButton = new JButton("Clear Filter");
+        buttonPanel.add(applyFilterButton);
+        buttonPanel.add(clearFilterButton);
+
+        gbc.gridx = 0; gbc.gridy = 3;
+        gbc.gridwidth = 4;
+        add(buttonPanel, gbc);
+    }
+
+    /**
+     * Builds the filter from the fields. Empty fields are left out of the filter.
+     *
+     * @throws IllegalArgumentException if a date or amount cannot be parsed.
+     */
+    public ExpenseFilter getFilter() {
+        String category = (String) categoryComboBox.getSelectedItem();
+        return ExpenseFilter.ALL
+                .withCategory(ALL_CATEGORIES.equals(category) ? null : category)
+                .withDateRange(parseDate(fromDateField, "From"), parseDate(toDateField, "To"))
+                .withAmountRange(parseAmount(minAmountField, "Min Amount"), parseAmount(maxAmountField, "Max Amount"))
+                .withText(textField.getText());
+    }
+
+
+    public void addApplyFilterListener(ActionListener listener) {
+        applyFilterButton.addActionListener(listener);
+        textField.addActionListener(listener);
+    }
+
+    public void addClearFilterListener(ActionListener listener) {
+        clearFilterButton.addActionListener(listener);
+    }
+
+    /** Adds a category to the choices unless it is there already. */
+    public void addCategory(String category) {
+        if (((DefaultComboBoxModel<String>) categoryComboBox.getModel()).getIndexOf(category) < 0) {
+            categoryComboBox.addItem(category);
+        }
+    }
+
+
+    public void clearFields() {
+        categoryComboBox.setSelectedIndex(0);
+        fromDateField.setText("");
+        toDateField.setText("");
+        minAmountField.setText("");
+        maxAmountField.setText("");
+        textField.setText("");
+    }
+
+    private static LocalDate parseDate(JTextField field, String name) {
+        String text = field.getText().trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be a date like 2024-01-31.");
+        }
+    }
+
+    private static Long parseAmount(JTextField field, String name) {
+        String text = field.getText().trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        try {
+            return Money.parse(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number.");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Allocation-free formatting of the amounts and dates shown in summaries, the table
+ * and exports. Produces the same text as String.format("%.2f") and the "yyyy-MM-dd"
+ * pattern, without parsing a format string or boxing the value for every row.
+ */
+class ExpenseFormat {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    // Amounts whose cents do not fit comfortably in a long go through String.format
+    private static final double MAX_FAST_AMOUNT = 1e15;
+    private static final double HALF_CENT_TOLERANCE = 1e-6;
+
+    // Direct-mapped cache of rendered dates, indexed by the low bits of the epoch day
+    private static final int DATE_CACHE_SIZE = 4096;
+    private static final CachedDate[] DATE_CACHE = new CachedDate[DATE_CACHE_SIZE];
+
+    private ExpenseFormat() {
+    }
+
+    /**
+     * Appends an amount with exactly two decimals, rounding half up like "%.2f".
+     */
+    public static StringBuilder appendAmount(StringBuilder sb, double amount) {
+        if (Double.isNaN(amount) || Math.abs(amount) >= MAX_FAST_AMOUNT) {
+            return sb.append(String.format("%.2f", amount));
+        }
+        // The sign bit also catches -0.0 and amounts that round to zero, as "%.2f" does
+        if (Double.doubleToRawLongBits(amount) < 0) {
+            sb.append('-');
+        }
+        double scaled = Math.abs(amount) * 100;
+        long cents = Math.round(scaled);
+        if (Math.abs(scaled - Math.floor(scaled) - 0.5) < HALF_CENT_TOLERANCE) {
+            // Near a tie the product may have been rounded the wrong way; "%.2f" rounds the
+            // shortest decimal form of the double, so 1.005 gives 1.01
+            cents = new BigDecimal(Double.toString(Math.abs(amount)))
+                    .setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+        sb.append(cents / 100).append('.');
+        int fraction = (int) (cents % 100);
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    /**
+     * Appends a date as yyyy-MM-dd.
+     */
+    public static StringBuilder appendDate(StringBuilder sb, LocalDate date) {
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            return sb.append(date.format(DATE_FORMATTER));
+        }
+        appendDigits(sb, year, 4);
+        sb.append('-');
+        appendDigits(sb, date.getMonthValue(), 2);
+        sb.append('-');
+        appendDigits(sb, date.getDayOfMonth(), 2);
+        return sb;
+    }
+
+    public static String formatAmount(double amount) {
+        return appendAmount(new StringBuilder(16), amount).toString();
+    }
+
+    /**
+     * Appends an amount given in cents with exactly two decimals. Integer arithmetic
+     * only, so there is no rounding to get wrong.
+     */
+    public static StringBuilder appendCents(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        long magnitude = Math.abs(cents);
+        sb.append(magnitude / 100).append('.');
+        int fraction = (int) (magnitude % 100);
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    public static String formatCents(long cents) {
+        return appendCents(new StringBuilder(16), cents).toString();
+    }
+
+    /**
+     * Returns a date as yyyy-MM-dd. Expenses cluster on a few thousand days, so the
+     * rendered strings are cached and shared between rows.
+     */
+    public static String formatDate(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        int slot = (int) (epochDay & (DATE_CACHE_SIZE - 1));
+        CachedDate cached = DATE_CACHE[slot];
+        if (cached != null && cached.epochDay == epochDay) {
+            return cached.text;
+        }
+        String text = appendDate(new StringBuilder(10), date).toString();
+        // Entries are immutable, so a racing write only costs a cache miss
+        DATE_CACHE[slot] = new CachedDate(epochDay, text);
+        return text;
+    }
+
+    private static void appendDigits(StringBuilder sb, int value, int width) {
+        for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            sb.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static final class CachedDate {
+        final long epochDay;
+        final String text;
+
+        CachedDate(long epochDay, String text) {
+            this.epochDay = epochDay;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,696 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports bank exports (CSV or OFX) into a storage backend in bounded memory, however
+ * large the file.
+ *
+ * A reader thread pulls the file through a FileChannel in chunks that end on a record
+ * boundary, parser threads turn the chunks into validated expenses in parallel, and the
+ * calling thread stores them in batches in file order. Between the stages sits a bounded
+ * queue of parsed chunks, so a slow database makes the reader wait instead of filling the
+ * heap. Rows that cannot be parsed or fail validation are counted as rejects and do not
+ * stop the import.
+ *
+ * CSV files need a header row naming at least the date and amount columns; category and
+ * description are optional, so the tracker's own CSV export can be imported again.
+ * Amounts are taken as they are and dates are yyyy-MM-dd. In OFX files the debits become
+ * expenses (TRNAMT -12.50 is an expense of 12.50) and credits are rejected.
+ *
+ * Every batch is stored in its own transaction: an import that fails or is cancelled
+ * keeps the batches stored before that point.
+ */
+class ExpenseImporter {
+
+    // Bytes handed to a parser at a time, and the limit for a single record
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    // Expenses stored per storage call
+    private static final int BATCH_SIZE = 5_000;
+    // Reject messages kept for the result; the rest are only counted
+    private static final int MAX_REPORTED_REJECTS = 100;
+
+    private static final String OFX_START = "<STMTTRN>";
+    private static final String OFX_END = "</STMTTRN>";
+    private static final byte[] OFX_END_BYTES = OFX_END.getBytes(StandardCharsets.US_ASCII);
+
+    private static final List<String> DATE_COLUMNS = Arrays.asList("date", "transaction date", "posted date");
+    private static final List<String> AMOUNT_COLUMNS = Collections.singletonList("amount");
+    private static final List<String> CATEGORY_COLUMNS = Collections.singletonList("category");
+    private static final List<String> DESCRIPTION_COLUMNS = Arrays.asList("description", "memo", "payee", "name");
+
+    private static final Metrics.Timer IMPORT_TIMER = Metrics.timer("import.file");
+
+    /**
+     * The file layouts that can be imported.
+     */
+    public enum ImportFormat {
+        CSV, OFX;
+
+        /** Picks the format from the file name: .ofx and .qfx are OFX, anything else CSV. */
+        public static ImportFormat fromFileName(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            return name.endsWith(".ofx") || name.endsWith(".qfx") ? OFX : CSV;
+        }
+    }
+
+    /**
+     * Receives the number of rows stored and rejected so far during an import.
+     */
+    public interface ImportProgressListener {
+        void progress(long imported, long rejected);
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    static class ImportResult {
+        private final long imported;
+        private final long rejected;
+        private final List<String> rejects;
+        private final long nanos;
+
+        ImportResult(long imported, long rejected, List<String> rejects, long nanos) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.rejects = Collections.unmodifiableList(rejects);
+            this.nanos = nanos;
+        }
+
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public long getNanos() { return nanos; }
+
+        /** The first rejects, each as "Line n: reason". */
+        public List<String> getRejects() {
+            return rejects;
+        }
+
+        /** Rows read per second, stored or rejected. */
+        public double getRowsPerSecond() {
+            return nanos == 0 ? 0 : (imported + rejected) / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d imported, %d rejected, %.0f rows/s", imported, rejected, getRowsPerSecond());
+        }
+    }
+
+    private final ExpenseStorage storage;
+    private final int parserThreads;
+    private final String defaultCategory;
+
+    /**
+     * @param parserThreads Number of threads parsing chunks.
+     * @param defaultCategory Category of rows that do not name one, such as all OFX rows.
+     */
+    public ExpenseImporter(ExpenseStorage storage, int parserThreads, String defaultCategory) {
+        this.storage = storage;
+        this.parserThreads = parserThreads;
+        this.defaultCategory = CategoryManager.normalize(defaultCategory);
+    }
+
+    public ExpenseImporter(ExpenseStorage storage) {
+        this(storage, Runtime.getRuntime().availableProcessors(), "OTHER");
+    }
+
+    /**
+     * Imports a file. Interrupting the calling thread cancels the import.
+     *
+     * @param progress Told about the rows stored so far after every batch; may be null.
+     */
+    public ImportResult importFile(Path file, ImportFormat format, ImportProgressListener progress)
+            throws IOException, SQLException {
+        long start = System.nanoTime();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, r -> {
+            Thread t = new Thread(r, "expense-import-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // Parsed chunks in file order; the bound keeps the reader at most this far ahead
+        BlockingQueue<Future<ParsedChunk>> parsed = new ArrayBlockingQueue<>(parserThreads * 2);
+        Set<String> categories = ConcurrentHashMap.newKeySet();
+        ChunkReader reader = new ChunkReader(file, format, parsers, parsed, categories);
+        Thread readerThread = new Thread(reader, "expense-import-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        Batch batch = new Batch();
+        try {
+            while (true) {
+                ParsedChunk chunk = take(parsed);
+                if (chunk == null) {
+                    break;
+                }
+                batch.rejected(chunk);
+                for (int i = 0; i < chunk.rows.size(); i++) {
+                    batch.add(chunk.rows.get(i), chunk.lines[i]);
+                    if (batch.isFull()) {
+                        batch.store(progress);
+                    }
+                }
+            }
+            batch.store(progress);
+            for (String category : categories) {
+                if (!CategoryManager.DEFAULT_CATEGORIES.contains(category)) {
+                    storage.addCategory(category);
+                }
+            }
+        } finally {
+            readerThread.interrupt();
+            parsers.shutdownNow();
+        }
+        IMPORT_TIMER.recordSince(start);
+        return new ImportResult(batch.imported, batch.rejected, batch.rejects, System.nanoTime() - start);
+    }
+
+    /** Returns the next parsed chunk, or null at the end of the file. */
+    private static ParsedChunk take(BlockingQueue<Future<ParsedChunk>> parsed) throws IOException {
+        try {
+            return parsed.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Import cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Collects parsed rows and stores them BATCH_SIZE at a time, keeping the line of each
+     * row to report the ones the storage rejects.
+     */
+    private final class Batch {
+        private final List<CategorizedExpense> rows = new ArrayList<>(BATCH_SIZE);
+        private final long[] lines = new long[BATCH_SIZE];
+        private final List<String> rejects = new ArrayList<>();
+        private long imported;
+        private long rejected;
+
+        void add(CategorizedExpense expense, long line) {
+            lines[rows.size()] = line;
+            rows.add(expense);
+        }
+
+        boolean isFull() {
+            return rows.size() == BATCH_SIZE;
+        }
+
+        void rejected(ParsedChunk chunk) {
+            rejected += chunk.rejected;
+            for (String reject : chunk.rejects) {
+                report(reject);
+            }
+        }
+
+        void store(ImportProgressListener progress) throws SQLException {
+            SummaryReport.checkCancelled();
+            if (!rows.isEmpty()) {
+                BatchInsertResult result = storage.importExpenses(rows);
+                imported += result.getInsertedCount();
+                rejected += result.getFailureCount();
+                for (BatchInsertResult.Failure failure : result.getFailures()) {
+                    report("Line " + lines[failure.getIndex()] + ": " + failure.getCause().getMessage());
+                }
+                Metrics.counter("import.rows").add(result.getInsertedCount());
+                Metrics.counter("import.rejects").add(result.getFailureCount());
+                rows.clear();
+            }
+            if (progress != null) {
+                progress.progress(imported, rejected);
+            }
+        }
+
+        private void report(String reject) {
+            if (rejects.size() < MAX_REPORTED_REJECTS) {
+                rejects.add(reject);
+            }
+        }
+    }
+
+    /** The expenses parsed from one chunk, with the line each started on. */
+    private static final class ParsedChunk {
+        final List<CategorizedExpense> rows = new ArrayList<>();
+        long[] lines = new long[64];
+        final List<String> rejects = new ArrayList<>();
+        int rejected;
+
+        void add(CategorizedExpense expense, long line) {
+            if (rows.size() == lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+            lines[rows.size()] = line;
+            rows.add(expense);
+        }
+
+        void reject(long line, String reason) {
+            rejected++;
+            Metrics.counter("import.rejects").increment();
+            if (rejects.size() < MAX_REPORTED_REJECTS) {
+                rejects.add("Line " + line + ": " + reason);
+            }
+        }
+    }
+
+    // --- Reading ---
+
+    /**
+     * Reads the file in chunks that end after the last complete record, hands each to
+     * the parser pool and queues its future. Runs until the end of the file, then queues
+     * a null chunk; a read error is queued as a failed chunk so it surfaces in order.
+     */
+    private final class ChunkReader implements Runnable {
+        private final Path file;
+        private final ImportFormat format;
+        private final ExecutorService parsers;
+        private final BlockingQueue<Future<ParsedChunk>> parsed;
+        private final Set<String> categories;
+
+        ChunkReader(Path file, ImportFormat format, ExecutorService parsers,
+                    BlockingQueue<Future<ParsedChunk>> parsed, Set<String> categories) {
+            this.file = file;
+            this.format = format;
+            this.parsers = parsers;
+            this.parsed = parsed;
+            this.categories = categories;
+        }
+
+        @Override
+        public void run() {
+            try {
+                read();
+                parsed.put(CompletableFuture.completedFuture(null));
+            } catch (InterruptedException e) {
+                // The import was cancelled or failed; nobody reads the queue any more
+            } catch (IOException | RuntimeException e) {
+                try {
+                    parsed.put(CompletableFuture.failedFuture(e));
+                } catch (InterruptedException ignored) {
+                    // Cancelled while reporting the error
+                }
+            }
+        }
+
+        private void read() throws IOException, InterruptedException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                CsvColumns columns = null;
+                long line = 1;
+                boolean first = true;
+                boolean endOfFile = false;
+                while (!endOfFile) {
+                    endOfFile = fill(channel, buffer);
+                    byte[] data = buffer.array();
+                    int length = buffer.position();
+                    int offset = 0;
+                    if (first && length >= 3 && (data[0] & 0xFF) == 0xEF
+                            && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+                        offset = 3;
+                    }
+                    int end = endOfFile ? length : recordBoundary(data, offset, length);
+                    if (end < 0) {
+                        // Not even one complete record in the buffer
+                        if (buffer.capacity() >= MAX_RECORD_SIZE) {
+                            throw new IOException("Line " + line + " is longer than " + MAX_RECORD_SIZE + " bytes");
+                        }
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                        continue;
+                    }
+                    if (format == ImportFormat.CSV && columns == null) {
+                        int headerEnd = csvRecordEnd(data, offset, end);
+                        columns = CsvColumns.fromHeader(new String(data, offset, headerEnd - offset, StandardCharsets.UTF_8));
+                        line += countLines(data, offset, headerEnd);
+                        offset = headerEnd;
+                    }
+                    first = false;
+                    if (end > offset) {
+                        byte[] chunk = Arrays.copyOfRange(data, offset, end);
+                        long firstLine = line;
+                        CsvColumns chunkColumns = columns;
+                        parsed.put(parsers.submit(() -> format == ImportFormat.CSV
+                                ? parseCsv(chunk, firstLine, chunkColumns)
+                                : parseOfx(chunk, firstLine)));
+                        line += countLines(data, offset, end);
+                    }
+                    // Keep the incomplete record for the next round
+                    buffer.limit(length).position(end);
+                    buffer.compact();
+                }
+            }
+        }
+
+        /** Reads until the buffer is full or the file ends; returns true at the end. */
+        private boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Import cancelled");
+                }
+                if (channel.read(buffer) < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Returns the end of the last complete record in data[from, to), or -1. */
+        private int recordBoundary(byte[] data, int from, int to) {
+            if (format == ImportFormat.OFX) {
+                int last = lastIndexOf(data, from, to, OFX_END_BYTES);
+                return last < 0 ? -1 : last + OFX_END_BYTES.length;
+            }
+            // The last line break outside quotes; a field may span lines
+            boolean quoted = false;
+            int boundary = -1;
+            for (int i = from; i < to; i++) {
+                byte b = data[i];
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    boundary = i + 1;
+                }
+            }
+            return boundary;
+        }
+
+        private ParsedChunk parseCsv(byte[] chunk, long firstLine, CsvColumns columns) {
+            ParsedChunk result = new ParsedChunk();
+            String text = new String(chunk, StandardCharsets.UTF_8);
+            CsvRecordParser parser = new CsvRecordParser(text, firstLine);
+            List<String> fields = new ArrayList<>(columns.count);
+            while (parser.next(fields)) {
+                if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                    continue; // blank line
+                }
+                long line = parser.recordLine;
+                try {
+                    CategorizedExpense expense = columns.toExpense(fields, defaultCategory);
+                    ExpenseValidator.validate(expense);
+                    categories.add(expense.getCategory());
+                    result.add(expense, line);
+                } catch (InvalidExpenseException e) {
+                    result.reject(line, e.getMessage());
+                }
+            }
+            return result;
+        }
+
+        private ParsedChunk parseOfx(byte[] chunk, long firstLine) {
+            ParsedChunk result = new ParsedChunk();
+            String text = new String(chunk, StandardCharsets.UTF_8);
+            long line = firstLine;
+            int scanned = 0;
+            int start = text.indexOf(OFX_START);
+            while (start >= 0) {
+                int end = text.indexOf(OFX_END, start);
+                if (end < 0) {
+                    end = text.length();
+                }
+                for (int i = scanned; i < start; i++) {
+                    if (text.charAt(i) == '\n') {
+                        line++;
+                    }
+                }
+                scanned = start;
+                try {
+                    CategorizedExpense expense = ofxTransaction(text, start + OFX_START.length(), end);
+                    ExpenseValidator.validate(expense);
+                    result.add(expense, line);
+                } catch (InvalidExpenseException e) {
+                    result.reject(line, e.getMessage());
+                }
+                start = text.indexOf(OFX_START, end);
+            }
+            if (!result.rows.isEmpty()) {
+                categories.add(defaultCategory);
+            }
+            return result;
+        }
+
+        private CategorizedExpense ofxTransaction(String text, int from, int to) throws InvalidExpenseException {
+            String posted = ofxValue(text, from, to, "DTPOSTED");
+            String amount = ofxValue(text, from, to, "TRNAMT");
+            if (posted == null || posted.length() < 8) {
+                throw new InvalidExpenseException("DTPOSTED is missing.");
+            }
+            if (amount == null) {
+                throw new InvalidExpenseException("TRNAMT is missing.");
+            }
+            LocalDate date = parseDate(posted.substring(0, 4) + "-" + posted.substring(4, 6) + "-" + posted.substring(6, 8));
+            long cents = parseAmount(amount);
+            if (cents > 0) {
+                throw new InvalidExpenseException("Credit of " + amount + " is not an expense.");
+            }
+            String name = ofxValue(text, from, to, "NAME");
+            if (name == null) {
+                name = ofxValue(text, from, to, "MEMO");
+            }
+            return CategorizedExpense.ofCents(0, -cents, defaultCategory, name == null ? "" : name, date);
+        }
+    }
+
+    // --- CSV ---
+
+    /** Where the date, amount, category and description are in a CSV record. */
+    private static final class CsvColumns {
+        final int count;
+        final int date;
+        final int amount;
+        final int category;
+        final int description;
+
+        private CsvColumns(int count, int date, int amount, int category, int description) {
+            this.count = count;
+            this.date = date;
+            this.amount = amount;
+            this.category = category;
+            this.description = description;
+        }
+
+        static CsvColumns fromHeader(String header) throws IOException {
+            List<String> names = new ArrayList<>();
+            new CsvRecordParser(header, 1).next(names);
+            for (int i = 0; i < names.size(); i++) {
+                names.set(i, names.get(i).trim().toLowerCase(Locale.ROOT));
+            }
+            int date = indexOf(names, DATE_COLUMNS);
+            int amount = indexOf(names, AMOUNT_COLUMNS);
+            if (date < 0 || amount < 0) {
+                throw new IOException("The first line must name the date and amount columns, found: " + header.trim());
+            }
+            return new CsvColumns(names.size(), date, amount,
+                    indexOf(names, CATEGORY_COLUMNS), indexOf(names, DESCRIPTION_COLUMNS));
+        }
+
+        private static int indexOf(List<String> names, List<String> candidates) {
+            for (int i = 0; i < names.size(); i++) {
+                if (candidates.contains(names.get(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        CategorizedExpense toExpense(List<String> fields, String defaultCategory) throws InvalidExpenseException {
+            if (fields.size() <= Math.max(date, amount)) {
+                throw new InvalidExpenseException("Expected " + count + " fields, found " + fields.size() + ".");
+            }
+            String categoryText = field(fields, category);
+            String name;
+            try {
+                name = categoryText.trim().isEmpty() ? defaultCategory : CategoryManager.normalize(categoryText);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidExpenseException(e.getMessage());
+            }
+            return CategorizedExpense.ofCents(0, parseAmount(fields.get(amount)), name,
+                    field(fields, description).trim(), parseDate(fields.get(date)));
+        }
+
+        private static String field(List<String> fields, int index) {
+            return index >= 0 && index < fields.size() ? fields.get(index) : "";
+        }
+    }
+
+    /**
+     * Splits CSV text into records of fields. Quoted fields may contain separators, line
+     * breaks and doubled quotes; a trailing carriage return is dropped.
+     */
+    private static final class CsvRecordParser {
+        private final String text;
+        private final StringBuilder field = new StringBuilder();
+        private int position;
+        private long line;
+        long recordLine;
+
+        CsvRecordParser(String text, long firstLine) {
+            this.text = text;
+            this.line = firstLine;
+        }
+
+        /** Reads the next record into fields; returns false at the end of the text. */
+        boolean next(List<String> fields) {
+            fields.clear();
+            if (position >= text.length()) {
+                return false;
+            }
+            recordLine = line;
+            field.setLength(0);
+            boolean quoted = false;
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (quoted) {
+                    if (c == '"') {
+                        if (position < text.length() && text.charAt(position) == '"') {
+                            field.append('"');
+                            position++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    line++;
+                    break;
+                } else if (c != '\r') {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return true;
+        }
+    }
+
+    /** Returns the end of the first CSV record in data[from, to), after its line break. */
+    private static int csvRecordEnd(byte[] data, int from, int to) {
+        boolean quoted = false;
+        for (int i = from; i < to; i++) {
+            if (data[i] == '"') {
+                quoted = !quoted;
+            } else if (data[i] == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+    // --- Values ---
+
+    /** Parses a yyyy-MM-dd date without a DateTimeFormatter. */
+    static LocalDate parseDate(String text) throws InvalidExpenseException {
+        String value = text.trim();
+        if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            throw new InvalidExpenseException("Invalid date '" + value + "', expected yyyy-MM-dd.");
+        }
+        try {
+            return LocalDate.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10));
+        } catch (DateTimeException | NumberFormatException e) {
+            throw new InvalidExpenseException("Invalid date '" + value + "', expected yyyy-MM-dd.");
+        }
+    }
+
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(text);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /** Parses an amount into cents. */
+    static long parseAmount(String text) throws InvalidExpenseException {
+        try {
+            return Money.parse(text);
+        } catch (NumberFormatException e) {
+            throw new InvalidExpenseException("Invalid amount '" + text.trim() + "'.");
+        }
+    }
+
+    /**
+     * Returns the value of an OFX element between from and to. Works for SGML (OFX 1.x,
+     * where leaf elements are not closed) and XML (OFX 2.x) alike.
+     */
+    private static String ofxValue(String text, int from, int to, String tag) {
+        String open = "<" + tag + ">";
+        int start = text.indexOf(open, from);
+        if (start < 0 || start >= to) {
+            return null;
+        }
+        start += open.length();
+        int end = text.indexOf('<', start);
+        if (end < 0 || end > to) {
+            end = to;
+        }
+        String value = text.substring(start, end).trim();
+        if (value.indexOf('&') >= 0) {
+            value = value.replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+        }
+        return value;
+    }
+
+    private static int lastIndexOf(byte[] data, int from, int to, byte[] pattern) {
+        for (int i = to - pattern.length; i >= from; i--) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long countLines(byte[] data, int from, int to) {
+        long lines = 0;
+        for (int i = from; i < to; i++) {
+            if (data[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
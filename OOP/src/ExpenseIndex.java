@@ -0,0 +1,215 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over the rows loaded in an ExpenseStore: expenses by category and
+ * expenses by day. A search starts from the smallest matching index instead of scanning
+ * every row, then checks the remaining conditions on the candidates only.
+ *
+ * The index holds the expense objects themselves rather than ids, since looking each
+ * candidate up in the store again costs a binary search of cache misses. With a
+ * ColumnarExpenseList behind the store that would keep every row materialised, so
+ * the index is meant for the default object store.
+ *
+ * The index follows the store through ExpenseStoreListener, so like the store it must
+ * only be used on the EDT. It only knows the loaded rows; when the store holds just
+ * the newest pages, filters have to run in the database instead.
+ */
+class ExpenseIndex implements ExpenseStoreListener {
+    private static final Comparator<CategorizedExpense> NEWEST_FIRST =
+            Comparator.comparingInt(CategorizedExpense::getId).reversed();
+
+    private final ExpenseStore store;
+    private final Map<String, ExpenseRefs> byCategory = new HashMap<>();
+    private final TreeMap<LocalDate, ExpenseRefs> byDay = new TreeMap<>();
+
+    public ExpenseIndex(ExpenseStore store) {
+        this.store = store;
+        store.addListener(this);
+        rebuild();
+    }
+
+    /**
+     * Returns the loaded expenses matching the filter, newest first.
+     */
+    public List<CategorizedExpense> search(ExpenseFilter filter) {
+        ExpenseRefs categoryExpenses = null;
+        if (filter.getCategory() != null) {
+            categoryExpenses = byCategory.get(filter.getCategory());
+            if (categoryExpenses == null) {
+                return new ArrayList<>();
+            }
+        }
+        Collection<ExpenseRefs> dayLists = null;
+        int dayCount = 0;
+        if (filter.hasDateRange()) {
+            LocalDate from = filter.getFrom() != null ? filter.getFrom() : LocalDate.MIN;
+            LocalDate to = filter.getTo() != null ? filter.getTo() : LocalDate.MAX;
+            if (from.isAfter(to)) {
+                return new ArrayList<>();
+            }
+            dayLists = byDay.subMap(from, true, to, true).values();
+            for (ExpenseRefs expenses : dayLists) {
+                dayCount += expenses.size();
+            }
+        }
+
+        if (dayLists != null && (categoryExpenses == null || dayCount < categoryExpenses.size())) {
+            // Each day is sorted, but the days are not, so sort the (usually few) matches
+            List<CategorizedExpense> result = new ArrayList<>();
+            for (ExpenseRefs expenses : dayLists) {
+                expenses.collect(filter, result);
+            }
+            result.sort(NEWEST_FIRST);
+            return result;
+        }
+        if (categoryExpenses != null) {
+            List<CategorizedExpense> result = new ArrayList<>();
+            categoryExpenses.collect(filter, result);
+            return result;
+        }
+        // No indexed condition: the rows are already newest first
+        List<CategorizedExpense> result = new ArrayList<>();
+        for (CategorizedExpense expense : store.asList()) {
+            if (filter.matches(expense)) {
+                result.add(expense);
+            }
+        }
+        return result;
+    }
+
+    private void rebuild() {
+        byCategory.clear();
+        byDay.clear();
+        for (CategorizedExpense expense : store.asList()) {
+            index(expense);
+        }
+    }
+
+    private void index(CategorizedExpense expense) {
+        byCategory.computeIfAbsent(expense.getCategory(), k -> new ExpenseRefs()).add(expense);
+        byDay.computeIfAbsent(expense.getDate(), k -> new ExpenseRefs()).add(expense);
+    }
+
+    private void unindex(CategorizedExpense expense) {
+        removeId(byCategory, expense.getCategory(), expense.getId());
+        removeId(byDay, expense.getDate(), expense.getId());
+    }
+
+    private static <K> void removeId(Map<K, ExpenseRefs> index, K key, int id) {
+        ExpenseRefs expenses = index.get(key);
+        if (expenses != null && expenses.remove(id) && expenses.size() == 0) {
+            index.remove(key);
+        }
+    }
+
+    @Override
+    public void expenseAdded(CategorizedExpense expense, int row) {
+        index(expense);
+    }
+
+    @Override
+    public void expenseRemoved(CategorizedExpense expense, int row) {
+        unindex(expense);
+    }
+
+    @Override
+    public void expensesInserted(int firstRow, int lastRow) {
+        for (int row = lastRow; row >= firstRow; row--) {
+            index(store.get(row));
+        }
+    }
+
+    @Override
+    public void expensesRemoved(List<CategorizedExpense> removed, int firstRow) {
+        for (CategorizedExpense expense : removed) {
+            unindex(expense);
+        }
+    }
+
+    @Override
+    public void expensesAppended(int firstRow, int lastRow) {
+        for (int row = firstRow; row <= lastRow; row++) {
+            index(store.get(row));
+        }
+    }
+
+    @Override
+    public void storeReloaded() {
+        rebuild();
+    }
+
+    /**
+     * A growable list of expenses sorted newest (highest id) first, the order the store
+     * loads them in, so a load only ever appends. New expenses go to the front.
+     */
+    private static class ExpenseRefs {
+        private CategorizedExpense[] expenses = new CategorizedExpense[8];
+        private int size;
+
+        void add(CategorizedExpense expense) {
+            int position = insertionPoint(expense.getId());
+            if (position < size && expenses[position].getId() == expense.getId()) {
+                expenses[position] = expense;
+                return;
+            }
+            if (size == expenses.length) {
+                expenses = Arrays.copyOf(expenses, size * 2);
+            }
+            System.arraycopy(expenses, position, expenses, position + 1, size - position);
+            expenses[position] = expense;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int position = insertionPoint(id);
+            if (position == size || expenses[position].getId() != id) {
+                return false;
+            }
+            System.arraycopy(expenses, position + 1, expenses, position, size - position - 1);
+            expenses[--size] = null;
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** Adds the expenses matching the filter to the result, newest first. */
+        void collect(ExpenseFilter filter, List<CategorizedExpense> result) {
+            for (int i = 0; i < size; i++) {
+                if (filter.matches(expenses[i])) {
+                    result.add(expenses[i]);
+                }
+            }
+        }
+
+        private int insertionPoint(int id) {
+            // Fast paths for loads and for new expenses
+            if (size == 0 || expenses[size - 1].getId() > id) {
+                return size;
+            }
+            if (expenses[0].getId() < id) {
+                return 0;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (expenses[mid].getId() > id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
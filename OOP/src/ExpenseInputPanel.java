@@ -9,6 +9,7 @@ class ExpenseInputPanel extends JPanel {
     private JTextField descriptionField;
     private JButton addExpenseButton;
     private JButton clearFieldsButton;
+    private JButton newCategoryButton;
 
     public ExpenseInputPanel(String[] categories) {
         super(new GridBagLayout());
@@ -31,6 +32,9 @@ class ExpenseInputPanel extends JPanel {
         gbc.gridx = 1; gbc.gridy = 1;
         categoryComboBox = new JComboBox<>(categories);
         add(categoryComboBox, gbc);
+        gbc.gridx = 2; gbc.gridy = 1;
+        newCategoryButton = new JButton("New...");
+        add(newCategoryButton, gbc);
 
         
         gbc.gridx = 0; gbc.gridy = 2;
@@ -73,6 +77,21 @@ class ExpenseInputPanel extends JPanel {
         clearFieldsButton.addActionListener(listener);
     }
 
+    public void addNewCategoryListener(ActionListener listener) {
+        newCategoryButton.addActionListener(listener);
+    }
+
+    /** Adds a category to the choices unless it is there already. */
+    public void addCategory(String category) {
+        if (((DefaultComboBoxModel<String>) categoryComboBox.getModel()).getIndexOf(category) < 0) {
+            categoryComboBox.addItem(category);
+        }
+    }
+
+    public void selectCategory(String category) {
+        categoryComboBox.setSelectedItem(category);
+    }
+
     
     public void clearFields() {
         amountField.setText("");
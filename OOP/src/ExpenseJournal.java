@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, append-only local file of expenses waiting to be written to the database.
+ *
+ * Every record gets a sequence number and is forced to disk before append() returns,
+ * so an acknowledged expense survives a crash. Each record carries a CRC32, and a
+ * record torn by a crash halfway through a write is dropped (with anything after it)
+ * when the journal is reopened. Once every record has been stored in the database the
+ * file is cut back to its header; the header remembers the next sequence number so
+ * sequences keep increasing across restarts.
+ *
+ * File layout: a fixed header (magic, version, journal id, base sequence), then records
+ * of [int payload length][int CRC32 of payload][payload]. Version 2 payloads hold the
+ * amount in cents; a version 1 journal (amounts as doubles) is read and appended to as
+ * such until it is next cut back to its header.
+ */
+class ExpenseJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x4558504A; // "EXPJ"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 16 + 8;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    // Guards against reading garbage lengths from a damaged file
+    private static final int MAX_PAYLOAD_SIZE = 1 << 20;
+
+    /** An expense read from or written to the journal. */
+    static class Record {
+        final long sequence;
+        final CategorizedExpense expense;
+
+        Record(long sequence, CategorizedExpense expense) {
+            this.sequence = sequence;
+            this.expense = expense;
+        }
+    }
+
+    private final FileChannel channel;
+    private final String journalId;
+    private final List<Record> recovered;
+    // Version of the file's header and records
+    private int version = VERSION;
+    private long nextSequence;
+    private long flushedSequence;
+
+    /**
+     * Opens the journal, creating it if needed, and reads the records it still holds.
+     */
+    public ExpenseJournal(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                journalId = UUID.randomUUID().toString();
+                nextSequence = 1;
+                writeHeader();
+                channel.truncate(HEADER_SIZE);
+                channel.force(true);
+                recovered = new ArrayList<>();
+            } else {
+                ByteBuffer header = readFully(0, HEADER_SIZE);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not an expense journal: " + file);
+                }
+                version = header.getInt();
+                if (version != 1 && version != VERSION) {
+                    throw new IOException("Unsupported expense journal version " + version + ": " + file);
+                }
+                journalId = new UUID(header.getLong(), header.getLong()).toString();
+                nextSequence = header.getLong();
+                recovered = readRecords();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        flushedSequence = nextSequence - 1 - recovered.size();
+    }
+
+    /** The id under which the database records how far this journal has been applied. */
+    public String getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Returns the records that were in the journal when it was opened, oldest first.
+     * Some of them may already be in the database; the database's journal offset tells.
+     */
+    public List<Record> getRecoveredRecords() {
+        return recovered;
+    }
+
+    public synchronized Record append(CategorizedExpense expense) throws IOException {
+        return appendAll(Collections.singletonList(expense)).get(0);
+    }
+
+    /**
+     * Appends several expenses with a single write and a single fsync.
+     */
+    public synchronized List<Record> appendAll(Collection<CategorizedExpense> expenses) throws IOException {
+        List<Record> records = new ArrayList<>(expenses.size());
+        List<byte[]> payloads = new ArrayList<>(expenses.size());
+        int size = 0;
+        long sequence = nextSequence;
+        for (CategorizedExpense expense : expenses) {
+            byte[] payload = encode(sequence, expense);
+            payloads.add(payload);
+            records.add(new Record(sequence++, expense));
+            size += RECORD_HEADER_SIZE + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (byte[] payload : payloads) {
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        buffer.flip();
+        long start = channel.size();
+        try {
+            long position = start;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Drop the partial write, or replay would stop at it and lose later records
+            channel.truncate(start);
+            throw e;
+        }
+        nextSequence = sequence;
+        return records;
+    }
+
+    /**
+     * Records that everything up to the sequence is stored in the database. When nothing
+     * newer is pending, the file is cut back to its header.
+     */
+    public synchronized void markFlushed(long sequence) throws IOException {
+        flushedSequence = Math.max(flushedSequence, sequence);
+        if (flushedSequence == nextSequence - 1 && channel.size() > HEADER_SIZE) {
+            // Persist the next sequence before dropping the records, so a crash in
+            // between can never hand out a sequence the database has already seen
+            writeHeader();
+            channel.force(true);
+            channel.truncate(HEADER_SIZE);
+            channel.force(true);
+            if (version != VERSION) {
+                // Empty now, so new records can use the current format
+                version = VERSION;
+                writeHeader();
+                channel.force(true);
+            }
+        }
+    }
+
+    /** Number of appended records not yet marked as flushed. */
+    public synchronized long getPendingCount() {
+        return nextSequence - 1 - flushedSequence;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeHeader() throws IOException {
+        UUID uuid = UUID.fromString(journalId);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(version)
+                .putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+                .putLong(nextSequence);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    /**
+     * Reads records until the end of the file or the first torn or corrupt record,
+     * and cuts the file there so new records follow the last good one.
+     */
+    private List<Record> readRecords() throws IOException {
+        List<Record> records = new ArrayList<>();
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            ByteBuffer recordHeader = readFully(position, RECORD_HEADER_SIZE);
+            int length = recordHeader.getInt();
+            int checksum = recordHeader.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = readFully(position + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            Record record = decode(payload);
+            records.add(record);
+            nextSequence = Math.max(nextSequence, record.sequence + 1);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        return records;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private byte[] encode(long sequence, CategorizedExpense expense) {
+        byte[] category = expense.getCategory().getBytes(StandardCharsets.UTF_8);
+        byte[] description = expense.getDescription().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + 8 + 8 + 4 + category.length + 4 + description.length);
+        payload.putLong(sequence);
+        if (version == 1) {
+            payload.putDouble(expense.getAmount());
+        } else {
+            payload.putLong(expense.getAmountCents());
+        }
+        payload.putLong(expense.getDate().toEpochDay())
+                .putInt(category.length).put(category)
+                .putInt(description.length).put(description);
+        return payload.array();
+    }
+
+    private Record decode(ByteBuffer payload) {
+        long sequence = payload.getLong();
+        long amountCents = version == 1 ? Money.toCents(payload.getDouble()) : payload.getLong();
+        LocalDate date = LocalDate.ofEpochDay(payload.getLong());
+        String category = readString(payload);
+        String description = readString(payload);
+        return new Record(sequence, CategorizedExpense.ofCents(0, amountCents, category, description, date));
+    }
+
+    private static String readString(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getInt()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,604 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DDL for the database objects the application manages itself. Every table, trigger and
+ * index is created by a versioned migration, applied at startup by migrate(), so no
+ * request ever waits for (or takes locks for) schema changes.
+ */
+class ExpenseSchema {
+
+    static final String ROLLUP_TABLE = "expense_daily_rollup";
+    static final String DEFAULT_PARTITION = "expenses_default";
+    // Channel of the NOTIFY sent when expense_changes gets new entries
+    static final String CHANGES_CHANNEL = "expense_changes";
+
+    // Monthly partitions of the expenses table are named expenses_pYYYY_MM
+    private static final DateTimeFormatter PARTITION_NAME_FORMAT = DateTimeFormatter.ofPattern("'expenses_p'uuuu'_'MM");
+    private static final Pattern PARTITION_NAME = Pattern.compile("expenses_p(\\d{4})_(\\d{2})");
+    // Partitions created ahead of the current month, so inserts rarely land in the default one
+    private static final int PARTITION_MONTHS_AHEAD = 3;
+    // Key of the advisory lock that serializes migrate() between clients
+    private static final long MIGRATION_LOCK_KEY = 7_510_751L;
+    // Key of the advisory lock the change log writers of migration 2 held until commit
+    private static final long CHANGES_LOCK_KEY = 7_510_752L;
+    // A statement changing more rows than this logs a single reset entry instead of its rows
+    private static final int MAX_LOGGED_ROWS = 1_000;
+
+    private static final String MIGRATIONS_DDL =
+        "CREATE TABLE IF NOT EXISTS expense_schema_migrations ("
+            + " version INTEGER PRIMARY KEY,"
+            + " description TEXT NOT NULL,"
+            + " applied_at TIMESTAMPTZ NOT NULL DEFAULT now())";
+
+    // Applied in order; a migration's version is its position in the list plus one. Only
+    // append to the list: released migrations may already have run against a database
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+        new Migration("Partition expenses by month", ExpenseSchema::partitionExpenses),
+        new Migration("Add row versions and the change log", ExpenseSchema::addChangeLog),
+        new Migration("Add the search indexes", ExpenseSchema::addSearchIndexes),
+        new Migration("Add the daily rollups", ExpenseSchema::addRollups),
+        new Migration("Add the tombstones", ExpenseSchema::addTombstones),
+        new Migration("Add the custom categories", ExpenseSchema::addCategories),
+        new Migration("Add the journal offsets", ExpenseSchema::addJournalOffsets),
+        new Migration("Order the change log without a lock", ExpenseSchema::settleChangeLog)
+    );
+
+    // Range-partitioned by date, so queries with date bounds only read the months they
+    // cover. The primary key of a partitioned table must include the partition key
+    private static final String PARTITIONED_EXPENSES_DDL =
+        "CREATE TABLE expenses ("
+            + " id SERIAL,"
+            + " amount NUMERIC(12, 2) NOT NULL,"
+            + " category TEXT NOT NULL,"
+            + " description TEXT,"
+            + " date DATE NOT NULL,"
+            + " PRIMARY KEY (id, date))"
+            + " PARTITION BY RANGE (date)";
+
+    // Every insert and delete on expenses, for clients following the table (see
+    // ExpenseChangeFeed). An update is logged as the delete of the old row and the insert
+    // of the new one; op 'R' (reset) stands for changes too large or too coarse to log row
+    // by row, after which clients reload. Entries older than a day are purged. The functions
+    // here took CHANGES_LOCK_KEY until commit to make entries visible in seq order; migration
+    // 8 replaces them with SETTLED_CHANGE_LOG_DDL
+    private static final String[] CHANGE_LOG_DDL = {
+        "ALTER TABLE expenses ADD COLUMN IF NOT EXISTS version INTEGER NOT NULL DEFAULT 1",
+        "ALTER TABLE IF EXISTS expense_tombstones ADD COLUMN IF NOT EXISTS version INTEGER NOT NULL DEFAULT 1",
+
+        "CREATE OR REPLACE FUNCTION expense_bump_version() RETURNS trigger LANGUAGE plpgsql AS $$"
+            + " BEGIN"
+            + "  NEW.version := OLD.version + 1;"
+            + "  RETURN NEW;"
+            + " END $$",
+        "DROP TRIGGER IF EXISTS expense_bump_version ON expenses",
+        "CREATE TRIGGER expense_bump_version BEFORE UPDATE ON expenses"
+            + " FOR EACH ROW EXECUTE FUNCTION expense_bump_version()",
+
+        "CREATE TABLE IF NOT EXISTS expense_changes ("
+            + " seq BIGSERIAL PRIMARY KEY,"
+            + " op CHAR(1) NOT NULL,"
+            + " id INTEGER,"
+            + " amount NUMERIC(12, 2),"
+            + " category TEXT,"
+            + " description TEXT,"
+            + " date DATE,"
+            + " version INTEGER,"
+            + " changed_at TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp())",
+
+        "CREATE OR REPLACE FUNCTION expense_changes_reset() RETURNS void LANGUAGE plpgsql AS $$"
+            + " BEGIN"
+            + "  PERFORM pg_advisory_xact_lock(" + CHANGES_LOCK_KEY + ");"
+            + "  INSERT INTO expense_changes (op) VALUES ('R');"
+            + "  PERFORM pg_notify('" + CHANGES_CHANNEL + "', '');"
+            + " END $$",
+
+        "CREATE OR REPLACE FUNCTION expense_changes_log() RETURNS trigger LANGUAGE plpgsql AS $$"
+            + " DECLARE"
+            + "  changed BIGINT;"
+            + " BEGIN"
+            + "  IF TG_OP = 'INSERT' THEN"
+            + "   SELECT COUNT(*) INTO changed FROM new_rows;"
+            + "  ELSE"
+            + "   SELECT COUNT(*) INTO changed FROM old_rows;"
+            + "  END IF;"
+            + "  IF changed = 0 THEN"
+            + "   RETURN NULL;"
+            + "  ELSIF changed > " + MAX_LOGGED_ROWS + " THEN"
+            + "   PERFORM expense_changes_reset();"
+            + "   RETURN NULL;"
+            + "  END IF;"
+            + "  PERFORM pg_advisory_xact_lock(" + CHANGES_LOCK_KEY + ");"
+            + "  IF TG_OP IN ('DELETE', 'UPDATE') THEN"
+            + "   INSERT INTO expense_changes (op, id, amount, category, description, date, version)"
+            + "    SELECT 'D', id, amount, category, description, date, version FROM old_rows ORDER BY id;"
+            + "  END IF;"
+            + "  IF TG_OP IN ('INSERT', 'UPDATE') THEN"
+            + "   INSERT INTO expense_changes (op, id, amount, category, description, date, version)"
+            + "    SELECT 'I', id, amount, category, description, date, version FROM new_rows ORDER BY id;"
+            + "  END IF;"
+            + "  PERFORM pg_notify('" + CHANGES_CHANNEL + "', '');"
+            + "  RETURN NULL;"
+            + " END $$",
+
+        "DROP TRIGGER IF EXISTS expense_changes_insert ON expenses",
+        "CREATE TRIGGER expense_changes_insert AFTER INSERT ON expenses"
+            + " REFERENCING NEW TABLE AS new_rows"
+            + " FOR EACH STATEMENT EXECUTE FUNCTION expense_changes_log()",
+        "DROP TRIGGER IF EXISTS expense_changes_delete ON expenses",
+        "CREATE TRIGGER expense_changes_delete AFTER DELETE ON expenses"
+            + " REFERENCING OLD TABLE AS old_rows"
+            + " FOR EACH STATEMENT EXECUTE FUNCTION expense_changes_log()",
+        "DROP TRIGGER IF EXISTS expense_changes_update ON expenses",
+        "CREATE TRIGGER expense_changes_update AFTER UPDATE ON expenses"
+            + " REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows"
+            + " FOR EACH STATEMENT EXECUTE FUNCTION expense_changes_log()"
+    };
+
+    // One row per category per day. Kept up to date by statement-level triggers
+    // that read the inserted/deleted rows from transition tables, so a bulk
+    // insert updates each bucket once instead of once per row.
+    private static final String[] ROLLUP_DDL = {
+        "CREATE TABLE IF NOT EXISTS expense_daily_rollup ("
+            + " category TEXT NOT NULL,"
+            + " day DATE NOT NULL,"
+            + " expense_count BIGINT NOT NULL,"
+            + " total NUMERIC NOT NULL,"
+            + " min_amount NUMERIC NOT NULL,"
+            + " max_amount NUMERIC NOT NULL,"
+            + " PRIMARY KEY (category, day))",
+
+        // Recomputes the given buckets from the expenses table (used after deletes and updates,
+        // where min/max cannot be adjusted incrementally)
+        "CREATE OR REPLACE FUNCTION expense_rollup_rebuild(buckets_category TEXT[], buckets_day DATE[])"
+            + " RETURNS void LANGUAGE plpgsql AS $$"
+            + " BEGIN"
+            + "  DELETE FROM expense_daily_rollup r"
+            + "   USING unnest(buckets_category, buckets_day) AS b(category, day)"
+            + "   WHERE r.category = b.category AND r.day = b.day;"
+            + "  INSERT INTO expense_daily_rollup (category, day, expense_count, total, min_amount, max_amount)"
+            + "   SELECT e.category, e.date, COUNT(*), SUM(e.amount), MIN(e.amount), MAX(e.amount)"
+            + "   FROM expenses e"
+            + "   JOIN (SELECT DISTINCT category, day FROM unnest(buckets_category, buckets_day) AS u(category, day)) b"
+            + "     ON e.category = b.category AND e.date = b.day"
+            + "   GROUP BY e.category, e.date;"
+            + " END $$",
+
+        "CREATE OR REPLACE FUNCTION expense_rollup_after_insert() RETURNS trigger LANGUAGE plpgsql AS $$"
+            + " BEGIN"
+            + "  INSERT INTO expense_daily_rollup AS r (category, day, expense_count, total, min_amount, max_amount)"
+            + "   SELECT category, date, COUNT(*), SUM(amount), MIN(amount), MAX(amount)"
+            + "   FROM new_rows GROUP BY category, date"
+            + "  ON CONFLICT (category, day) DO UPDATE SET"
+            + "   expense_count = r.expense_count + EXCLUDED.expense_count,"
+            + "   total = r.total + EXCLUDED.total,"
+            + "   min_amount = LEAST(r.min_amount, EXCLUDED.min_amount),"
+            + "   max_amount = GREATEST(r.max_amount, EXCLUDED.max_amount);"
+            + "  RETURN NULL;"
+            + " END $$",
+
+        "CREATE OR REPLACE FUNCTION expense_rollup_after_delete() RETURNS trigger LANGUAGE plpgsql AS $$"
+            + " BEGIN"
+            + "  PERFORM expense_rollup_rebuild(array_agg(category), array_agg(date))"
+            + "   FROM (SELECT DISTINCT category, date FROM old_rows) b;"
+            + "  RETURN NULL;"
+            + " END $$",
+
+        "CREATE OR REPLACE FUNCTION expense_rollup_after_update() RETURNS trigger LANGUAGE plpgsql AS $$"
+            + " BEGIN"
+            + "  PERFORM expense_rollup_rebuild(array_agg(category), array_agg(date))"
+            + "   FROM (SELECT category, date FROM old_rows UNION SELECT category, date FROM new_rows) b;"
+            + "  RETURN NULL;"
+            + " END $$",
+
+        "DROP TRIGGER IF EXISTS expense_rollup_insert ON expenses",
+        "CREATE TRIGGER expense_rollup_insert AFTER INSERT ON expenses"
+            + " REFERENCING NEW TABLE AS new_rows"
+            + " FOR EACH STATEMENT EXECUTE FUNCTION expense_rollup_after_insert()",
+        "DROP TRIGGER IF EXISTS expense_rollup_delete ON expenses",
+        "CREATE TRIGGER expense_rollup_delete AFTER DELETE ON expenses"
+            + " REFERENCING OLD TABLE AS old_rows"
+            + " FOR EACH STATEMENT EXECUTE FUNCTION expense_rollup_after_delete()",
+        "DROP TRIGGER IF EXISTS expense_rollup_update ON expenses",
+        "CREATE TRIGGER expense_rollup_update AFTER UPDATE ON expenses"
+            + " REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows"
+            + " FOR EACH STATEMENT EXECUTE FUNCTION expense_rollup_after_update()",
+
+        // Backfill from the current content of the expenses table
+        "TRUNCATE expense_daily_rollup",
+        "INSERT INTO expense_daily_rollup (category, day, expense_count, total, min_amount, max_amount)"
+            + " SELECT category, date, COUNT(*), SUM(amount), MIN(amount), MAX(amount)"
+            + " FROM expenses GROUP BY category, date"
+    };
+
+    // Support the filters of ExpenseTrackerDAO.findExpenses(). Each B-tree ends with id,
+    // so a category or date filter can be read in keyset (id) order from the index
+    private static final String[] SEARCH_INDEX_DDL = {
+        "CREATE INDEX IF NOT EXISTS expenses_category_id_idx ON expenses (category, id)",
+        "CREATE INDEX IF NOT EXISTS expenses_date_id_idx ON expenses (date, id)"
+    };
+
+    // Lets "description ILIKE '%text%'" use an index; needs the pg_trgm extension
+    private static final String[] TRIGRAM_INDEX_DDL = {
+        "CREATE EXTENSION IF NOT EXISTS pg_trgm",
+        "CREATE INDEX IF NOT EXISTS expenses_description_trgm_idx ON expenses USING gin (description gin_trgm_ops)"
+    };
+
+    // Writers no longer serialize on a lock: each entry takes its seq first and then records
+    // in logged_xmax the next transaction id, read by a later statement. Any transaction
+    // holding a lower seq already had its id then, so once every id below logged_xmax has
+    // finished, no entry below this one can still appear (ExpenseTrackerDAO reads the log up
+    // to the last such entry). Relies on writers running in READ COMMITTED, where each
+    // statement of the function takes a new snapshot; xid8 needs PostgreSQL 13
+    private static final String[] SETTLED_CHANGE_LOG_DDL = {
+        "ALTER TABLE expense_changes ADD COLUMN IF NOT EXISTS xid xid8 DEFAULT pg_current_xact_id()",
+        "ALTER TABLE expense_changes ADD COLUMN IF NOT EXISTS logged_xmax xid8",
+
+        "CREATE OR REPLACE FUNCTION expense_changes_reset() RETURNS void LANGUAGE plpgsql AS $$"
+            + " DECLARE"
+            + "  next_seq BIGINT;"
+            + " BEGIN"
+            + "  PERFORM pg_current_xact_id();"
+            + "  next_seq := nextval(pg_get_serial_sequence('expense_changes', 'seq'));"
+            + "  INSERT INTO expense_changes (seq, op, logged_xmax)"
+            + "   VALUES (next_seq, 'R', pg_snapshot_xmax(pg_current_snapshot()));"
+            + "  PERFORM pg_notify('" + CHANGES_CHANNEL + "', '');"
+            + " END $$",
+
+        "CREATE OR REPLACE FUNCTION expense_changes_log() RETURNS trigger LANGUAGE plpgsql AS $$"
+            + " DECLARE"
+            + "  changed BIGINT;"
+            + "  seqs BIGINT[];"
+            + "  bound xid8;"
+            + " BEGIN"
+            + "  IF TG_OP = 'INSERT' THEN"
+            + "   SELECT COUNT(*) INTO changed FROM new_rows;"
+            + "  ELSE"
+            + "   SELECT COUNT(*) INTO changed FROM old_rows;"
+            + "  END IF;"
+            + "  IF changed = 0 THEN"
+            + "   RETURN NULL;"
+            + "  ELSIF changed > " + MAX_LOGGED_ROWS + " THEN"
+            + "   PERFORM expense_changes_reset();"
+            + "   RETURN NULL;"
+            + "  END IF;"
+            + "  SELECT array_agg(s ORDER BY s) INTO seqs FROM (SELECT nextval(pg_get_serial_sequence('expense_changes', 'seq')) AS s"
+            + "   FROM generate_series(1, CASE WHEN TG_OP = 'UPDATE' THEN 2 * changed ELSE changed END)) allocated;"
+            + "  bound := pg_snapshot_xmax(pg_current_snapshot());"
+            + "  IF TG_OP IN ('DELETE', 'UPDATE') THEN"
+            + "   INSERT INTO expense_changes (seq, op, id, amount, category, description, date, version, logged_xmax)"
+            + "    SELECT seqs[n], 'D', id, amount, category, description, date, version, bound"
+            + "    FROM (SELECT row_number() OVER (ORDER BY id) AS n, * FROM old_rows) numbered;"
+            + "  END IF;"
+            + "  IF TG_OP IN ('INSERT', 'UPDATE') THEN"
+            + "   INSERT INTO expense_changes (seq, op, id, amount, category, description, date, version, logged_xmax)"
+            + "    SELECT seqs[n + CASE WHEN TG_OP = 'UPDATE' THEN changed ELSE 0 END], 'I',"
+            + "     id, amount, category, description, date, version, bound"
+            + "    FROM (SELECT row_number() OVER (ORDER BY id) AS n, * FROM new_rows) numbered;"
+            + "  END IF;"
+            + "  PERFORM pg_notify('" + CHANGES_CHANNEL + "', '');"
+            + "  RETURN NULL;"
+            + " END $$"
+    };
+
+    // How far each local write-behind journal has been applied; updated in the same
+    // transaction as the rows it covers
+    private static final String JOURNAL_OFFSETS_DDL =
+        "CREATE TABLE IF NOT EXISTS expense_journal_offsets ("
+            + " journal_id TEXT PRIMARY KEY,"
+            + " applied_sequence BIGINT NOT NULL)";
+
+    // Categories defined by the user, listed after the built-in ones in the order they were added
+    private static final String CATEGORIES_DDL =
+        "CREATE TABLE IF NOT EXISTS expense_categories ("
+            + " name TEXT PRIMARY KEY,"
+            + " created_at TIMESTAMPTZ NOT NULL DEFAULT now())";
+
+    // Expenses removed by a bulk delete, kept so the delete can be undone. Tombstones
+    // older than a week are purged by the next bulk delete
+    private static final String TOMBSTONES_DDL =
+        "CREATE TABLE IF NOT EXISTS expense_tombstones ("
+            + " LIKE expenses,"
+            + " deleted_at TIMESTAMPTZ NOT NULL DEFAULT now(),"
+            + " PRIMARY KEY (id))";
+
+    private ExpenseSchema() {
+    }
+
+    /**
+     * Returns true if the table exists in the current schema search path.
+     */
+    static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT to_regclass('" + table + "') IS NOT NULL")) {
+            rs.next();
+            return rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Brings the database up to date: applies the migrations it has not seen yet and
+     * makes sure the monthly partitions from last month to a few months ahead exist.
+     * Everything runs in one transaction under an advisory lock, so clients starting at
+     * the same time wait for each other and each migration runs once.
+     *
+     * @return the descriptions of the migrations applied, empty if there were none.
+     * @throws SQLException if the database was migrated by a newer version of the
+     *         application, or a migration failed (nothing is changed then).
+     */
+    static List<String> migrate(Connection conn, YearMonth currentMonth) throws SQLException {
+        List<String> applied = new ArrayList<>();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SELECT pg_advisory_xact_lock(" + MIGRATION_LOCK_KEY + ")");
+            stmt.execute(MIGRATIONS_DDL);
+            int version;
+            try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM expense_schema_migrations")) {
+                rs.next();
+                version = rs.getInt(1);
+            }
+            if (version > MIGRATIONS.size()) {
+                throw new SQLException("The database schema is at version " + version
+                        + ", this version of the application only knows " + MIGRATIONS.size());
+            }
+            for (int next = version + 1; next <= MIGRATIONS.size(); next++) {
+                Migration migration = MIGRATIONS.get(next - 1);
+                migration.step.apply(conn);
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO expense_schema_migrations (version, description) VALUES (?, ?)")) {
+                    pstmt.setInt(1, next);
+                    pstmt.setString(2, migration.description);
+                    pstmt.executeUpdate();
+                }
+                applied.add(migration.description);
+            }
+            addMonthPartitions(conn, currentMonth.minusMonths(1), currentMonth.plusMonths(PARTITION_MONTHS_AHEAD));
+            conn.commit();
+            return applied;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Migration 1: makes expenses a table partitioned by month with a default partition
+     * for dates no monthly partition covers. An existing plain table is copied over in
+     * the migration's transaction, keeping its ids and its sequence.
+     */
+    private static void partitionExpenses(Connection conn) throws SQLException {
+        String kind;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT relkind FROM pg_class WHERE oid = to_regclass('expenses')")) {
+            kind = rs.next() ? rs.getString(1) : null;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            if (kind == null) {
+                stmt.execute(PARTITIONED_EXPENSES_DDL);
+            } else if (kind.equals("r")) {
+                // Build the new table next to the old one and swap the names at the end,
+                // so the old table's index names are free again once it is dropped
+                stmt.execute("LOCK TABLE expenses IN EXCLUSIVE MODE");
+                stmt.execute("CREATE TABLE expenses_partitioned (LIKE expenses INCLUDING DEFAULTS,"
+                        + " PRIMARY KEY (id, date)) PARTITION BY RANGE (date)");
+                List<YearMonth> months = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT DISTINCT date_trunc('month', date)::date FROM expenses WHERE date IS NOT NULL")) {
+                    while (rs.next()) {
+                        months.add(YearMonth.from(rs.getDate(1).toLocalDate()));
+                    }
+                }
+                for (YearMonth month : months) {
+                    stmt.execute("CREATE TABLE " + partitionName(month) + " PARTITION OF expenses_partitioned"
+                            + " " + partitionBounds(month));
+                }
+                stmt.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF expenses_partitioned DEFAULT");
+                stmt.execute("INSERT INTO expenses_partitioned SELECT * FROM expenses");
+                String sequence;
+                try (ResultSet rs = stmt.executeQuery("SELECT pg_get_serial_sequence('expenses', 'id')")) {
+                    rs.next();
+                    sequence = rs.getString(1);
+                }
+                if (sequence != null) {
+                    stmt.execute("ALTER SEQUENCE " + sequence + " OWNED BY expenses_partitioned.id");
+                }
+                stmt.execute("DROP TABLE expenses");
+                stmt.execute("ALTER TABLE expenses_partitioned RENAME TO expenses");
+                // The rollup triggers went with the old table
+                if (tableExists(conn, ROLLUP_TABLE)) {
+                    for (String ddl : ROLLUP_DDL) {
+                        stmt.execute(ddl);
+                    }
+                }
+            } else if (!kind.equals("p")) {
+                throw new SQLException("expenses is not a table (relkind " + kind + ")");
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF expenses DEFAULT");
+        }
+    }
+
+    /**
+     * Migration 2: adds a version to every row, raised by each update, so deletes can
+     * check that a row is still as the client last read it; and the change log with the
+     * triggers that fill it.
+     */
+    private static void addChangeLog(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String ddl : CHANGE_LOG_DDL) {
+                stmt.execute(ddl);
+            }
+        }
+    }
+
+    /**
+     * Creates the monthly partitions from first to last that do not exist yet, and one
+     * for every month whose rows ended up in the default partition, moving those rows
+     * into it. Runs in the caller's transaction.
+     */
+    static void addMonthPartitions(Connection conn, YearMonth first, YearMonth last) throws SQLException {
+        List<YearMonth> months = new ArrayList<>();
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            months.add(month);
+        }
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT DISTINCT date_trunc('month', date)::date FROM " + DEFAULT_PARTITION)) {
+                while (rs.next()) {
+                    YearMonth month = YearMonth.from(rs.getDate(1).toLocalDate());
+                    if (!months.contains(month)) {
+                        months.add(month);
+                    }
+                }
+            }
+            Map<YearMonth, String> existing = getMonthPartitions(conn);
+            for (YearMonth month : months) {
+                if (existing.containsKey(month)) {
+                    continue;
+                }
+                String name = partitionName(month);
+                String range = "date >= '" + month.atDay(1) + "' AND date < '" + month.plusMonths(1).atDay(1) + "'";
+                // Attaching a table that already satisfies the range as a CHECK constraint
+                // skips the validation scan; the rows move out of the default partition first
+                stmt.execute("CREATE TABLE " + name + " (LIKE expenses INCLUDING DEFAULTS,"
+                        + " CONSTRAINT " + name + "_range CHECK (" + range + "))");
+                stmt.execute("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION + " WHERE " + range
+                        + " RETURNING *) INSERT INTO " + name + " SELECT * FROM moved");
+                stmt.execute("ALTER TABLE expenses ATTACH PARTITION " + name + " " + partitionBounds(month));
+                stmt.execute("ALTER TABLE " + name + " DROP CONSTRAINT " + name + "_range");
+            }
+        }
+    }
+
+    /**
+     * Returns the monthly partitions of the expenses table by month, oldest first.
+     */
+    static Map<YearMonth, String> getMonthPartitions(Connection conn) throws SQLException {
+        Map<YearMonth, String> partitions = new TreeMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                     + " WHERE i.inhparent = 'expenses'::regclass")) {
+            while (rs.next()) {
+                Matcher matcher = PARTITION_NAME.matcher(rs.getString(1));
+                if (matcher.matches()) {
+                    partitions.put(YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))),
+                            matcher.group());
+                }
+            }
+        }
+        return partitions;
+    }
+
+    static String partitionName(YearMonth month) {
+        return PARTITION_NAME_FORMAT.format(month);
+    }
+
+    private static String partitionBounds(YearMonth month) {
+        LocalDate from = month.atDay(1);
+        return "FOR VALUES FROM ('" + from + "') TO ('" + from.plusMonths(1) + "')";
+    }
+
+    /**
+     * Migration 4: creates the rollup table and its triggers and fills it from the
+     * expenses table. A table left by a version that installed the rollups on first use
+     * is rebuilt from scratch.
+     */
+    private static void addRollups(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Block writers while the backfill runs so no change slips between the two
+            stmt.execute("LOCK TABLE expenses IN SHARE ROW EXCLUSIVE MODE");
+            for (String ddl : ROLLUP_DDL) {
+                stmt.execute(ddl);
+            }
+        }
+    }
+
+    /**
+     * Migration 3: creates the indexes used by ExpenseTrackerDAO.findExpenses() at startup,
+     * under the migration lock, instead of on the first search where building them would
+     * block every client's writes. The trigram index is skipped, under a savepoint, if the
+     * pg_trgm extension cannot be installed; description searches then scan the table.
+     */
+    private static void addSearchIndexes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String ddl : SEARCH_INDEX_DDL) {
+                stmt.execute(ddl);
+            }
+            Savepoint savepoint = conn.setSavepoint();
+            try {
+                for (String ddl : TRIGRAM_INDEX_DDL) {
+                    stmt.execute(ddl);
+                }
+                conn.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                conn.rollback(savepoint);
+                System.err.println("pg_trgm is not available; description searches will scan the table: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    // Migrations 5 to 7 create the tables that earlier versions created on first use,
+    // unless such a version already did
+
+    private static void addTombstones(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(TOMBSTONES_DDL);
+        }
+    }
+
+    private static void addCategories(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CATEGORIES_DDL);
+        }
+    }
+
+    private static void addJournalOffsets(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(JOURNAL_OFFSETS_DDL);
+        }
+    }
+
+    /**
+     * Migration 8: replaces the change log functions of migration 2 with ones that order
+     * the log without holding a lock until commit. Entries logged before have no
+     * logged_xmax and count as settled.
+     */
+    private static void settleChangeLog(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String ddl : SETTLED_CHANGE_LOG_DDL) {
+                stmt.execute(ddl);
+            }
+        }
+    }
+
+    private interface MigrationStep {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Migration {
+        final String description;
+        final MigrationStep step;
+
+        Migration(String description, MigrationStep step) {
+            this.description = description;
+            this.step = step;
+        }
+    }
+}
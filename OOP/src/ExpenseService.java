@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs DAO calls on a small bounded pool of background threads so the Swing
+ * Event Dispatch Thread never waits for the database.
+ *
+ * Every call returns a CompletableFuture. Cancelling the future interrupts the
+ * worker running it. Calls submitted with a key are coalesced: while one is in
+ * flight, repeated requests with the same key share its future instead of
+ * hitting the database again.
+ */
+class ExpenseService implements AutoCloseable {
+
+    private static final int QUEUE_CAPACITY = 256;
+
+    /** A unit of database work. */
+    interface DaoCall<T> {
+        T call() throws SQLException;
+    }
+
+    /** Told on the EDT whenever the number of running or queued calls changes. */
+    interface ProgressListener {
+        void progressChanged(int pendingCalls);
+    }
+
+    /**
+     * Rows added after a known id, with the version and category totals of the table
+     * once they were read, and the change log position they are consistent with.
+     */
+    static class NewerRows {
+        final List<CategorizedExpense> rows;
+        final DataVersion version;
+        final Map<String, CategoryTotal> categoryTotals;
+        long changePosition;
+
+        NewerRows(List<CategorizedExpense> rows, DataVersion version, Map<String, CategoryTotal> categoryTotals) {
+            this.rows = rows;
+            this.version = version;
+            this.categoryTotals = categoryTotals;
+        }
+    }
+
+    /** The data needed to show the table: the newest page and the table-wide totals. */
+    static class FirstPage {
+        final List<CategorizedExpense> page;
+        final long rowCount;
+        final long totalCents;
+        // Per category; null for the results of a filter
+        final Map<String, CategoryTotal> categoryTotals;
+        // The change log position the page and totals are consistent with (see readConsistently())
+        long changePosition;
+
+        FirstPage(List<CategorizedExpense> page, long rowCount, long totalCents) {
+            this(page, rowCount, totalCents, null);
+        }
+
+        FirstPage(List<CategorizedExpense> page, long rowCount, long totalCents,
+                  Map<String, CategoryTotal> categoryTotals) {
+            this.page = page;
+            this.rowCount = rowCount;
+            this.totalCents = totalCents;
+            this.categoryTotals = categoryTotals;
+        }
+    }
+
+    // Rows fetched per round trip when catching up with newer rows
+    private static final int CATCH_UP_PAGE_SIZE = 5_000;
+    // Tries at a read that no change overlaps before settling for the last one
+    private static final int MAX_CONSISTENT_READS = 3;
+
+    private volatile ExpenseStorage storage;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Map<CompletableFuture<?>, Future<?>> running = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile ProgressListener progressListener;
+    private volatile WriteBehindWriter writeBehind;
+
+    public ExpenseService(ExpenseStorage storage, int threads) {
+        this.storage = storage;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "expense-db-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public ExpenseStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Switches to another storage backend, e.g. the embedded one when the database
+     * cannot be reached. Calls already running finish (or fail) against the old backend,
+     * which the caller still owns and must close.
+     */
+    public void replaceStorage(ExpenseStorage replacement) {
+        storage = replacement;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Routes addExpense() through a write-behind journal. The returned expenses then carry
+     * provisional negative ids, and the real rows are reported to the writer's listener.
+     */
+    public void setWriteBehind(WriteBehindWriter writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public CompletableFuture<CategorizedExpense> addExpense(CategorizedExpense expense) {
+        WriteBehindWriter writer = writeBehind;
+        if (writer == null) {
+            return submit(() -> storage.addExpense(expense));
+        }
+        return submit(() -> {
+            try {
+                return writer.add(expense);
+            } catch (IOException | InvalidExpenseException e) {
+                throw new SQLException("Could not journal the expense: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> deleteExpense(int id) {
+        return submit(() -> storage.deleteExpense(id));
+    }
+
+    public CompletableFuture<DeleteResult> deleteExpensesIfUnchanged(List<CategorizedExpense> expenses) {
+        return submit(() -> storage.deleteExpensesIfUnchanged(expenses));
+    }
+
+    public CompletableFuture<Integer> restoreExpenses(List<Integer> ids) {
+        return submit(() -> storage.restoreExpenses(ids));
+    }
+
+    public CompletableFuture<List<CategorizedExpense>> getExpensesPage(int afterId, int limit) {
+        return submitCoalesced("page:" + afterId + ":" + limit, () -> storage.getExpensesPage(afterId, limit));
+    }
+
+    public CompletableFuture<DataVersion> getDataVersion() {
+        return submitCoalesced("version", () -> storage.getDataVersion());
+    }
+
+    public CompletableFuture<ExpenseStatistics> getStatistics() {
+        return submitCoalesced("statistics", () -> storage.getStatistics());
+    }
+
+    /**
+     * Sums the expenses of one month, in cents. The query has date bounds, so the database
+     * only reads that month's partition however much history the table holds.
+     */
+    public CompletableFuture<Long> getMonthTotal(YearMonth month) {
+        return submit(() -> storage.getStatistics(month.atDay(1), month.atEndOfMonth()).getOverall().getSumCents());
+    }
+
+    public CompletableFuture<FirstPage> loadFirstPage(int pageSize) {
+        return submitCoalesced("first-page:" + pageSize, () -> {
+            ExpenseStorage current = storage;
+            return readConsistently(current, () -> {
+                DataVersion version = current.getDataVersion();
+                // One grouped scan gives the table total as well
+                Map<String, CategoryTotal> categoryTotals = current.getCategoryTotals();
+                long totalCents = 0;
+                for (CategoryTotal categoryTotal : categoryTotals.values()) {
+                    totalCents += categoryTotal.getSumCents();
+                }
+                List<CategorizedExpense> page = current.getExpensesPage(0, pageSize);
+                return new FirstPage(page, version.getRowCount(), totalCents, categoryTotals);
+            }, (firstPage, position) -> firstPage.changePosition = position);
+        });
+    }
+
+    /**
+     * Loads the rows stored after afterId, oldest first, stopping once more than maxRows
+     * were read, and the table's version as it was after reading them.
+     */
+    public CompletableFuture<NewerRows> loadNewerThan(int afterId, int maxRows) {
+        return submitCoalesced("newer:" + afterId + ":" + maxRows, () -> {
+            ExpenseStorage current = storage;
+            return readConsistently(current, () -> {
+                List<CategorizedExpense> rows = new ArrayList<>();
+                int after = afterId;
+                List<CategorizedExpense> page;
+                do {
+                    page = current.getExpensesAfter(after, CATCH_UP_PAGE_SIZE);
+                    rows.addAll(page);
+                    if (!page.isEmpty()) {
+                        after = page.get(page.size() - 1).getId();
+                    }
+                } while (page.size() == CATCH_UP_PAGE_SIZE && rows.size() <= maxRows);
+                return new NewerRows(rows, current.getDataVersion(), current.getCategoryTotals());
+            }, (newer, position) -> newer.changePosition = position);
+        });
+    }
+
+    /**
+     * Runs a read made of several queries and hands it the change log position it is
+     * consistent with: the position is read before and after, and the read is repeated
+     * if an entry was logged in between. Every change up to the position is then in the
+     * result and none after it, so a client applying the log from there applies each
+     * change exactly once. Under a steady stream of writes the last try is kept with the
+     * position from before it; changes that overlapped it may then count twice in the
+     * totals until the next reload.
+     */
+    private static <T> T readConsistently(ExpenseStorage current, DaoCall<T> read,
+                                          BiConsumer<T, Long> setPosition) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            long position = current.getChangePosition();
+            T result = read.call();
+            if (attempt == MAX_CONSISTENT_READS || current.getChangePosition() == position) {
+                setPosition.accept(result, position);
+                return result;
+            }
+        }
+    }
+
+    public CompletableFuture<List<String>> getCustomCategories() {
+        return submitCoalesced("custom-categories", () -> storage.getCustomCategories());
+    }
+
+    public CompletableFuture<Void> addCategory(String name) {
+        return submit(() -> {
+            storage.addCategory(name);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<CategorizedExpense>> findExpenses(ExpenseFilter filter, int afterId, int limit) {
+        return submitCoalesced("find:" + filter + ":" + afterId + ":" + limit,
+                () -> storage.findExpenses(filter, afterId, limit));
+    }
+
+    /**
+     * Loads the newest page of the expenses matching the filter, with the count and
+     * total of all matches.
+     */
+    public CompletableFuture<FirstPage> findFirstPage(ExpenseFilter filter, int pageSize) {
+        return submitCoalesced("find-first-page:" + filter + ":" + pageSize, () -> {
+            ExpenseStorage current = storage;
+            ExpenseStatistics.Stats matches = current.getStatistics(filter).getOverall();
+            List<CategorizedExpense> page = current.findExpenses(filter, 0, pageSize);
+            return new FirstPage(page, matches.getCount(), matches.getSumCents());
+        });
+    }
+
+    /**
+     * Runs a call in the background.
+     */
+    public <T> CompletableFuture<T> submit(DaoCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        taskStarted();
+        try {
+            Future<?> task = executor.submit(() -> {
+                try {
+                    if (!future.isDone()) {
+                        future.complete(call.call());
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            running.put(future, task);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((result, error) -> {
+            Future<?> task = running.remove(future);
+            if (task != null && future.isCancelled()) {
+                task.cancel(true);
+            }
+            taskFinished();
+        });
+        return future;
+    }
+
+    /**
+     * Runs a call in the background unless a call with the same key is already
+     * in flight, in which case that call's future is returned.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submitCoalesced(String key, DaoCall<T> call) {
+        CompletableFuture<?> existing = inFlight.get(key);
+        if (existing != null) {
+            return (CompletableFuture<T>) existing;
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return (CompletableFuture<T>) existing;
+        }
+        submit(call).whenComplete((result, error) -> {
+            inFlight.remove(key, future);
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Cancels every running and queued call.
+     */
+    public void cancelAll() {
+        for (CompletableFuture<?> future : running.keySet()) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Runs the callback on the EDT once the future completes. The error passed to the
+     * callback is unwrapped from CompletionException.
+     */
+    public static <T> void onEdt(CompletableFuture<T> future, BiConsumer<T, Throwable> callback) {
+        future.whenComplete((result, error) -> SwingUtilities.invokeLater(
+                () -> callback.accept(result, unwrap(error))));
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        WriteBehindWriter writer = writeBehind;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close the write-behind journal: " + e.getMessage());
+            }
+        }
+        storage.close();
+    }
+
+    private void taskStarted() {
+        pending.incrementAndGet();
+        notifyProgress();
+    }
+
+    private void taskFinished() {
+        pending.decrementAndGet();
+        notifyProgress();
+    }
+
+    private void notifyProgress() {
+        ProgressListener listener = progressListener;
+        if (listener != null) {
+            // Read the count on the EDT so the last notification always shows the latest value
+            SwingUtilities.invokeLater(() -> listener.progressChanged(pending.get()));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of the loaded expenses, written when the application closes
+ * and read back on the next start so the table can be shown before the database has
+ * answered. Only rows newer than the snapshot's watermark then need to be fetched.
+ *
+ * The file holds a header (row counts, table total and change log position), the category names, one column
+ * per fixed-width field (ids, amounts in cents, row versions, days, category codes) and then the length-prefixed
+ * UTF-8 descriptions. Reading maps the file and copies each column with one bulk get.
+ * The file is written to a temporary name and renamed, so a crash while saving leaves
+ * the previous snapshot intact.
+ */
+class ExpenseSnapshot {
+
+    private static final int MAGIC = 0x4558534E; // "EXSN"
+    // Version 1 stored amounts as doubles, version 2 had no row versions and version 3 no
+    // change log position; such snapshots are ignored
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 4 + 8 + 8;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    // Roughly a century of days; dates are shared through an array over this range at most
+    private static final int MAX_CACHED_DAYS = 40_000;
+
+    private final List<CategorizedExpense> rows;
+    private final long tableRowCount;
+    private final long tableTotalCents;
+    private final long changePosition;
+
+    private ExpenseSnapshot(List<CategorizedExpense> rows, long tableRowCount, long tableTotalCents,
+                            long changePosition) {
+        this.rows = rows;
+        this.tableRowCount = tableRowCount;
+        this.tableTotalCents = tableTotalCents;
+        this.changePosition = changePosition;
+    }
+
+    /** The saved rows, newest first. */
+    public List<CategorizedExpense> getRows() {
+        return rows;
+    }
+
+    /** Number of rows the table had when the snapshot was written, loaded or not. */
+    public long getTableRowCount() {
+        return tableRowCount;
+    }
+
+    public long getTableTotalCents() {
+        return tableTotalCents;
+    }
+
+    /**
+     * The change log position the saved rows include every change up to, or -1 if the
+     * rows were not kept up to date from the change log.
+     */
+    public long getChangePosition() {
+        return changePosition;
+    }
+
+    /** The watermark: what the database held when the snapshot was written. */
+    public DataVersion getDataVersion() {
+        return new DataVersion(tableRowCount, rows.isEmpty() ? 0 : rows.get(0).getId());
+    }
+
+    /**
+     * Saves the rows loaded in the store. Rows without a database id yet are left out.
+     *
+     * @param changePosition see getChangePosition().
+     */
+    public static void write(Path file, ExpenseStore store, long changePosition) throws IOException {
+        List<CategorizedExpense> rows = new ArrayList<>(store.size());
+        for (CategorizedExpense expense : store.asList()) {
+            if (expense.getId() > 0) {
+                rows.add(expense);
+            }
+        }
+        Map<String, Integer> categoryCodes = new HashMap<>();
+        List<String> categories = new ArrayList<>();
+        for (CategorizedExpense expense : rows) {
+            if (!categoryCodes.containsKey(expense.getCategory())) {
+                categoryCodes.put(expense.getCategory(), categories.size());
+                categories.add(expense.getCategory());
+            }
+        }
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(rows.size())
+                    .putLong(store.getTotalCount()).putInt(categories.size())
+                    .putLong(store.getTotalCents()).putLong(changePosition);
+            for (String category : categories) {
+                putString(channel, buffer, category.getBytes(StandardCharsets.UTF_8));
+            }
+            for (CategorizedExpense expense : rows) {
+                ensureRoom(channel, buffer, 4).putInt(expense.getId());
+            }
+            for (CategorizedExpense expense : rows) {
+                ensureRoom(channel, buffer, 8).putLong(expense.getAmountCents());
+            }
+            for (CategorizedExpense expense : rows) {
+                ensureRoom(channel, buffer, 4).putInt(expense.getVersion());
+            }
+            for (CategorizedExpense expense : rows) {
+                ensureRoom(channel, buffer, 4).putInt((int) expense.getDate().toEpochDay());
+            }
+            for (CategorizedExpense expense : rows) {
+                ensureRoom(channel, buffer, 4).putInt(categoryCodes.get(expense.getCategory()));
+            }
+            for (CategorizedExpense expense : rows) {
+                putString(channel, buffer, expense.getDescription().getBytes(StandardCharsets.UTF_8));
+            }
+            drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot.
+     *
+     * @return null if there is no snapshot or it cannot be used.
+     */
+    public static ExpenseSnapshot read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                return null;
+            }
+            int count = map.getInt();
+            long tableRowCount = map.getLong();
+            int categoryCount = map.getInt();
+            long tableTotalCents = map.getLong();
+            long changePosition = map.getLong();
+
+            String[] categories = new String[categoryCount];
+            for (int i = 0; i < categoryCount; i++) {
+                categories[i] = getString(map);
+            }
+            int[] ids = new int[count];
+            long[] amounts = new long[count];
+            int[] versions = new int[count];
+            int[] days = new int[count];
+            int[] categoryCodes = new int[count];
+            map.asIntBuffer().get(ids);
+            map.position(map.position() + count * 4);
+            map.asLongBuffer().get(amounts);
+            map.position(map.position() + count * 8);
+            map.asIntBuffer().get(versions);
+            map.position(map.position() + count * 4);
+            map.asIntBuffer().get(days);
+            map.position(map.position() + count * 4);
+            map.asIntBuffer().get(categoryCodes);
+            map.position(map.position() + count * 4);
+
+            // One copy of all description bytes instead of a small array per row
+            byte[] descriptions = new byte[map.remaining()];
+            map.get(descriptions);
+            LocalDate[] dates = dateCache(days);
+            int minDay = count == 0 ? 0 : min(days);
+
+            List<CategorizedExpense> rows = new ArrayList<>(count);
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int length = ((descriptions[offset] & 0xFF) << 24) | ((descriptions[offset + 1] & 0xFF) << 16)
+                        | ((descriptions[offset + 2] & 0xFF) << 8) | (descriptions[offset + 3] & 0xFF);
+                String description = new String(descriptions, offset + 4, length, StandardCharsets.UTF_8);
+                offset += 4 + length;
+                LocalDate date = dates != null ? dates[days[i] - minDay] : null;
+                if (date == null) {
+                    date = LocalDate.ofEpochDay(days[i]);
+                    if (dates != null) {
+                        dates[days[i] - minDay] = date;
+                    }
+                }
+                CategorizedExpense expense = CategorizedExpense.ofCents(ids[i], amounts[i],
+                        categories[categoryCodes[i]], description, date);
+                expense.setVersion(versions[i]);
+                rows.add(expense);
+            }
+            return new ExpenseSnapshot(rows, tableRowCount, tableTotalCents, changePosition);
+        } catch (RuntimeException e) {
+            // A damaged snapshot is only a missed shortcut; the caller loads from the database
+            return null;
+        }
+    }
+
+    /**
+     * Returns an array to share one LocalDate per distinct day between the rows, or null
+     * if the days span too wide a range for that to pay off.
+     */
+    private static LocalDate[] dateCache(int[] days) {
+        if (days.length == 0) {
+            return null;
+        }
+        long span = (long) max(days) - min(days) + 1;
+        return span <= MAX_CACHED_DAYS ? new LocalDate[(int) span] : null;
+    }
+
+    private static int min(int[] values) {
+        int min = Integer.MAX_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static int max(int[] values) {
+        int max = Integer.MIN_VALUE;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        ensureRoom(channel, buffer, 4).putInt(bytes.length);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                drain(channel, buffer);
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private static ByteBuffer ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+        return buffer;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
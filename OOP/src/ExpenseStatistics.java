@@ -0,0 +1,181 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collector;
+
+/**
+ * Aggregates expenses in a single pass: overall total, count, min, max and average,
+ * plus the same figures per category, per month and per day.
+ *
+ * An instance is a mutable accumulator. Feed it with accept(), or merge partial
+ * results with combine(), which is what the parallel fork-join path does. Amounts are
+ * summed as long cents, so the result is the same whatever the split or merge order.
+ */
+class ExpenseStatistics {
+
+    // Below this size splitting the work costs more than it saves
+    static final int PARALLEL_THRESHOLD = 50_000;
+
+    private final Stats overall = new Stats();
+    private final Map<String, Stats> byCategory = new HashMap<>();
+    private final Map<YearMonth, Stats> byMonth = new HashMap<>();
+    private final Map<LocalDate, Stats> byDay = new HashMap<>();
+
+    /**
+     * Computes the statistics for a list, splitting large lists across the
+     * common fork-join pool.
+     */
+    public static ExpenseStatistics of(List<CategorizedExpense> expenses) {
+        if (expenses.size() < PARALLEL_THRESHOLD) {
+            ExpenseStatistics statistics = new ExpenseStatistics();
+            expenses.forEach(statistics::accept);
+            return statistics;
+        }
+        return ForkJoinPool.commonPool().invoke(new AggregationTask(expenses, 0, expenses.size()));
+    }
+
+    /**
+     * Returns a collector, so the statistics can be computed from any stream,
+     * including parallel ones.
+     */
+    public static Collector<CategorizedExpense, ExpenseStatistics, ExpenseStatistics> collector() {
+        return Collector.of(ExpenseStatistics::new, ExpenseStatistics::accept, ExpenseStatistics::combine);
+    }
+
+    public void accept(CategorizedExpense expense) {
+        long amount = expense.getAmountCents();
+        LocalDate date = expense.getDate();
+        overall.accept(amount);
+        byCategory.computeIfAbsent(expense.getCategory(), k -> new Stats()).accept(amount);
+        byDay.computeIfAbsent(date, k -> new Stats()).accept(amount);
+        byMonth.computeIfAbsent(YearMonth.of(date.getYear(), date.getMonthValue()), k -> new Stats()).accept(amount);
+    }
+
+    /**
+     * Adds a pre-aggregated group of expenses sharing a category and a day,
+     * such as a row of a GROUP BY query or of the rollup table. Amounts are in cents.
+     */
+    public void acceptGroup(String category, LocalDate day, long count, long sumCents, long minCents, long maxCents) {
+        Stats group = new Stats();
+        group.count = count;
+        group.sumCents = sumCents;
+        group.minCents = minCents;
+        group.maxCents = maxCents;
+        overall.combine(group);
+        byCategory.computeIfAbsent(category, k -> new Stats()).combine(group);
+        byDay.computeIfAbsent(day, k -> new Stats()).combine(group);
+        byMonth.computeIfAbsent(YearMonth.of(day.getYear(), day.getMonthValue()), k -> new Stats()).combine(group);
+    }
+
+    /**
+     * Merges another partial result into this one and returns this instance.
+     */
+    public ExpenseStatistics combine(ExpenseStatistics other) {
+        overall.combine(other.overall);
+        mergeInto(byCategory, other.byCategory);
+        mergeInto(byMonth, other.byMonth);
+        mergeInto(byDay, other.byDay);
+        return this;
+    }
+
+    public Stats getOverall() {
+        return overall;
+    }
+
+    /** Per-category figures, sorted by category name. */
+    public SortedMap<String, Stats> getByCategory() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(byCategory));
+    }
+
+    /** Per-month figures, oldest month first. */
+    public SortedMap<YearMonth, Stats> getByMonth() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(byMonth));
+    }
+
+    /** Per-day figures, oldest day first. */
+    public SortedMap<LocalDate, Stats> getByDay() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(byDay));
+    }
+
+    private static <K> void mergeInto(Map<K, Stats> target, Map<K, Stats> source) {
+        for (Map.Entry<K, Stats> entry : source.entrySet()) {
+            target.computeIfAbsent(entry.getKey(), k -> new Stats()).combine(entry.getValue());
+        }
+    }
+
+    /**
+     * Count, sum, min and max of a group of amounts, in cents.
+     */
+    static class Stats {
+        private long count;
+        private long sumCents;
+        private long minCents = Long.MAX_VALUE;
+        private long maxCents = Long.MIN_VALUE;
+
+        void accept(long amountCents) {
+            count++;
+            sumCents += amountCents;
+            minCents = Math.min(minCents, amountCents);
+            maxCents = Math.max(maxCents, amountCents);
+        }
+
+        void combine(Stats other) {
+            count += other.count;
+            sumCents += other.sumCents;
+            minCents = Math.min(minCents, other.minCents);
+            maxCents = Math.max(maxCents, other.maxCents);
+        }
+
+        public long getCount() { return count; }
+        public long getSumCents() { return sumCents; }
+        public long getMinCents() { return count == 0 ? 0 : minCents; }
+        public long getMaxCents() { return count == 0 ? 0 : maxCents; }
+        public double getSum() { return Money.toDouble(sumCents); }
+        public double getMin() { return Money.toDouble(getMinCents()); }
+        public double getMax() { return Money.toDouble(getMaxCents()); }
+
+        public double getAverage() {
+            return count == 0 ? 0.0 : (double) sumCents / count / 100;
+        }
+    }
+
+    /**
+     * Splits a list in halves until the pieces are small enough to aggregate directly.
+     */
+    private static class AggregationTask extends RecursiveTask<ExpenseStatistics> {
+        private static final int SEQUENTIAL_CHUNK = 10_000;
+
+        private final List<CategorizedExpense> expenses;
+        private final int from;
+        private final int to;
+
+        AggregationTask(List<CategorizedExpense> expenses, int from, int to) {
+            this.expenses = expenses;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ExpenseStatistics compute() {
+            if (to - from <= SEQUENTIAL_CHUNK) {
+                ExpenseStatistics statistics = new ExpenseStatistics();
+                for (int i = from; i < to; i++) {
+                    statistics.accept(expenses.get(i));
+                }
+                return statistics;
+            }
+            int middle = (from + to) >>> 1;
+            AggregationTask left = new AggregationTask(expenses, from, middle);
+            left.fork();
+            ExpenseStatistics right = new AggregationTask(expenses, middle, to).compute();
+            return left.join().combine(right);
+        }
+    }
+}
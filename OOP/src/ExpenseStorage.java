@@ -0,0 +1,145 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Where the tracker keeps its expenses. ExpenseTrackerDAO stores them in PostgreSQL;
+ * EmbeddedExpenseStorage keeps them in a local file so the tracker also works without
+ * a database server.
+ *
+ * Lists are newest first (highest id first) and paged by keyset: pass 0 as afterId for
+ * the first page, then the id of the last expense of the previous page. Errors are
+ * reported as SQLException by every backend so callers handle them in one place.
+ */
+interface ExpenseStorage extends AutoCloseable {
+
+    /** An open iteration over stored expenses, newest first. Must be closed. */
+    interface Cursor extends Iterator<CategorizedExpense>, AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** Stores the expense and writes its new id into it. */
+    CategorizedExpense addExpense(CategorizedExpense expense) throws SQLException;
+
+    /**
+     * Stores many expenses at once. Rows that fail validation are reported in the result
+     * instead of aborting the rest.
+     */
+    BatchInsertResult addExpenses(Collection<CategorizedExpense> expenses) throws SQLException;
+
+    /**
+     * Stores a batch of a bulk import. Reports rejected rows like addExpenses(), which it
+     * uses unless the backend has a faster way to load many rows.
+     */
+    default BatchInsertResult importExpenses(Collection<CategorizedExpense> expenses) throws SQLException {
+        return addExpenses(expenses);
+    }
+
+    boolean deleteExpense(int id) throws SQLException;
+
+    /**
+     * Deletes the expenses with the given ids in one transaction and keeps them as
+     * tombstones, so restoreExpenses() can bring them back. Ids that do not exist are
+     * ignored.
+     *
+     * @return the number of expenses deleted.
+     */
+    int deleteExpenses(Collection<Integer> ids) throws SQLException;
+
+    /**
+     * Deletes the expenses like deleteExpenses(), but only rows that still have the
+     * version the expense was read with: a row another client changed in the meantime
+     * is left alone and reported as changed. Expenses with version 0 are deleted
+     * whatever their version.
+     */
+    DeleteResult deleteExpensesIfUnchanged(Collection<CategorizedExpense> expenses) throws SQLException;
+
+    /**
+     * Brings back expenses deleted by deleteExpenses(), with their ids and values, in one
+     * transaction. Ids without a tombstone are ignored.
+     *
+     * @return the number of expenses restored.
+     */
+    int restoreExpenses(Collection<Integer> ids) throws SQLException;
+
+    List<CategorizedExpense> getExpensesPage(int afterId, int limit) throws SQLException;
+
+    /**
+     * Returns up to limit expenses with an id above afterId, oldest first, to catch up
+     * with rows added since a known id.
+     */
+    List<CategorizedExpense> getExpensesAfter(int afterId, int limit) throws SQLException;
+
+    /** Returns one page of the expenses matching the filter, paged like getExpensesPage(). */
+    List<CategorizedExpense> findExpenses(ExpenseFilter filter, int afterId, int limit) throws SQLException;
+
+    /** Opens a cursor over all expenses, newest first. */
+    Cursor openCursor() throws SQLException;
+
+    /** Returns the row count and highest id, used to tell whether a reload is needed. */
+    DataVersion getDataVersion() throws SQLException;
+
+    /**
+     * Returns the position of the newest entry of the change log (see ExpenseChangeFeed),
+     * or 0 if the backend keeps no change log or it is empty. Data read after this call
+     * includes every change up to that position.
+     */
+    default long getChangePosition() throws SQLException {
+        return 0;
+    }
+
+    /** Returns the sum of all amounts, in cents. */
+    long getTotalCents() throws SQLException;
+
+    /** Computes the statistics of the expenses dated between from and to (inclusive). */
+    ExpenseStatistics getStatistics(LocalDate from, LocalDate to) throws SQLException;
+
+    ExpenseStatistics getStatistics(ExpenseFilter filter) throws SQLException;
+
+    /** Returns the number and sum of the expenses of each category that has any. */
+    Map<String, CategoryTotal> getCategoryTotals() throws SQLException;
+
+    /** Returns the categories the user defined, oldest first. */
+    List<String> getCustomCategories() throws SQLException;
+
+    /** Stores a user-defined category. Adding one that exists already does nothing. */
+    void addCategory(String name) throws SQLException;
+
+    default ExpenseStatistics getStatistics() throws SQLException {
+        return getStatistics(ExpenseFilter.ALL);
+    }
+
+    default List<CategorizedExpense> getExpenses() throws SQLException {
+        List<CategorizedExpense> expenses = new ArrayList<>();
+        try (Cursor cursor = openCursor()) {
+            cursor.forEachRemaining(expenses::add);
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        }
+        return expenses;
+    }
+
+    /**
+     * Streams all expenses newest first through a cursor. Use it in a try-with-resources
+     * block so the cursor is released; read errors surface as UncheckedSQLException.
+     */
+    default Stream<CategorizedExpense> streamExpenses() throws SQLException {
+        Cursor cursor = openCursor();
+        Spliterator<CategorizedExpense> spliterator = Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+        return StreamSupport.stream(spliterator, false).onClose(cursor::close);
+    }
+
+    /** Releases the backend's connections or files. */
+    @Override
+    void close();
+}
@@ -0,0 +1,487 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The in-memory copy of the expenses shown by the GUI.
+ * Single inserts and deletes are applied locally instead of reloading the whole
+ * table, and the running total is kept up to date so it can be read in O(1).
+ *
+ * The store may hold only the newest part of the table: older rows are appended a
+ * page at a time as they are needed. The total and row count always describe the
+ * whole table, not just the loaded rows.
+ *
+ * Rows are kept newest first (descending id), which is also the display order, so
+ * row numbers map directly to list indexes and older pages are appended at the end.
+ */
+class ExpenseStore {
+    private static final Comparator<CategorizedExpense> NEWEST_FIRST =
+            Comparator.comparingInt(CategorizedExpense::getId).reversed();
+    // A replace that changes more runs or rows than this is reported as a reload
+    private static final int MAX_CHANGED_RUNS = 64;
+    private static final int MAX_CHANGED_ROWS = 10_000;
+    // Replacing the content, including the table's handling of the events
+    private static final Metrics.Timer REFRESH_TIMER = Metrics.timer("ui.tableRefresh");
+
+    private final List<CategorizedExpense> rows;
+    private final List<ExpenseStoreListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<CategorizedExpense> view;
+    private long totalCents;
+    private long totalCount;
+    private boolean complete = true;
+
+    public ExpenseStore() {
+        this(new ArrayList<>());
+    }
+
+    /**
+     * Creates a store on top of the given (empty) list, e.g. a ColumnarExpenseList
+     * for very large histories.
+     */
+    public ExpenseStore(List<CategorizedExpense> backingList) {
+        this.rows = backingList;
+        this.view = Collections.unmodifiableList(rows);
+    }
+
+    public void addListener(ExpenseStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ExpenseStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the content of the store, e.g. after a full load from the database.
+     * Listeners are told only what changed (see replaceRows()).
+     */
+    public void replaceAll(Collection<CategorizedExpense> expenses) {
+        List<CategorizedExpense> sorted = new ArrayList<>(expenses);
+        sortNewestFirst(sorted);
+        totalCents = 0;
+        for (CategorizedExpense expense : sorted) {
+            totalCents += expense.getAmountCents();
+        }
+        totalCount = sorted.size();
+        replaceRows(sorted);
+        complete = true;
+    }
+
+    /**
+     * Replaces the content of the store with the expenses of an iterator,
+     * such as a database cursor, without building an intermediate list.
+     */
+    public void replaceAll(Iterator<CategorizedExpense> expenses) {
+        rows.clear();
+        try {
+            expenses.forEachRemaining(rows::add);
+        } finally {
+            // Keep the store consistent with its listeners even if reading failed halfway
+            sortNewestFirst(rows);
+            totalCents = 0;
+            for (CategorizedExpense expense : rows) {
+                totalCents += expense.getAmountCents();
+            }
+            totalCount = rows.size();
+            complete = true;
+            fireReloaded();
+        }
+    }
+
+    /**
+     * Replaces the content of the store with the newest page of the table.
+     * Older rows can then be added with appendOlder(). Listeners are told only what
+     * changed (see replaceRows()).
+     *
+     * @param tableRowCount Number of rows in the whole table.
+     * @param tableTotalCents Sum of the amounts of the whole table, in cents.
+     */
+    public void replaceWithFirstPage(List<CategorizedExpense> page, long tableRowCount, long tableTotalCents) {
+        List<CategorizedExpense> sorted = new ArrayList<>(page);
+        sortNewestFirst(sorted);
+        totalCents = tableTotalCents;
+        totalCount = tableRowCount;
+        replaceRows(sorted);
+        complete = rows.size() >= tableRowCount;
+    }
+
+    /**
+     * Appends a page of rows older than the oldest loaded row.
+     *
+     * @param lastPage true if there are no more rows after this page.
+     */
+    public void appendOlder(List<CategorizedExpense> page, boolean lastPage) {
+        int firstRow = rows.size();
+        int oldestId = getOldestLoadedId();
+        for (CategorizedExpense expense : page) {
+            // Skip anything that was already loaded, e.g. after a concurrent insert
+            if (oldestId == 0 || expense.getId() < oldestId) {
+                rows.add(expense);
+            }
+        }
+        if (lastPage || rows.size() >= totalCount) {
+            complete = true;
+        }
+        if (rows.size() > firstRow) {
+            for (ExpenseStoreListener listener : listeners) {
+                listener.expensesAppended(firstRow, rows.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Adds an expense that was just stored in the database (so it already has its id).
+     */
+    public void add(CategorizedExpense expense) {
+        int row = 0;
+        // Ids normally increase, but keep the order correct if they don't
+        if (!rows.isEmpty() && rows.get(0).getId() > expense.getId()) {
+            row = insertionPoint(expense.getId());
+            if (row == rows.size() && !complete) {
+                // Older than every loaded row: it will arrive with a later page
+                totalCents += expense.getAmountCents();
+                totalCount++;
+                return;
+            }
+        }
+        rows.add(row, expense);
+        totalCents += expense.getAmountCents();
+        totalCount++;
+        for (ExpenseStoreListener listener : listeners) {
+            listener.expenseAdded(expense, row);
+        }
+    }
+
+    /**
+     * Adds expenses stored elsewhere, e.g. the rows added since a snapshot was taken,
+     * skipping any that are already loaded. When they are all newer than the loaded rows,
+     * which is the usual case, they go in with a single shift of the loaded rows and are
+     * reported as one range. Older ones, such as restored rows, are merged in with one
+     * pass (see replaceRows()).
+     *
+     * @return the expenses that were new to the store, newest first.
+     */
+    public List<CategorizedExpense> addAll(List<CategorizedExpense> added) {
+        List<CategorizedExpense> sorted = new ArrayList<>(added.size());
+        for (CategorizedExpense expense : added) {
+            if (indexOf(expense.getId()) < 0) {
+                sorted.add(expense);
+            }
+        }
+        if (sorted.isEmpty()) {
+            return sorted;
+        }
+        sorted.sort(NEWEST_FIRST);
+        if (!rows.isEmpty() && sorted.get(sorted.size() - 1).getId() < rows.get(0).getId()) {
+            mergeRows(sorted);
+            return sorted;
+        }
+        rows.addAll(0, sorted);
+        for (CategorizedExpense expense : sorted) {
+            totalCents += expense.getAmountCents();
+        }
+        totalCount += sorted.size();
+        for (ExpenseStoreListener listener : listeners) {
+            listener.expensesInserted(0, sorted.size() - 1);
+        }
+        return sorted;
+    }
+
+    /**
+     * Removes the expense with the given id.
+     *
+     * @return the removed expense, or null if it is not in the store.
+     */
+    public CategorizedExpense remove(int id) {
+        int row = indexOf(id);
+        if (row < 0) {
+            return null;
+        }
+        CategorizedExpense removed = rows.remove(row);
+        totalCents -= removed.getAmountCents();
+        totalCount--;
+        for (ExpenseStoreListener listener : listeners) {
+            listener.expenseRemoved(removed, row);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the given expenses, e.g. after a bulk delete. Rows that are not loaded
+     * because they are older than every loaded row still leave the total and row count.
+     * The change is applied with one pass and reported as range events (see replaceRows()).
+     *
+     * @return the expenses that were removed from the table's figures.
+     */
+    public List<CategorizedExpense> removeAll(Collection<CategorizedExpense> deleted) {
+        Set<Integer> ids = new HashSet<>();
+        List<CategorizedExpense> removed = new ArrayList<>(deleted.size());
+        int oldestLoadedId = getOldestLoadedId();
+        for (CategorizedExpense expense : deleted) {
+            if (!ids.add(expense.getId())) {
+                continue;
+            }
+            CategorizedExpense loaded = findById(expense.getId());
+            if (loaded != null) {
+                removed.add(loaded);
+            } else if (!complete && expense.getId() < oldestLoadedId) {
+                removed.add(expense);
+            }
+        }
+        if (removed.isEmpty()) {
+            return removed;
+        }
+        List<CategorizedExpense> target = new ArrayList<>(rows.size());
+        for (CategorizedExpense row : rows) {
+            if (!ids.contains(row.getId())) {
+                target.add(row);
+            }
+        }
+        for (CategorizedExpense expense : removed) {
+            totalCents -= expense.getAmountCents();
+        }
+        totalCount -= removed.size();
+        replaceRows(target);
+        return removed;
+    }
+
+    public CategorizedExpense findById(int id) {
+        int row = indexOf(id);
+        return row < 0 ? null : rows.get(row);
+    }
+
+    /** Returns the expense shown at the given row (row 0 is the newest). */
+    public CategorizedExpense get(int row) {
+        return rows.get(row);
+    }
+
+    /** Returns the number of loaded rows. */
+    public int size() {
+        return rows.size();
+    }
+
+    /** Returns the number of rows in the whole table, loaded or not. */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /** Returns the sum of all amounts in the whole table, loaded or not, in cents. */
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    /** Returns true when every row of the table is loaded. */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /** Returns the id of the oldest loaded row, or 0 if nothing is loaded. */
+    public int getOldestLoadedId() {
+        return rows.isEmpty() ? 0 : rows.get(rows.size() - 1).getId();
+    }
+
+    /**
+     * Returns a read-only, newest-first view of the loaded rows. It reflects later changes.
+     */
+    public List<CategorizedExpense> asList() {
+        return view;
+    }
+
+    /**
+     * Returns the fingerprint of what the store currently holds, to be compared with
+     * the database's DataVersion.
+     */
+    public DataVersion getDataVersion() {
+        int maxId = rows.isEmpty() ? 0 : rows.get(0).getId();
+        return new DataVersion(totalCount, maxId);
+    }
+
+    /**
+     * Adds newest-first rows that are not loaded yet by merging them with the loaded ones.
+     * Rows older than every loaded row of an incomplete store only change the figures:
+     * they arrive with a later page.
+     */
+    private void mergeRows(List<CategorizedExpense> added) {
+        int oldestLoadedId = getOldestLoadedId();
+        List<CategorizedExpense> target = new ArrayList<>(rows.size() + added.size());
+        int row = 0;
+        for (CategorizedExpense expense : added) {
+            totalCents += expense.getAmountCents();
+            totalCount++;
+            if (!complete && expense.getId() < oldestLoadedId) {
+                continue;
+            }
+            while (row < rows.size() && rows.get(row).getId() > expense.getId()) {
+                target.add(rows.get(row++));
+            }
+            target.add(expense);
+        }
+        target.addAll(rows.subList(row, rows.size()));
+        if (target.size() > rows.size()) {
+            replaceRows(target);
+        }
+    }
+
+    /**
+     * Sorts the rows unless they already are in order, which is the usual case since
+     * the database returns them newest first.
+     */
+    private static void sortNewestFirst(List<CategorizedExpense> list) {
+        for (int i = 1; i < list.size(); i++) {
+            if (list.get(i - 1).getId() < list.get(i).getId()) {
+                list.sort(NEWEST_FIRST);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes the rows equal to the given newest-first list. Both lists are sorted by id,
+     * so one merge walk finds the runs of removed and inserted rows; those are applied
+     * in place and reported as range events, which lets the table keep its selection
+     * and scroll position. A change too scattered or too large for that is reported
+     * as a reload.
+     */
+    private void replaceRows(List<CategorizedExpense> target) {
+        long startNanos = System.nanoTime();
+        if (!isSmallChange(target)) {
+            rows.clear();
+            rows.addAll(target);
+            fireReloaded();
+            REFRESH_TIMER.recordSince(startNanos);
+            Metrics.counter("ui.tableReloads").increment();
+            return;
+        }
+        int row = 0;
+        int next = 0;
+        while (row < rows.size() || next < target.size()) {
+            int start = row;
+            if (next == target.size()) {
+                row = rows.size();
+            } else {
+                int nextId = target.get(next).getId();
+                while (row < rows.size() && rows.get(row).getId() > nextId) {
+                    row++;
+                }
+            }
+            if (row > start) {
+                List<CategorizedExpense> range = rows.subList(start, row);
+                List<CategorizedExpense> removed = new ArrayList<>(range);
+                range.clear();
+                row = start;
+                for (ExpenseStoreListener listener : listeners) {
+                    listener.expensesRemoved(removed, start);
+                }
+            }
+
+            int first = next;
+            int rowId = row < rows.size() ? rows.get(row).getId() : Integer.MIN_VALUE;
+            while (next < target.size() && target.get(next).getId() > rowId) {
+                next++;
+            }
+            if (next > first) {
+                rows.addAll(row, target.subList(first, next));
+                int lastRow = row + next - first - 1;
+                for (ExpenseStoreListener listener : listeners) {
+                    listener.expensesInserted(row, lastRow);
+                }
+                row = lastRow + 1;
+            }
+
+            // Rows present on both sides stay as they are
+            while (row < rows.size() && next < target.size()
+                    && rows.get(row).getId() == target.get(next).getId()) {
+                row++;
+                next++;
+            }
+        }
+        REFRESH_TIMER.recordSince(startNanos);
+    }
+
+    /**
+     * Walks the same merge as replaceRows() without changing anything, to tell whether
+     * range events are worth it.
+     */
+    private boolean isSmallChange(List<CategorizedExpense> target) {
+        if (rows.isEmpty() || target.isEmpty()) {
+            return false;
+        }
+        int runs = 0;
+        int changedRows = 0;
+        int row = 0;
+        int next = 0;
+        boolean inRun = false;
+        while (row < rows.size() || next < target.size()) {
+            int rowId = row < rows.size() ? rows.get(row).getId() : Integer.MIN_VALUE;
+            int nextId = next < target.size() ? target.get(next).getId() : Integer.MIN_VALUE;
+            if (rowId == nextId) {
+                row++;
+                next++;
+                inRun = false;
+                continue;
+            }
+            if (!inRun) {
+                runs++;
+                inRun = true;
+            }
+            if (next == target.size()) {
+                // Everything left was removed: one run, counted without walking it
+                changedRows += rows.size() - row;
+                break;
+            }
+            changedRows++;
+            if (rowId > nextId) {
+                row++;
+            } else {
+                next++;
+            }
+            if (runs > MAX_CHANGED_RUNS || changedRows > MAX_CHANGED_ROWS) {
+                return false;
+            }
+        }
+        return runs <= MAX_CHANGED_RUNS && changedRows <= MAX_CHANGED_ROWS;
+    }
+
+    private void fireReloaded() {
+        for (ExpenseStoreListener listener : listeners) {
+            listener.storeReloaded();
+        }
+    }
+
+    private int indexOf(int id) {
+        int low = 0;
+        int high = rows.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = rows.get(mid).getId();
+            if (midId > id) {
+                low = mid + 1;
+            } else if (midId < id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int insertionPoint(int id) {
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows.get(mid).getId() > id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
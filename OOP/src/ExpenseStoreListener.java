@@ -0,0 +1,24 @@
+import java.util.List;
+
+/**
+ * Receives changes made to an ExpenseStore.
+ * Row numbers use the store's display order (newest expense first).
+ */
+interface ExpenseStoreListener {
+
+    void expenseAdded(CategorizedExpense expense, int row);
+
+    void expenseRemoved(CategorizedExpense expense, int row);
+
+    /** Called after the rows firstRow to lastRow were inserted in one go. */
+    void expensesInserted(int firstRow, int lastRow);
+
+    /** Called after the given rows, which were shown from firstRow on, were removed in one go. */
+    void expensesRemoved(List<CategorizedExpense> removed, int firstRow);
+
+    /** Called after a page of older rows was appended at the end. */
+    void expensesAppended(int firstRow, int lastRow);
+
+    /** Called after the whole content of the store was replaced. */
+    void storeReloaded();
+}
@@ -0,0 +1,190 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciles an EmbeddedExpenseStorage with PostgreSQL whenever the database can be
+ * reached.
+ *
+ * A pass copies user-defined categories both ways, sends local deletes, then local
+ * inserts, then copies the rows added in the database since the last pass (everything
+ * above the storage's sync watermark), and finally drops rows other clients deleted if
+ * the row counts still disagree. Local inserts go through
+ * ExpenseTrackerDAO.addJournaledExpenses() with the storage id as journal id and the
+ * local id as sequence, so a pass cut short after the database committed never inserts
+ * an expense twice.
+ */
+class ExpenseSync implements AutoCloseable {
+
+    // Rows copied from the database per round trip
+    private static final int PULL_PAGE_SIZE = 5_000;
+
+    /** Told on the sync thread after a pass that changed the local storage. */
+    interface SyncListener {
+        void syncCompleted(Result result);
+    }
+
+    /** What one pass did. */
+    static class Result {
+        int pushedInserts;
+        int pushedDeletes;
+        int pulled;
+        int removed;
+        final List<BatchInsertResult.Failure> rejected = new ArrayList<>();
+
+        boolean changedLocalData() {
+            return pushedInserts > 0 || pulled > 0 || removed > 0 || !rejected.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "sent " + pushedInserts + " new and " + pushedDeletes + " deleted, received "
+                    + pulled + " new and " + removed + " deleted, " + rejected.size() + " rejected";
+        }
+    }
+
+    private final EmbeddedExpenseStorage local;
+    private final ExpenseTrackerDAO remote;
+    private final Object passLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    public ExpenseSync(EmbeddedExpenseStorage local, ExpenseTrackerDAO remote) {
+        this.local = local;
+        this.remote = remote;
+    }
+
+    /**
+     * Runs one reconciliation pass. Passes never overlap.
+     *
+     * @throws SQLException if the database cannot be reached; the next pass picks up
+     *         where this one stopped.
+     */
+    public Result syncOnce() throws SQLException {
+        synchronized (passLock) {
+            Result result = new Result();
+            syncCategories();
+            pushDeletes(result);
+            pushInserts(result);
+            pull(result);
+            return result;
+        }
+    }
+
+    /** Copies user-defined categories both ways; adding a known one is a no-op on either side. */
+    private void syncCategories() throws SQLException {
+        List<String> remoteCategories = remote.getCustomCategories();
+        List<String> localCategories = local.getCustomCategories();
+        for (String name : localCategories) {
+            if (!remoteCategories.contains(name)) {
+                remote.addCategory(name);
+            }
+        }
+        for (String name : remoteCategories) {
+            if (!localCategories.contains(name)) {
+                local.addCategory(name);
+            }
+        }
+    }
+
+    private void pushDeletes(Result result) throws SQLException {
+        int[] ids = local.getPendingDeletes();
+        if (ids.length == 0) {
+            return;
+        }
+        List<Integer> pending = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            pending.add(id);
+        }
+        // One statement for all of them; ids already gone from the database count as sent
+        remote.deleteExpenses(pending);
+        local.confirmDeleted(ids);
+        result.pushedDeletes += ids.length;
+    }
+
+    private void pushInserts(Result result) throws SQLException {
+        List<CategorizedExpense> pending = local.getPendingInserts();
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<ExpenseJournal.Record> records = new ArrayList<>(pending.size());
+        Map<CategorizedExpense, Integer> localIds = new IdentityHashMap<>();
+        for (CategorizedExpense expense : pending) {
+            // Copies, so the DAO writes database ids into objects nobody else holds
+            CategorizedExpense copy = CategorizedExpense.ofCents(0, expense.getAmountCents(), expense.getCategory(),
+                    expense.getDescription(), expense.getDate());
+            localIds.put(copy, expense.getId());
+            records.add(new ExpenseJournal.Record(
+                    expense.getId() - (long) EmbeddedExpenseStorage.LOCAL_ID_BASE, copy));
+        }
+        BatchInsertResult inserted = remote.addJournaledExpenses(local.getStoreId(), records);
+        for (CategorizedExpense stored : inserted.getInserted()) {
+            local.confirmInserted(localIds.get(stored), stored);
+            result.pushedInserts++;
+        }
+        // The database will not take rejected rows on a later pass either (their sequence
+        // is now behind its offset), so they are dropped here and reported. Rows neither
+        // inserted nor rejected were stored by an earlier, interrupted pass; their database
+        // rows arrive with the pull.
+        result.rejected.addAll(inserted.getFailures());
+        for (ExpenseJournal.Record record : records) {
+            if (record.expense.getId() == 0) {
+                local.deleteExpense(localIds.get(record.expense));
+            }
+        }
+    }
+
+    private void pull(Result result) throws SQLException {
+        int after = local.getSyncedMaxId();
+        List<CategorizedExpense> rows;
+        do {
+            rows = remote.getExpensesAfter(after, PULL_PAGE_SIZE);
+            result.pulled += local.applyRemoteRows(rows);
+            if (!rows.isEmpty()) {
+                after = rows.get(rows.size() - 1).getId();
+            }
+        } while (rows.size() == PULL_PAGE_SIZE);
+
+        // Equal counts mean no rows were deleted elsewhere; only then skip reading every id
+        if (remote.getDataVersion().getRowCount() != local.getSyncedCount()) {
+            result.removed = local.removeMissing(remote.getExpenseIds());
+        }
+    }
+
+    /**
+     * Runs a pass now and then every period on a background thread. Failures, such as
+     * the database still being down, are only logged.
+     */
+    public synchronized void start(long period, TimeUnit unit, SyncListener listener) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "expense-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Result result = syncOnce();
+                if (listener != null && result.changedLocalData()) {
+                    listener.syncCompleted(result);
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Expense sync failed, will retry: " + e.getMessage());
+            }
+        }, 0, period, unit);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A table model that reads directly from the ExpenseStore.
+ * Cells are formatted only when the table asks for them, i.e. for visible rows,
+ * and older rows are fetched from the database a page at a time when the user
+ * scrolls close to the end of what is loaded.
+ *
+ * The model can be switched to another store holding the results of a filter;
+ * its older pages are then fetched with the same filter.
+ */
+class ExpenseTableModel extends AbstractTableModel implements ExpenseStoreListener {
+    private static final String[] COLUMN_NAMES = {"ID", "Date", "Amount", "Category", "Description"};
+
+    static final int PAGE_SIZE = 500;
+    // Start fetching the next page when this close to the last loaded row
+    private static final int PREFETCH_ROWS = 100;
+
+    /** Told on the EDT when an older page could not be loaded. */
+    interface PageLoadListener {
+        void pageLoadFailed(Throwable error);
+    }
+
+    private ExpenseStore store;
+    private ExpenseFilter filter;
+    private final ExpenseService service;
+    private boolean pageRequested;
+    // Set after a failed page load; no page is fetched again until retryNextPage()
+    private boolean pageFailed;
+    private PageLoadListener pageLoadListener;
+
+    public ExpenseTableModel(ExpenseStore store, ExpenseService service) {
+        this.store = store;
+        this.service = service;
+        store.addListener(this);
+    }
+
+    /**
+     * Shows the rows of another store. Pass the filter its rows were selected with,
+     * or null for the unfiltered store, so that older pages are fetched correctly.
+     */
+    public void showStore(ExpenseStore store, ExpenseFilter filter) {
+        if (store != this.store) {
+            this.store.removeListener(this);
+            store.addListener(this);
+            this.store = store;
+            // A page still in flight belongs to the previous store and is dropped
+            pageRequested = false;
+            pageFailed = false;
+        }
+        this.filter = filter;
+        fireTableDataChanged();
+    }
+
+    public void setPageLoadListener(PageLoadListener pageLoadListener) {
+        this.pageLoadListener = pageLoadListener;
+    }
+
+    /** Fetches the next older page again after a failed load. */
+    public void retryNextPage() {
+        pageFailed = false;
+        requestNextPage();
+    }
+
+    public ExpenseFilter getFilter() {
+        return filter;
+    }
+
+    /** Returns the expense shown at the given row. */
+    public CategorizedExpense getExpenseAt(int row) {
+        return store.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return store.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 ? Integer.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (row >= store.size() - PREFETCH_ROWS) {
+            requestNextPage();
+        }
+        CategorizedExpense expense = store.get(row);
+        switch (column) {
+            case 0: return expense.getId();
+            case 1: return ExpenseFormat.formatDate(expense.getDate());
+            case 2: return ExpenseFormat.formatCents(expense.getAmountCents());
+            case 3: return expense.getCategory();
+            case 4: return expense.getDescription();
+            default: throw new IndexOutOfBoundsException("No column " + column);
+        }
+    }
+
+    /**
+     * Fetches the next page of older rows in the background. Called while the table
+     * paints, so the store is only changed afterwards, from a separate EDT event.
+     */
+    private void requestNextPage() {
+        if (pageRequested || pageFailed || store.isComplete()) {
+            return;
+        }
+        pageRequested = true;
+        ExpenseStore target = store;
+        int afterId = target.getOldestLoadedId();
+        CompletableFuture<List<CategorizedExpense>> request = filter == null
+                ? service.getExpensesPage(afterId, PAGE_SIZE)
+                : service.findExpenses(filter, afterId, PAGE_SIZE);
+        ExpenseService.onEdt(request, (page, error) -> {
+            if (target != store) {
+                return;
+            }
+            pageRequested = false;
+            if (error != null) {
+                // Leave the store as it is; painting must not retry in a loop, the listener offers it
+                pageFailed = true;
+                if (pageLoadListener != null) {
+                    pageLoadListener.pageLoadFailed(error);
+                }
+            } else if (afterId == target.getOldestLoadedId()) {
+                target.appendOlder(page, page.size() < PAGE_SIZE);
+            }
+        });
+    }
+
+    @Override
+    public void expenseAdded(CategorizedExpense expense, int row) {
+        fireTableRowsInserted(row, row);
+    }
+
+    @Override
+    public void expenseRemoved(CategorizedExpense expense, int row) {
+        fireTableRowsDeleted(row, row);
+    }
+
+    @Override
+    public void expensesInserted(int firstRow, int lastRow) {
+        fireTableRowsInserted(firstRow, lastRow);
+    }
+
+    @Override
+    public void expensesRemoved(List<CategorizedExpense> removed, int firstRow) {
+        fireTableRowsDeleted(firstRow, firstRow + removed.size() - 1);
+    }
+
+    @Override
+    public void expensesAppended(int firstRow, int lastRow) {
+        fireTableRowsInserted(firstRow, lastRow);
+    }
+
+    @Override
+    public void storeReloaded() {
+        fireTableDataChanged();
+    }
+}
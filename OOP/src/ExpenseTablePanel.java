@@ -1,24 +1,17 @@
 import java.awt.*;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 
 
 class ExpenseTablePanel extends JPanel {
-    private DefaultTableModel tableModel;
+    private ExpenseTableModel tableModel;
     private JTable expenseTable;
 
-    public ExpenseTablePanel() {
+    public ExpenseTablePanel(ExpenseTableModel tableModel) {
         super(new BorderLayout());
 
-        String[] columnNames = {"ID", "Date", "Amount", "Category", "Description"};
-        tableModel = new DefaultTableModel(columnNames, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; 
-            }
-        };
+        this.tableModel = tableModel;
         expenseTable = new JTable(tableModel);
         expenseTable.setFillsViewportHeight(true); 
         JScrollPane scrollPane = new JScrollPane(expenseTable);
@@ -26,24 +19,20 @@ class ExpenseTablePanel extends JPanel {
     }
 
     
-    public void updateTable(List<CategorizedExpense> expenses) {
-        tableModel.setRowCount(0); 
-        for (CategorizedExpense expense : expenses) {
-            tableModel.addRow(new Object[]{
-                expense.getId(),
-                expense.getDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")),
-                String.format("%.2f", expense.getAmount()), 
-                expense.getCategory(),
-                expense.getDescription()
-            });
-        }
-    }
-
-    
     public int getSelectedRow() {
         return expenseTable.getSelectedRow();
     }
 
+    /** Returns the expenses of all selected rows, top to bottom. */
+    public List<CategorizedExpense> getSelectedExpenses() {
+        int[] rows = expenseTable.getSelectedRows();
+        List<CategorizedExpense> selected = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            selected.add(tableModel.getExpenseAt(row));
+        }
+        return selected;
+    }
+
  
     public Object getValueAt(int row, int column) {
         return tableModel.getValueAt(row, column);
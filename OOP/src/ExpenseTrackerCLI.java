@@ -0,0 +1,596 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs imports, aggregations and exports without a display, so periodic jobs can be
+ * scripted on a server. It uses the same storage as the GUI: the database, or the
+ * embedded storage with -Dexpenses.backend=embedded (never as a fallback, so a job
+ * never writes locally because the database was down).
+ *
+ * Rows and figures are streamed to standard output or a file; a status line per job,
+ * with its duration, goes to standard error. A batch file holds one command per line,
+ * run by --workers threads side by side.
+ *
+ * Exit codes: 0 success, 1 done but rows were rejected, 2 usage error, 3 failed
+ * (storage or file error). A batch exits with the highest code of its jobs.
+ */
+public class ExpenseTrackerCLI {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_REJECTED = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_FAILED = 3;
+
+    private static final boolean EMBEDDED_BACKEND = "embedded".equals(System.getProperty("expenses.backend"));
+    // The database pool has 4 connections by default (-Dexpenses.poolSize); an export holds one for its whole run
+    private static final int DEFAULT_WORKERS = 2;
+    // Rows read per round trip when listing a filtered selection
+    private static final int PAGE_SIZE = 1_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String STDOUT = "-";
+
+    private static final String USAGE = String.join("\n",
+            "Usage: java -cp \"bin;lib/postgresql-42.7.6.jar\" ExpenseTrackerCLI [--workers N] [--metrics] COMMAND",
+            "Commands:",
+            "  import FILE... [--category NAME] [--threads N]   import bank exports (.csv, .ofx, .qfx)",
+            "  export [FILE|-] [--format text|csv|json] [--gzip] stream every expense (default csv to stdout)",
+            "  report [FILE|-]                                   the summary report, as saved by the GUI",
+            "  stats [FILE|-] [--by category|month|day] [FILTER] count, sum, min, max and average as csv",
+            "  list [FILE|-] [FILTER]                            one summary line per expense",
+            "  batch FILE                                        run the commands of a file, one per line",
+            "FILTER: --category NAME --from YYYY-MM-DD --to YYYY-MM-DD --text WORDS --min AMOUNT --max AMOUNT",
+            "Exit codes: 0 success, 1 rows rejected, 2 usage error, 3 failed");
+
+    /** A command line that cannot be run as given. */
+    private static class UsageException extends Exception {
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    /** How a job ended: its exit code and the text of its status line. */
+    private static class Outcome {
+        final int exitCode;
+        final String summary;
+
+        Outcome(int exitCode, String summary) {
+            this.exitCode = exitCode;
+            this.summary = summary;
+        }
+    }
+
+    private interface Task {
+        Outcome run(ExpenseStorage storage) throws IOException, SQLException;
+    }
+
+    /** Writes the text of a stats or list job; see writeOutput(). */
+    private interface TextContent<T> {
+        T writeTo(Writer writer) throws IOException, SQLException;
+    }
+
+    /** One command of the command line or of a batch file; an import has one per file. */
+    private static class Job {
+        final String name;
+        final boolean toStdout;
+        final Task task;
+
+        Job(String name, boolean toStdout, Task task) {
+            this.name = name;
+            this.toStdout = toStdout;
+            this.task = task;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        int workers = DEFAULT_WORKERS;
+        boolean printMetrics = false;
+        List<Job> jobs;
+        try {
+            int i = 0;
+            for (; i < args.length && args[i].startsWith("--"); i++) {
+                if ("--workers".equals(args[i])) {
+                    workers = positiveInt(args[i], value(Arrays.asList(args), ++i, args[i]));
+                } else if ("--metrics".equals(args[i])) {
+                    printMetrics = true;
+                } else {
+                    throw new UsageException("Unknown option " + args[i]);
+                }
+            }
+            if (i == args.length) {
+                throw new UsageException("No command given");
+            }
+            jobs = parseCommand(Arrays.asList(args).subList(i, args.length), workers, true);
+            if (workers > 1 && jobs.size() > 1 && jobs.stream().filter(job -> job.toStdout).count() > 1) {
+                throw new UsageException("Jobs running side by side cannot share standard output;"
+                        + " give them output files or use --workers 1");
+            }
+        } catch (UsageException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        ExpenseStorage storage;
+        try {
+            storage = openStorage();
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Cannot open the expense storage: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        int exitCode;
+        try {
+            exitCode = runJobs(storage, jobs, workers);
+        } finally {
+            storage.close();
+        }
+        if (printMetrics) {
+            System.err.print(Metrics.dump());
+        }
+        return exitCode;
+    }
+
+    private static ExpenseStorage openStorage() throws IOException, ClassNotFoundException {
+        if (EMBEDDED_BACKEND) {
+            // Same default directory as the GUI
+            return new EmbeddedExpenseStorage(Paths.get(System.getProperty("expenses.embeddedDir",
+                    Paths.get(System.getProperty("user.home"), ".expense-tracker", "embedded").toString())));
+        }
+        Class.forName("org.postgresql.Driver");
+        return new ExpenseTrackerDAO();
+    }
+
+    /** Runs the jobs on up to the given number of threads and returns the highest exit code. */
+    private static int runJobs(ExpenseStorage storage, List<Job> jobs, int workers) {
+        if (workers == 1 || jobs.size() == 1) {
+            int exitCode = EXIT_OK;
+            for (Job job : jobs) {
+                exitCode = Math.max(exitCode, runJob(storage, job));
+            }
+            return exitCode;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, jobs.size()), r -> {
+            Thread t = new Thread(r, "expense-cli-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (Job job : jobs) {
+                results.add(executor.submit(() -> runJob(storage, job)));
+            }
+            int exitCode = EXIT_OK;
+            for (Future<Integer> result : results) {
+                exitCode = Math.max(exitCode, result.get());
+            }
+            return exitCode;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        } catch (ExecutionException e) {
+            // runJob() reports its own errors, so this is not expected
+            status("Job failed: " + e.getCause());
+            return EXIT_FAILED;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int runJob(ExpenseStorage storage, Job job) {
+        long start = System.nanoTime();
+        try {
+            Outcome outcome = job.task.run(storage);
+            status(String.format("%s: %s (%.0f ms)", job.name, outcome.summary, (System.nanoTime() - start) / 1e6));
+            return outcome.exitCode;
+        } catch (NoSuchFileException e) {
+            status(job.name + ": failed: no such file " + e.getMessage());
+            return EXIT_FAILED;
+        } catch (IOException | SQLException e) {
+            status(job.name + ": failed: " + e.getMessage());
+            return EXIT_FAILED;
+        } catch (RuntimeException e) {
+            // Read errors of cursors surface as UncheckedSQLException
+            status(job.name + ": failed: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+            return EXIT_FAILED;
+        }
+    }
+
+    private static synchronized void status(String line) {
+        System.err.println(line);
+    }
+
+    private static List<Job> parseCommand(List<String> words, int workers, boolean allowBatch)
+            throws UsageException {
+        String command = words.get(0);
+        List<String> args = words.subList(1, words.size());
+        switch (command) {
+            case "import":
+                return parseImport(args, workers);
+            case "export":
+                return parseExport(args, null);
+            case "report":
+                return parseExport(args, SummaryFileHandler.ExportFormat.TEXT);
+            case "stats":
+                return parseStats(args);
+            case "list":
+                return parseList(args);
+            case "batch":
+                if (!allowBatch) {
+                    throw new UsageException("A batch file cannot run another batch file");
+                }
+                if (args.size() != 1) {
+                    throw new UsageException("batch takes one file");
+                }
+                return parseBatch(Paths.get(args.get(0)), workers);
+            default:
+                throw new UsageException("Unknown command " + command);
+        }
+    }
+
+    private static List<Job> parseImport(List<String> args, int workers) throws UsageException {
+        List<Path> files = new ArrayList<>();
+        String category = "OTHER";
+        // The workers share the processors
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if ("--category".equals(arg)) {
+                category = category(value(args, ++i, arg));
+            } else if ("--threads".equals(arg)) {
+                threads = positiveInt(arg, value(args, ++i, arg));
+            } else if (arg.startsWith("--")) {
+                throw new UsageException("Unknown import option " + arg);
+            } else {
+                files.add(Paths.get(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            throw new UsageException("import needs at least one file");
+        }
+        List<Job> jobs = new ArrayList<>();
+        for (Path file : files) {
+            String defaultCategory = category;
+            int parserThreads = threads;
+            jobs.add(new Job("import " + file, false, storage -> importFile(storage, file, parserThreads,
+                    defaultCategory)));
+        }
+        return jobs;
+    }
+
+    private static Outcome importFile(ExpenseStorage storage, Path file, int parserThreads, String category)
+            throws IOException, SQLException {
+        ExpenseImporter importer = new ExpenseImporter(storage, parserThreads, category);
+        ExpenseImporter.ImportResult result = importer.importFile(file,
+                ExpenseImporter.ImportFormat.fromFileName(file.getFileName().toString()), null);
+        for (String reject : result.getRejects()) {
+            status(file + ": " + reject);
+        }
+        return new Outcome(result.getRejected() > 0 ? EXIT_REJECTED : EXIT_OK, result.toString());
+    }
+
+    /** @param format the format of "report"; null lets --format or the file name choose. */
+    private static List<Job> parseExport(List<String> args, SummaryFileHandler.ExportFormat format)
+            throws UsageException {
+        String target = STDOUT;
+        SummaryFileHandler.ExportFormat chosenFormat = format;
+        boolean gzip = false;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (format == null && "--format".equals(arg)) {
+                try {
+                    chosenFormat = SummaryFileHandler.ExportFormat.valueOf(value(args, ++i, arg).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new UsageException("Unknown format " + args.get(i));
+                }
+            } else if ("--gzip".equals(arg)) {
+                gzip = true;
+            } else if (arg.startsWith("--")) {
+                throw new UsageException("Unknown option " + arg);
+            } else {
+                target = arg;
+            }
+        }
+        if (!STDOUT.equals(target)) {
+            gzip |= SummaryFileHandler.isGzipFileName(target);
+            if (chosenFormat == null) {
+                chosenFormat = SummaryFileHandler.ExportFormat.fromFileName(target);
+            }
+        } else if (chosenFormat == null) {
+            chosenFormat = SummaryFileHandler.ExportFormat.CSV;
+        }
+        String output = target;
+        SummaryFileHandler.ExportFormat exportFormat = chosenFormat;
+        boolean compress = gzip;
+        String name = (format == null ? "export " : "report ") + output;
+        return single(new Job(name, STDOUT.equals(output), storage -> {
+            SummaryFileHandler handler = new SummaryFileHandler();
+            long rows = STDOUT.equals(output)
+                    ? handler.exportSummary(storage, System.out, exportFormat, compress, null)
+                    : handler.exportSummary(storage, Paths.get(output), exportFormat, compress, null);
+            return new Outcome(EXIT_OK, rows + " expenses written");
+        }));
+    }
+
+    private static List<Job> parseStats(List<String> args) throws UsageException {
+        List<String> rest = new ArrayList<>();
+        ExpenseFilter filter = parseFilter(args, rest);
+        String by = "category";
+        String target = STDOUT;
+        for (int i = 0; i < rest.size(); i++) {
+            String arg = rest.get(i);
+            if ("--by".equals(arg)) {
+                by = value(rest, ++i, arg);
+                if (!Arrays.asList("category", "month", "day").contains(by)) {
+                    throw new UsageException("--by takes category, month or day");
+                }
+            } else if (arg.startsWith("--")) {
+                throw new UsageException("Unknown stats option " + arg);
+            } else {
+                target = arg;
+            }
+        }
+        String groupBy = by;
+        String output = target;
+        return single(new Job("stats " + output, STDOUT.equals(output), storage -> {
+            ExpenseStatistics statistics = storage.getStatistics(filter);
+            Map<?, ExpenseStatistics.Stats> groups = "month".equals(groupBy) ? statistics.getByMonth()
+                    : "day".equals(groupBy) ? statistics.getByDay()
+                    : statistics.getByCategory();
+            writeOutput(output, writer -> {
+                StringBuilder line = new StringBuilder(128);
+                writer.write(groupBy + ",count,sum,min,max,average\n");
+                for (Map.Entry<?, ExpenseStatistics.Stats> group : groups.entrySet()) {
+                    line.setLength(0);
+                    CsvFormat.appendField(line, group.getKey().toString());
+                    appendStats(line.append(','), group.getValue());
+                    writer.write(line.toString());
+                }
+                line.setLength(0);
+                appendStats(line.append("total,"), statistics.getOverall());
+                writer.write(line.toString());
+                return null;
+            });
+            return new Outcome(EXIT_OK, groups.size() + " groups, "
+                    + statistics.getOverall().getCount() + " expenses");
+        }));
+    }
+
+    private static void appendStats(StringBuilder line, ExpenseStatistics.Stats stats) {
+        line.append(stats.getCount()).append(',');
+        ExpenseFormat.appendCents(line, stats.getSumCents()).append(',');
+        ExpenseFormat.appendCents(line, stats.getMinCents()).append(',');
+        ExpenseFormat.appendCents(line, stats.getMaxCents()).append(',');
+        ExpenseFormat.appendAmount(line, stats.getAverage()).append('\n');
+    }
+
+    private static List<Job> parseList(List<String> args) throws UsageException {
+        List<String> rest = new ArrayList<>();
+        ExpenseFilter filter = parseFilter(args, rest);
+        String target = STDOUT;
+        for (String arg : rest) {
+            if (arg.startsWith("--")) {
+                throw new UsageException("Unknown list option " + arg);
+            }
+            target = arg;
+        }
+        String output = target;
+        return single(new Job("list " + output, STDOUT.equals(output), storage -> {
+            long rows = writeOutput(output, writer -> {
+                long written = 0;
+                if (filter.isEmpty()) {
+                    try (ExpenseStorage.Cursor cursor = storage.openCursor()) {
+                        while (cursor.hasNext()) {
+                            writeSummary(writer, cursor.next());
+                            written++;
+                        }
+                    }
+                } else {
+                    List<CategorizedExpense> page = storage.findExpenses(filter, 0, PAGE_SIZE);
+                    while (!page.isEmpty()) {
+                        for (CategorizedExpense expense : page) {
+                            writeSummary(writer, expense);
+                        }
+                        written += page.size();
+                        page = page.size() < PAGE_SIZE ? List.of()
+                                : storage.findExpenses(filter, page.get(page.size() - 1).getId(), PAGE_SIZE);
+                    }
+                }
+                return written;
+            });
+            return new Outcome(EXIT_OK, rows + " expenses listed");
+        }));
+    }
+
+    private static void writeSummary(Writer writer, Summarizable item) throws IOException {
+        writer.write(item.getSummary());
+        writer.write('\n');
+    }
+
+    /**
+     * Reads the filter options and leaves the other arguments in rest.
+     */
+    private static ExpenseFilter parseFilter(List<String> args, List<String> rest) throws UsageException {
+        ExpenseFilter filter = ExpenseFilter.ALL;
+        LocalDate from = null;
+        LocalDate to = null;
+        Long min = null;
+        Long max = null;
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                String arg = args.get(i);
+                switch (arg) {
+                    case "--category":
+                        filter = filter.withCategory(category(value(args, ++i, arg)));
+                        break;
+                    case "--text":
+                        filter = filter.withText(value(args, ++i, arg));
+                        break;
+                    case "--from":
+                        from = LocalDate.parse(value(args, ++i, arg));
+                        break;
+                    case "--to":
+                        to = LocalDate.parse(value(args, ++i, arg));
+                        break;
+                    case "--min":
+                        min = Money.parse(value(args, ++i, arg));
+                        break;
+                    case "--max":
+                        max = Money.parse(value(args, ++i, arg));
+                        break;
+                    default:
+                        rest.add(arg);
+                }
+            }
+        } catch (DateTimeParseException e) {
+            throw new UsageException("Dates are written YYYY-MM-DD: " + e.getParsedString());
+        } catch (NumberFormatException e) {
+            throw new UsageException("Invalid amount: " + e.getMessage());
+        }
+        if (from != null || to != null) {
+            filter = filter.withDateRange(from, to);
+        }
+        if (min != null || max != null) {
+            filter = filter.withAmountRange(min, max);
+        }
+        return filter;
+    }
+
+    /**
+     * Reads a batch file: one command per line, words separated by spaces, "quoted" words
+     * kept together. Blank lines and lines starting with # are skipped.
+     */
+    private static List<Job> parseBatch(Path file, int workers) throws UsageException {
+        List<Job> jobs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                List<String> words = splitWords(line);
+                if (words.isEmpty() || words.get(0).startsWith("#")) {
+                    continue;
+                }
+                try {
+                    jobs.addAll(parseCommand(words, workers, false));
+                } catch (UsageException e) {
+                    throw new UsageException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UsageException("Cannot read " + file + ": " + e.getMessage());
+        }
+        if (jobs.isEmpty()) {
+            throw new UsageException(file + " has no commands");
+        }
+        return jobs;
+    }
+
+    private static List<String> splitWords(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Writes to standard output for "-", which is only flushed as later jobs may write to
+     * it. A file, gzip-compressed if its name ends in .gz, is written next to the target
+     * and moved into place when complete, like the exports, so a failed job leaves an
+     * existing file as it was.
+     */
+    private static <T> T writeOutput(String target, TextContent<T> content) throws IOException, SQLException {
+        if (STDOUT.equals(target)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
+            T result = content.writeTo(writer);
+            writer.flush();
+            return result;
+        }
+        return SummaryFileHandler.writeAtomically(Paths.get(target), out -> {
+            OutputStream stream = SummaryFileHandler.isGzipFileName(target) ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+            // Closing finishes the gzip stream; the file itself is closed by writeAtomically()
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                return content.writeTo(writer);
+            }
+        });
+    }
+
+    private static String value(List<String> args, int index, String option) throws UsageException {
+        if (index >= args.size()) {
+            throw new UsageException(option + " needs a value");
+        }
+        return args.get(index);
+    }
+
+    private static String category(String name) throws UsageException {
+        try {
+            return CategoryManager.normalize(name);
+        } catch (IllegalArgumentException e) {
+            throw new UsageException(e.getMessage());
+        }
+    }
+
+    private static int positiveInt(String option, String value) throws UsageException {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new UsageException(option + " takes a positive number, not " + value);
+    }
+
+    private static List<Job> single(Job job) {
+        List<Job> jobs = new ArrayList<>();
+        jobs.add(job);
+        return jobs;
+    }
+}
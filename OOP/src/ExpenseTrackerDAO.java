@@ -1,27 +1,311 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 
 
-class ExpenseTrackerDAO {
+class ExpenseTrackerDAO implements ExpenseStorage {
 
     // Database connection details
     private static final String DB_URL = "jdbc:postgresql://localhost:5432/OOP";
     private static final String USER = "postgres";
     private static final String PASSWORD = "07510751";
 
-   
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL, USER, PASSWORD);
+    // Connection pool settings, e.g. -Dexpenses.poolSize=8
+    private static final int POOL_MIN_IDLE = Integer.getInteger("expenses.poolMinIdle", 1);
+    private static final int POOL_MAX_SIZE = Integer.getInteger("expenses.poolSize", 4);
+    private static final long POOL_BORROW_TIMEOUT_MILLIS = Long.getLong("expenses.poolTimeoutMillis", 5_000);
+    private static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("expenses.poolIdleMillis", 60_000);
+    private static final int POOL_STATEMENT_CACHE_SIZE = 16;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO expenses (amount, category, description, date) VALUES (?, ?, ?, ?) RETURNING id, version";
+    private static final String SELECT_ALL_SQL =
+            "SELECT id, amount, category, description, date, version FROM expenses ORDER BY id DESC";
+    private static final String SELECT_PAGE_SQL =
+            "SELECT id, amount, category, description, date, version FROM expenses"
+            + " WHERE id < ? ORDER BY id DESC LIMIT ?";
+    private static final String SELECT_NEWER_SQL =
+            "SELECT id, amount, category, description, date, version FROM expenses"
+            + " WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_IDS_SQL = "SELECT id FROM expenses ORDER BY id";
+    private static final String DELETE_SQL = "DELETE FROM expenses WHERE id = ?";
+    // Moves the rows to the tombstone table in one statement and returns their ids. Takes
+    // parallel arrays of ids and versions; a row is only deleted if it still has the given
+    // version, or the version is 0
+    private static final String DELETE_MANY_SQL =
+            "WITH gone AS (DELETE FROM expenses e USING unnest(?::integer[], ?::integer[]) AS w(id, version)"
+            + " WHERE e.id = w.id AND (w.version = 0 OR e.version = w.version)"
+            + " RETURNING e.id, e.amount, e.category, e.description, e.date, e.version),"
+            + " kept AS (INSERT INTO expense_tombstones (id, amount, category, description, date, version)"
+            + " SELECT id, amount, category, description, date, version FROM gone"
+            + " ON CONFLICT (id) DO UPDATE SET amount = EXCLUDED.amount, category = EXCLUDED.category,"
+            + " description = EXCLUDED.description, date = EXCLUDED.date, version = EXCLUDED.version,"
+            + " deleted_at = now())"
+            + " SELECT id FROM gone";
+    private static final String SELECT_EXISTING_IDS_SQL = "SELECT id FROM expenses WHERE id = ANY(?)";
+    private static final String RESTORE_SQL =
+            "WITH back AS (DELETE FROM expense_tombstones WHERE id = ANY(?)"
+            + " RETURNING id, amount, category, description, date, version)"
+            + " INSERT INTO expenses (id, amount, category, description, date, version)"
+            + " SELECT id, amount, category, description, date, version FROM back";
+    private static final String PURGE_TOMBSTONES_SQL =
+            "DELETE FROM expense_tombstones WHERE deleted_at < now() - interval '7 days'";
+    private static final String VERSION_SQL = "SELECT COUNT(*), COALESCE(MAX(id), 0) FROM expenses";
+    private static final String TOTAL_SQL = "SELECT COALESCE(SUM(amount), 0) FROM expenses";
+    private static final String GROUPED_STATS_SQL =
+            "SELECT category, date, COUNT(*), SUM(amount), MIN(amount), MAX(amount) FROM expenses"
+            + " WHERE date BETWEEN ? AND ? GROUP BY category, date";
+    private static final String ROLLUP_STATS_SQL =
+            "SELECT category, day, expense_count, total, min_amount, max_amount FROM expense_daily_rollup"
+            + " WHERE day BETWEEN ? AND ?";
+    private static final String CATEGORY_TOTALS_SQL =
+            "SELECT category, COUNT(*), SUM(amount) FROM expenses GROUP BY category";
+    private static final String ROLLUP_CATEGORY_TOTALS_SQL =
+            "SELECT category, SUM(expense_count), SUM(total) FROM expense_daily_rollup GROUP BY category";
+    private static final String SELECT_CATEGORIES_SQL =
+            "SELECT name FROM expense_categories ORDER BY created_at, name";
+    private static final String INSERT_CATEGORY_SQL =
+            "INSERT INTO expense_categories (name) VALUES (?) ON CONFLICT (name) DO NOTHING";
+    private static final String BATCH_INSERT_SQL =
+            "INSERT INTO expenses (amount, category, description, date) VALUES (?, ?, ?, ?)";
+    private static final String RESERVE_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('expenses', 'id')) FROM generate_series(1, ?)";
+    private static final String SELECT_JOURNAL_OFFSET_SQL =
+            "SELECT applied_sequence FROM expense_journal_offsets WHERE journal_id = ? FOR UPDATE";
+    private static final String UPSERT_JOURNAL_OFFSET_SQL =
+            "INSERT INTO expense_journal_offsets (journal_id, applied_sequence) VALUES (?, ?)"
+            + " ON CONFLICT (journal_id) DO UPDATE SET applied_sequence ="
+            + " GREATEST(expense_journal_offsets.applied_sequence, EXCLUDED.applied_sequence)";
+    private static final String COPY_SQL =
+            "COPY expenses (id, amount, category, description, date) FROM STDIN WITH (FORMAT csv)";
+    // Archive files use the column names "Import..." recognizes
+    private static final String ARCHIVE_COPY_SQL =
+            "COPY (SELECT date, amount, category, description, id FROM %s ORDER BY id)"
+            + " TO STDOUT WITH (FORMAT csv, HEADER)";
+    private static final String DELETE_ROLLUP_RANGE_SQL =
+            "DELETE FROM expense_daily_rollup WHERE day >= ? AND day < ?";
+    // The newest entry whose writer and every transaction that may hold a lower seq have
+    // finished (see ExpenseSchema.SETTLED_CHANGE_LOG_DDL); entries without a logged_xmax
+    // were written under the lock of earlier versions
+    private static final String SETTLED_CHANGE_SQL =
+            "(SELECT COALESCE(MAX(seq), 0) FROM expense_changes"
+            + " WHERE logged_xmax IS NULL OR logged_xmax <= pg_snapshot_xmin(pg_current_snapshot()))";
+    private static final String CHANGE_POSITION_SQL = "SELECT " + SETTLED_CHANGE_SQL;
+    private static final String SELECT_CHANGES_SQL =
+            "SELECT seq, op, id, amount, category, description, date, version FROM expense_changes"
+            + " WHERE seq >= ? AND seq <= " + SETTLED_CHANGE_SQL + " ORDER BY seq LIMIT ?";
+    private static final String CHANGES_AFTER_SQL = "SELECT EXISTS (SELECT 1 FROM expense_changes WHERE seq > ?)";
+    // Keeps the newest settled entry, so a position read from the log always names an entry
+    private static final String PURGE_CHANGES_SQL =
+            "DELETE FROM expense_changes WHERE changed_at < now() - interval '1 day'"
+            + " AND seq < " + SETTLED_CHANGE_SQL;
+    private static final String RESET_CHANGES_SQL = "SELECT expense_changes_reset()";
+
+    // Rows sent per JDBC batch / per COPY buffer flush
+    private static final int BATCH_SIZE = 1_000;
+    private static final int COPY_BUFFER_CHARS = 64 * 1024;
+    // Rows the driver fetches per round trip when streaming with a cursor
+    private static final int CURSOR_FETCH_SIZE = 1_000;
+
+    // Latency of each call, including waiting for a connection (see Metrics)
+    private static final Metrics.Timer ADD_TIMER = Metrics.timer("dao.addExpense");
+    private static final Metrics.Timer BATCH_TIMER = Metrics.timer("dao.addExpenses");
+    private static final Metrics.Timer JOURNAL_TIMER = Metrics.timer("dao.addJournaledExpenses");
+    private static final Metrics.Timer COPY_TIMER = Metrics.timer("dao.addExpensesWithCopy");
+    private static final Metrics.Timer DELETE_TIMER = Metrics.timer("dao.deleteExpense");
+    private static final Metrics.Timer DELETE_MANY_TIMER = Metrics.timer("dao.deleteExpenses");
+    private static final Metrics.Timer RESTORE_TIMER = Metrics.timer("dao.restoreExpenses");
+    private static final Metrics.Timer PAGE_TIMER = Metrics.timer("dao.getExpensesPage");
+    private static final Metrics.Timer NEWER_TIMER = Metrics.timer("dao.getExpensesAfter");
+    private static final Metrics.Timer FIND_TIMER = Metrics.timer("dao.findExpenses");
+    private static final Metrics.Timer IDS_TIMER = Metrics.timer("dao.getExpenseIds");
+    private static final Metrics.Timer CURSOR_TIMER = Metrics.timer("dao.openCursor");
+    private static final Metrics.Timer VERSION_TIMER = Metrics.timer("dao.getDataVersion");
+    private static final Metrics.Timer TOTAL_TIMER = Metrics.timer("dao.getTotalCents");
+    private static final Metrics.Timer STATISTICS_TIMER = Metrics.timer("dao.getStatistics");
+    private static final Metrics.Timer FILTERED_STATISTICS_TIMER = Metrics.timer("dao.getFilteredStatistics");
+    private static final Metrics.Timer CATEGORY_TOTALS_TIMER = Metrics.timer("dao.getCategoryTotals");
+    private static final Metrics.Timer MIGRATE_TIMER = Metrics.timer("dao.migrate");
+    private static final Metrics.Timer ARCHIVE_TIMER = Metrics.timer("dao.archivePartition");
+    private static final Metrics.Timer CHANGE_POSITION_TIMER = Metrics.timer("dao.getChangePosition");
+    private static final Metrics.Timer CHANGES_TIMER = Metrics.timer("dao.getChangesFrom");
+    // Turning a fetched page into objects, and rows mapped by pages and cursors alike
+    private static final Metrics.Timer MAP_TIMER = Metrics.timer("dao.mapRows");
+    private static final LongAdder ROWS_MAPPED = Metrics.counter("dao.rowsMapped");
+
+    private static final LocalDate MIN_DATE = LocalDate.of(1, 1, 1);
+    private static final LocalDate MAX_DATE = LocalDate.of(9999, 12, 31);
+
+    private final ConnectionPool pool;
+    // Summaries read the trigger-maintained rollup table when enabled (-Dexpenses.rollups=true)
+    private volatile boolean useRollups = Boolean.getBoolean("expenses.rollups");
+    private volatile boolean migrated;
+
+    public ExpenseTrackerDAO() {
+        this(new ConnectionPool(DB_URL, USER, PASSWORD,
+                POOL_MIN_IDLE, POOL_MAX_SIZE,
+                POOL_BORROW_TIMEOUT_MILLIS, POOL_IDLE_TIMEOUT_MILLIS,
+                POOL_STATEMENT_CACHE_SIZE));
+    }
+
+    public ExpenseTrackerDAO(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+
+    // Package-private so that benchmarks and maintenance code can run their own SQL
+    ConnectionPool.PooledConnection getConnection() throws SQLException {
+        if (!migrated) {
+            migrate();
+        }
+        return pool.borrow();
+    }
+
+    /**
+     * Applies the schema migrations the database has not seen yet and adds the monthly
+     * partitions of the coming months (see ExpenseSchema.migrate()). The first database
+     * call of the process runs it, and calls made meanwhile wait for it; afterwards it
+     * returns straight away.
+     *
+     * @return the descriptions of the migrations applied by this call.
+     */
+    public synchronized List<String> migrate() throws SQLException {
+        if (migrated) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = pool.borrow()) {
+            List<String> applied = ExpenseSchema.migrate(conn.getConnection(), YearMonth.now());
+            migrated = true;
+            return applied;
+        } finally {
+            MIGRATE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Moves the monthly partitions of the months before cutoff out of the database. Each
+     * one is written to a gzip-compressed CSV file named after it in directory (for
+     * example expenses_p2021_03.csv.gz, which "Import..." reads once unpacked), then
+     * detached and dropped. An existing file is never replaced: if rows for an archived
+     * month come back and are archived again, they go to expenses_p2021_03-2.csv.gz and
+     * so on. A partition is locked against writes while it is archived, and it is only
+     * dropped once its file is on disk, so a failure leaves the rows in the database.
+     *
+     * @return the number of expenses archived.
+     */
+    public long archiveMonthsBefore(YearMonth cutoff, Path directory) throws SQLException, IOException {
+        Files.createDirectories(directory);
+        Map<YearMonth, String> partitions;
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            partitions = ExpenseSchema.getMonthPartitions(conn.getConnection());
+        }
+        long archived = 0;
+        for (Map.Entry<YearMonth, String> partition : partitions.entrySet()) {
+            if (!partition.getKey().isBefore(cutoff)) {
+                break;
+            }
+            archived += archivePartition(partition.getKey(), partition.getValue(), directory);
+        }
+        return archived;
+    }
+
+    private long archivePartition(YearMonth month, String partition, Path directory) throws SQLException, IOException {
+        Path temp = directory.resolve(partition + ".csv.gz.tmp");
+        Path file = null;
+        boolean committing = false;
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("LOCK TABLE " + partition + " IN SHARE MODE");
+                long rows;
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    GZIPOutputStream out = new GZIPOutputStream(Channels.newOutputStream(channel), COPY_BUFFER_CHARS);
+                    rows = conn.unwrap(PGConnection.class).getCopyAPI()
+                            .copyOut(String.format(ARCHIVE_COPY_SQL, partition), out);
+                    out.finish();
+                    out.flush();
+                    channel.force(true);
+                }
+                file = moveToNewArchiveFile(temp, directory, partition);
+
+                stmt.execute("ALTER TABLE expenses DETACH PARTITION " + partition);
+                stmt.execute("DROP TABLE " + partition);
+                // Detaching fires no delete triggers, so the month's rollups are removed here
+                PreparedStatement pstmt = pooled.prepare(DELETE_ROLLUP_RANGE_SQL);
+                pstmt.setDate(1, Date.valueOf(month.atDay(1)));
+                pstmt.setDate(2, Date.valueOf(month.plusMonths(1).atDay(1)));
+                pstmt.executeUpdate();
+                // Nor change log entries: clients following the log reload instead
+                pooled.prepare(RESET_CHANGES_SQL).executeQuery().close();
+                committing = true;
+                conn.commit();
+                return rows;
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                Files.deleteIfExists(temp);
+                // The rows stay in the database, so their file would only duplicate them.
+                // If the commit itself failed it may still have gone through: keep the file
+                if (file != null && !committing) {
+                    Files.deleteIfExists(file);
+                }
+                throw e;
+            }
+        } finally {
+            ARCHIVE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Moves the archive file into place under the first name not taken yet, so an earlier
+     * archive of the same month is never overwritten.
+     */
+    private static Path moveToNewArchiveFile(Path temp, Path directory, String partition) throws IOException {
+        for (int number = 1; ; number++) {
+            Path file = directory.resolve(number == 1 ? partition + ".csv.gz" : partition + "-" + number + ".csv.gz");
+            if (Files.exists(file)) {
+                continue;
+            }
+            try {
+                // Without REPLACE_EXISTING the move fails rather than overwrite a file created meanwhile
+                return Files.move(temp, file);
+            } catch (FileAlreadyExistsException e) {
+                // Taken since the check; try the next name
+            }
+        }
     }
 
-   
+
     public CategorizedExpense addExpense(CategorizedExpense expense) throws SQLException {
-        String sql = "INSERT INTO expenses (amount, category, description, date) VALUES (?, ?, ?, ?) RETURNING id";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(INSERT_SQL);
 
-            pstmt.setDouble(1, expense.getAmount());
+            pstmt.setBigDecimal(1, Money.toBigDecimal(expense.getAmountCents()));
             pstmt.setString(2, expense.getCategory());
             pstmt.setString(3, expense.getDescription());
             pstmt.setDate(4, Date.valueOf(expense.getDate()));
@@ -29,43 +313,883 @@ class ExpenseTrackerDAO {
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
                     expense.setId(rs.getInt("id"));
+                    expense.setVersion(rs.getInt("version"));
                 }
             }
+        } finally {
+            ADD_TIMER.recordSince(start);
         }
         return expense;
     }
 
-    
-    public List<CategorizedExpense> getExpenses() throws SQLException {
-        List<CategorizedExpense> expenses = new ArrayList<>();
-        String sql = "SELECT id, amount, category, description, date FROM expenses ORDER BY id DESC";
 
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+    /**
+     * Returns one page of expenses in newest-first order using keyset pagination.
+     * Pass 0 as afterId for the first page, then the id of the last expense of the
+     * previous page. Unlike OFFSET, each page costs the same no matter how deep it is.
+     */
+    public List<CategorizedExpense> getExpensesPage(int afterId, int limit) throws SQLException {
+        List<CategorizedExpense> page = new ArrayList<>(limit);
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(SELECT_PAGE_SQL);
+            pstmt.setInt(1, afterId <= 0 ? Integer.MAX_VALUE : afterId);
+            pstmt.setInt(2, limit);
+            pstmt.setFetchSize(limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                mapAll(rs, page);
+            }
+        } finally {
+            PAGE_TIMER.recordSince(start);
+        }
+        return page;
+    }
 
-            while (rs.next()) {
-                expenses.add(new CategorizedExpense(
-                        rs.getInt("id"),
-                        rs.getDouble("amount"),
-                        rs.getString("category"),
-                        rs.getString("description"),
-                        rs.getDate("date").toLocalDate()
-                ));
+    /**
+     * Returns up to limit expenses with an id above afterId, oldest first. Used to catch
+     * up with rows added since a known id without reading the whole table.
+     */
+    public List<CategorizedExpense> getExpensesAfter(int afterId, int limit) throws SQLException {
+        List<CategorizedExpense> rows = new ArrayList<>(limit);
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(SELECT_NEWER_SQL);
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, limit);
+            pstmt.setFetchSize(limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                mapAll(rs, rows);
             }
+        } finally {
+            NEWER_TIMER.recordSince(start);
         }
-        return expenses;
+        return rows;
     }
 
-   
+    /**
+     * Returns every expense id in ascending order, for reconciling a local copy.
+     */
+    public int[] getExpenseIds() throws SQLException {
+        int[] ids = new int[1024];
+        int count = 0;
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            // Outside autocommit the driver streams the ids in fetch-size chunks
+            pooled.getConnection().setAutoCommit(false);
+            try (PreparedStatement pstmt = pooled.getConnection().prepareStatement(SELECT_IDS_SQL)) {
+                pstmt.setFetchSize(CURSOR_FETCH_SIZE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = rs.getInt(1);
+                    }
+                }
+            }
+        } finally {
+            IDS_TIMER.recordSince(start);
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Opens a cursor over all expenses in newest-first order. Rows are fetched from the
+     * server in chunks, so memory use stays flat however large the table is.
+     * The cursor must be closed to release its connection.
+     */
+    public ExpenseCursor openCursor() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return new ExpenseCursor(getConnection(), SELECT_ALL_SQL, CURSOR_FETCH_SIZE,
+                    pstmt -> { }, ExpenseTrackerDAO::mapExpense);
+        } finally {
+            CURSOR_TIMER.recordSince(start);
+        }
+    }
+
+    /** Maps every row of the result set into the list. */
+    private static void mapAll(ResultSet rs, List<CategorizedExpense> into) throws SQLException {
+        long start = System.nanoTime();
+        while (rs.next()) {
+            into.add(mapExpense(rs));
+        }
+        MAP_TIMER.recordSince(start);
+    }
+
+    /** Maps the columns id, amount, category, description, date and version from the given one on. */
+    /**
+     * Maps the columns id, amount, category, description, date and version from column on.
+     * The description column allows NULL, for rows not written by this application; it
+     * becomes "", so the storage, snapshot and journal formats never see a null.
+     */
+    private static CategorizedExpense mapExpense(ResultSet rs, int column) throws SQLException {
+        String description = rs.getString(column + 3);
+        CategorizedExpense expense = CategorizedExpense.ofCents(
+                rs.getInt(column),
+                Money.toCents(rs.getBigDecimal(column + 1)),
+                rs.getString(column + 2),
+                description != null ? description : "",
+                rs.getDate(column + 4).toLocalDate()
+        );
+        expense.setVersion(rs.getInt(column + 5));
+        return expense;
+    }
+
+    private static CategorizedExpense mapExpense(ResultSet rs) throws SQLException {
+        ROWS_MAPPED.increment();
+        return mapExpense(rs, 1);
+    }
+
+
     public boolean deleteExpense(int id) throws SQLException {
-        String sql = "DELETE FROM expenses WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(DELETE_SQL);
 
             pstmt.setInt(1, id);
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
+        } finally {
+            DELETE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Deletes the rows with one set-based statement that moves them to the tombstone
+     * table, and purges tombstones older than a week, in one transaction.
+     */
+    public int deleteExpenses(Collection<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Integer[] versions = new Integer[ids.size()];
+        Arrays.fill(versions, 0);
+        return deleteVersions(ids.toArray(new Integer[0]), versions, null).size();
+    }
+
+    /**
+     * Deletes like deleteExpenses(), with the version of each expense in the statement's
+     * condition, and looks up which of the rows left in place still exist in the same
+     * transaction. A row another client updated in the meantime no longer matches, even
+     * if the update commits while this delete waits for its row lock.
+     */
+    public DeleteResult deleteExpensesIfUnchanged(Collection<CategorizedExpense> expenses) throws SQLException {
+        DeleteResult result = new DeleteResult();
+        if (expenses.isEmpty()) {
+            return result;
+        }
+        Integer[] ids = new Integer[expenses.size()];
+        Integer[] versions = new Integer[expenses.size()];
+        int i = 0;
+        for (CategorizedExpense expense : expenses) {
+            ids[i] = expense.getId();
+            versions[i++] = expense.getVersion();
+        }
+        Set<Integer> remaining = new HashSet<>();
+        Set<Integer> deleted = deleteVersions(ids, versions, remaining);
+        for (CategorizedExpense expense : expenses) {
+            if (deleted.contains(expense.getId())) {
+                result.addDeleted(expense);
+            } else if (remaining.contains(expense.getId())) {
+                result.addChanged(expense);
+            } else {
+                result.addMissing(expense);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs DELETE_MANY_SQL in a transaction and returns the ids it deleted. If remaining is
+     * not null, the ids that still exist afterwards are added to it.
+     */
+    private Set<Integer> deleteVersions(Integer[] ids, Integer[] versions, Set<Integer> remaining)
+            throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                // Purged first: the delete takes the change log lock, which other writers
+                // of tombstones may be waiting for
+                pooled.prepare(PURGE_TOMBSTONES_SQL).executeUpdate();
+                PreparedStatement pstmt = pooled.prepare(DELETE_MANY_SQL);
+                pstmt.setArray(1, conn.createArrayOf("integer", ids));
+                pstmt.setArray(2, conn.createArrayOf("integer", versions));
+                Set<Integer> deleted = new HashSet<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        deleted.add(rs.getInt(1));
+                    }
+                }
+                if (remaining != null && deleted.size() < ids.length) {
+                    PreparedStatement select = pooled.prepare(SELECT_EXISTING_IDS_SQL);
+                    select.setArray(1, conn.createArrayOf("integer", ids));
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            remaining.add(rs.getInt(1));
+                        }
+                    }
+                }
+                conn.commit();
+                return deleted;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } finally {
+            DELETE_MANY_TIMER.recordSince(start);
+        }
+    }
+
+    /** Moves the rows back from the tombstone table, keeping their ids. */
+    public int restoreExpenses(Collection<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            PreparedStatement pstmt = pooled.prepare(RESTORE_SQL);
+            pstmt.setArray(1, pooled.getConnection().createArrayOf("integer", ids.toArray()));
+            return pstmt.executeUpdate();
+        } finally {
+            RESTORE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the row count and highest id of the expenses table. Comparing this with
+     * ExpenseStore.getDataVersion() tells whether a full reload is needed.
+     */
+    public DataVersion getDataVersion() throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection();
+             ResultSet rs = conn.prepare(VERSION_SQL).executeQuery()) {
+            rs.next();
+            return new DataVersion(rs.getLong(1), rs.getInt(2));
+        } finally {
+            VERSION_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the seq of the newest settled change log entry: no entry below it can still
+     * appear. Newer entries become settled once the transactions running when they were
+     * logged have finished.
+     */
+    public long getChangePosition() throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection();
+             ResultSet rs = conn.prepare(CHANGE_POSITION_SQL).executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            CHANGE_POSITION_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns up to limit change log entries from position on, oldest first. The entry at
+     * the position itself comes first unless it has been purged, which is how
+     * ExpenseChangeFeed tells that it may have missed entries. Entries not settled yet are
+     * left for a later call.
+     */
+    public List<ExpenseChangeFeed.Change> getChangesFrom(long position, int limit) throws SQLException {
+        List<ExpenseChangeFeed.Change> changes = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(SELECT_CHANGES_SQL);
+            pstmt.setLong(1, position);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long sequence = rs.getLong(1);
+                    switch (rs.getString(2)) {
+                        case "I":
+                            changes.add(new ExpenseChangeFeed.Change(sequence, ExpenseChangeFeed.Kind.INSERT,
+                                    mapExpense(rs, 3)));
+                            break;
+                        case "D":
+                            changes.add(new ExpenseChangeFeed.Change(sequence, ExpenseChangeFeed.Kind.DELETE,
+                                    mapExpense(rs, 3)));
+                            break;
+                        default:
+                            changes.add(new ExpenseChangeFeed.Change(sequence, ExpenseChangeFeed.Kind.RESET, null));
+                    }
+                }
+            }
+        } finally {
+            CHANGES_TIMER.recordSince(start);
+        }
+        return changes;
+    }
+
+    /**
+     * Returns whether the change log has entries after position, settled or not. After
+     * reading up to position, ExpenseChangeFeed uses it to tell it should read again.
+     */
+    public boolean hasChangesAfter(long position) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(CHANGES_AFTER_SQL);
+            pstmt.setLong(1, position);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getBoolean(1);
+            }
+        }
+    }
+
+    /** Deletes change log entries older than a day, keeping the newest settled one. */
+    public int purgeChanges() throws SQLException {
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            return conn.prepare(PURGE_CHANGES_SQL).executeUpdate();
+        }
+    }
+
+    /**
+     * Opens a connection outside the pool that LISTENs for the notification sent with every
+     * change log entry. The caller polls it with PGConnection.getNotifications() and
+     * closes it.
+     */
+    public Connection listenForChanges() throws SQLException {
+        if (!migrated) {
+            migrate();
+        }
+        Connection conn = pool.openUnpooled();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("LISTEN " + ExpenseSchema.CHANGES_CHANNEL);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    /**
+     * Returns the sum of all expense amounts in cents, computed by the database.
+     */
+    public long getTotalCents() throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection();
+             ResultSet rs = conn.prepare(TOTAL_SQL).executeQuery()) {
+            rs.next();
+            return Money.toCents(rs.getBigDecimal(1));
+        } finally {
+            TOTAL_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Computes the summary statistics of all expenses in the database.
+     */
+    public ExpenseStatistics getStatistics() throws SQLException {
+        return getStatistics(MIN_DATE, MAX_DATE);
+    }
+
+    /**
+     * Computes the summary statistics of the expenses dated between from and to (inclusive)
+     * in the database. Only one row per category per day is transferred, read either from
+     * the rollup table or from a GROUP BY over the expenses table.
+     */
+    public ExpenseStatistics getStatistics(LocalDate from, LocalDate to) throws SQLException {
+        boolean rollups = useRollups;
+        ExpenseStatistics statistics = new ExpenseStatistics();
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(rollups ? ROLLUP_STATS_SQL : GROUPED_STATS_SQL);
+            pstmt.setDate(1, Date.valueOf(from));
+            pstmt.setDate(2, Date.valueOf(to));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    statistics.acceptGroup(rs.getString(1), rs.getDate(2).toLocalDate(),
+                            rs.getLong(3), Money.toCents(rs.getBigDecimal(4)),
+                            Money.toCents(rs.getBigDecimal(5)), Money.toCents(rs.getBigDecimal(6)));
+                }
+            }
+        } finally {
+            STATISTICS_TIMER.recordSince(start);
+        }
+        return statistics;
+    }
+
+    /**
+     * Chooses whether getStatistics() reads the rollup table, which the schema keeps up
+     * to date in any case, or aggregates the expenses table directly.
+     */
+    public void setUseRollups(boolean useRollups) {
+        this.useRollups = useRollups;
+    }
+
+    /**
+     * Returns the count and sum per category, from the rollup table when it is enabled.
+     */
+    public Map<String, CategoryTotal> getCategoryTotals() throws SQLException {
+        boolean rollups = useRollups;
+        Map<String, CategoryTotal> totals = new HashMap<>();
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection();
+             ResultSet rs = conn.prepare(rollups ? ROLLUP_CATEGORY_TOTALS_SQL : CATEGORY_TOTALS_SQL).executeQuery()) {
+            while (rs.next()) {
+                totals.put(rs.getString(1), new CategoryTotal(rs.getLong(2), Money.toCents(rs.getBigDecimal(3))));
+            }
+        } finally {
+            CATEGORY_TOTALS_TIMER.recordSince(start);
+        }
+        return totals;
+    }
+
+    public List<String> getCustomCategories() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (ConnectionPool.PooledConnection conn = getConnection();
+             ResultSet rs = conn.prepare(SELECT_CATEGORIES_SQL).executeQuery()) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+
+    public void addCategory(String name) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(INSERT_CATEGORY_SQL);
+            pstmt.setString(1, name);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns one page of the expenses matching the filter, newest first, using the same
+     * keyset pagination as getExpensesPage(). The search indexes come with the schema
+     * (see ExpenseSchema).
+     */
+    public List<CategorizedExpense> findExpenses(ExpenseFilter filter, int afterId, int limit)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, amount, category, description, date, version FROM expenses WHERE id < ?");
+        appendFilterConditions(sql, filter, "date");
+        sql.append(" ORDER BY id DESC LIMIT ?");
+
+        List<CategorizedExpense> page = new ArrayList<>(limit);
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(sql.toString());
+            pstmt.setInt(1, afterId <= 0 ? Integer.MAX_VALUE : afterId);
+            int index = bindFilter(pstmt, filter, 2);
+            pstmt.setInt(index, limit);
+            pstmt.setFetchSize(limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                mapAll(rs, page);
+            }
+        } finally {
+            FIND_TIMER.recordSince(start);
+        }
+        return page;
+    }
+
+    /**
+     * Computes the summary statistics of the expenses matching the filter. Filters on
+     * category and dates only are answered from the rollup table when it is enabled.
+     */
+    public ExpenseStatistics getStatistics(ExpenseFilter filter) throws SQLException {
+        boolean rollups = useRollups && !filter.hasAmountRange() && filter.getText() == null;
+        StringBuilder sql = new StringBuilder(rollups
+                ? "SELECT category, day, expense_count, total, min_amount, max_amount FROM expense_daily_rollup"
+                        + " WHERE TRUE"
+                : "SELECT category, date, COUNT(*), SUM(amount), MIN(amount), MAX(amount) FROM expenses"
+                        + " WHERE TRUE");
+        appendFilterConditions(sql, filter, rollups ? "day" : "date");
+        if (!rollups) {
+            sql.append(" GROUP BY category, date");
+        }
+
+        ExpenseStatistics statistics = new ExpenseStatistics();
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection conn = getConnection()) {
+            PreparedStatement pstmt = conn.prepare(sql.toString());
+            bindFilter(pstmt, filter, 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    statistics.acceptGroup(rs.getString(1), rs.getDate(2).toLocalDate(),
+                            rs.getLong(3), Money.toCents(rs.getBigDecimal(4)),
+                            Money.toCents(rs.getBigDecimal(5)), Money.toCents(rs.getBigDecimal(6)));
+                }
+            }
+        } finally {
+            FILTERED_STATISTICS_TIMER.recordSince(start);
+        }
+        return statistics;
+    }
+
+    /**
+     * Appends " AND ..." for each condition of the filter. Only placeholders are added,
+     * so the statement text depends on which conditions are set, not on their values,
+     * and the pooled statement cache can reuse it.
+     */
+    private static void appendFilterConditions(StringBuilder sql, ExpenseFilter filter, String dateColumn) {
+        if (filter.getCategory() != null) {
+            sql.append(" AND category = ?");
+        }
+        if (filter.getFrom() != null) {
+            sql.append(" AND ").append(dateColumn).append(" >= ?");
+        }
+        if (filter.getTo() != null) {
+            sql.append(" AND ").append(dateColumn).append(" <= ?");
+        }
+        if (filter.getMinCents() != null) {
+            sql.append(" AND amount >= ?");
+        }
+        if (filter.getMaxCents() != null) {
+            sql.append(" AND amount <= ?");
+        }
+        if (filter.getText() != null) {
+            sql.append(" AND description ILIKE ?");
+        }
+    }
+
+    /**
+     * Binds the values of the conditions added by appendFilterConditions(), starting at
+     * the given parameter index, and returns the next free index.
+     */
+    private static int bindFilter(PreparedStatement pstmt, ExpenseFilter filter, int index) throws SQLException {
+        if (filter.getCategory() != null) {
+            pstmt.setString(index++, filter.getCategory());
+        }
+        if (filter.getFrom() != null) {
+            pstmt.setDate(index++, Date.valueOf(filter.getFrom()));
+        }
+        if (filter.getTo() != null) {
+            pstmt.setDate(index++, Date.valueOf(filter.getTo()));
+        }
+        if (filter.getMinCents() != null) {
+            pstmt.setBigDecimal(index++, Money.toBigDecimal(filter.getMinCents()));
+        }
+        if (filter.getMaxCents() != null) {
+            pstmt.setBigDecimal(index++, Money.toBigDecimal(filter.getMaxCents()));
+        }
+        if (filter.getText() != null) {
+            pstmt.setString(index++, "%" + escapeLike(filter.getText()) + "%");
+        }
+        return index;
+    }
+
+    private static String escapeLike(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // Backslash is PostgreSQL's default LIKE escape character
+            if (c == '%' || c == '_' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Inserts many expenses in one transaction using JDBC batching.
+     * Generated ids are written back into the inserted objects. Rows that fail
+     * validation or are rejected by the database are reported in the result
+     * instead of aborting the rest of the batch.
+     */
+    public BatchInsertResult addExpenses(Collection<CategorizedExpense> expenses) throws SQLException {
+        BatchInsertResult result = new BatchInsertResult();
+        List<IndexedExpense> valid = validateAll(expenses, result);
+        if (valid.isEmpty()) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                insertBatched(conn, valid, result);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                for (IndexedExpense row : valid) {
+                    row.expense.setId(0);
+                }
+                throw e;
+            }
+        } finally {
+            BATCH_TIMER.recordSince(start);
+        }
+        return result;
+    }
+
+    /**
+     * Inserts expenses read from a local write-behind journal and records the sequence of
+     * the last one as the journal's offset, in the same transaction. Records at or below
+     * the stored offset are already in the database and are skipped, so sending a batch
+     * again after a crash never inserts it twice.
+     *
+     * @return the result for the records that were not applied before; failure indexes
+     *         refer to positions in the records list.
+     */
+    public BatchInsertResult addJournaledExpenses(String journalId, List<ExpenseJournal.Record> records)
+            throws SQLException {
+        BatchInsertResult result = new BatchInsertResult();
+        if (records.isEmpty()) {
+            return result;
+        }
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            List<IndexedExpense> valid = new ArrayList<>(records.size());
+            try {
+                long applied = 0;
+                PreparedStatement select = pooled.prepare(SELECT_JOURNAL_OFFSET_SQL);
+                select.setString(1, journalId);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        applied = rs.getLong(1);
+                    }
+                }
+                for (int i = 0; i < records.size(); i++) {
+                    ExpenseJournal.Record record = records.get(i);
+                    if (record.sequence <= applied) {
+                        continue;
+                    }
+                    try {
+                        ExpenseValidator.validate(record.expense);
+                        valid.add(new IndexedExpense(i, record.expense));
+                    } catch (InvalidExpenseException e) {
+                        result.addFailure(i, record.expense, e);
+                    }
+                }
+                insertBatched(conn, valid, result);
+
+                PreparedStatement upsert = pooled.prepare(UPSERT_JOURNAL_OFFSET_SQL);
+                upsert.setString(1, journalId);
+                upsert.setLong(2, records.get(records.size() - 1).sequence);
+                upsert.executeUpdate();
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                for (IndexedExpense row : valid) {
+                    row.expense.setId(0);
+                }
+                throw e;
+            }
+        } finally {
+            JOURNAL_TIMER.recordSince(start);
+        }
+        return result;
+    }
+
+    /**
+     * Inserts the rows in JDBC batches on a connection that is already in a transaction.
+     */
+    private void insertBatched(Connection conn, List<IndexedExpense> valid, BatchInsertResult result)
+            throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(BATCH_INSERT_SQL, new String[]{"id"})) {
+            for (int from = 0; from < valid.size(); from += BATCH_SIZE) {
+                List<IndexedExpense> chunk = valid.subList(from, Math.min(from + BATCH_SIZE, valid.size()));
+                insertChunk(conn, pstmt, chunk, result);
+            }
+        }
+    }
+
+    /**
+     * Inserts many expenses through PostgreSQL's COPY FROM STDIN, which is the fastest
+     * way to load large imports. Ids are reserved from the sequence up front so they can
+     * be filled back. COPY is all-or-nothing, so if the database rejects any row the
+     * whole load is retried through addExpenses() to isolate the failing rows.
+     */
+    public BatchInsertResult addExpensesWithCopy(Collection<CategorizedExpense> expenses) throws SQLException {
+        BatchInsertResult result = new BatchInsertResult();
+        List<IndexedExpense> valid = validateAll(expenses, result);
+        if (valid.isEmpty()) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = getConnection()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                reserveIds(pooled, valid);
+                copyRows(conn, valid);
+                conn.commit();
+                for (IndexedExpense row : valid) {
+                    result.addInserted(row.expense);
+                }
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                for (IndexedExpense row : valid) {
+                    row.expense.setId(0);
+                }
+            }
+        } finally {
+            COPY_TIMER.recordSince(start);
+        }
+
+        // Fall back to batched inserts, which report the offending rows individually
+        List<CategorizedExpense> retry = new ArrayList<>(valid.size());
+        for (IndexedExpense row : valid) {
+            retry.add(row.expense);
+        }
+        BatchInsertResult retried = addExpenses(retry);
+        for (CategorizedExpense expense : retried.getInserted()) {
+            result.addInserted(expense);
+        }
+        for (BatchInsertResult.Failure failure : retried.getFailures()) {
+            result.addFailure(valid.get(failure.getIndex()).index, failure.getExpense(), failure.getCause());
+        }
+        return result;
+    }
+
+    /** Loads import batches with COPY. */
+    public BatchInsertResult importExpenses(Collection<CategorizedExpense> expenses) throws SQLException {
+        return addExpensesWithCopy(expenses);
+    }
+
+    private List<IndexedExpense> validateAll(Collection<CategorizedExpense> expenses, BatchInsertResult result) {
+        List<IndexedExpense> valid = new ArrayList<>(expenses.size());
+        int index = 0;
+        for (CategorizedExpense expense : expenses) {
+            try {
+                ExpenseValidator.validate(expense);
+                valid.add(new IndexedExpense(index, expense));
+            } catch (InvalidExpenseException e) {
+                result.addFailure(index, expense, e);
+            }
+            index++;
+        }
+        return valid;
+    }
+
+    /**
+     * Sends one chunk as a single JDBC batch. If the database rejects it, the chunk is
+     * rolled back to its savepoint and replayed row by row to find the failing rows.
+     */
+    private void insertChunk(Connection conn, PreparedStatement pstmt, List<IndexedExpense> chunk,
+                             BatchInsertResult result) throws SQLException {
+        Savepoint savepoint = conn.setSavepoint();
+        try {
+            for (IndexedExpense row : chunk) {
+                bindInsert(pstmt, row.expense);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                for (IndexedExpense row : chunk) {
+                    if (!keys.next()) {
+                        throw new SQLException("Missing generated id for batched insert");
+                    }
+                    row.expense.setId(keys.getInt(1));
+                }
+            }
+            conn.releaseSavepoint(savepoint);
+            for (IndexedExpense row : chunk) {
+                result.addInserted(row.expense);
+            }
+            return;
+        } catch (SQLException e) {
+            pstmt.clearBatch();
+            conn.rollback(savepoint);
+        }
+
+        for (IndexedExpense row : chunk) {
+            Savepoint rowSavepoint = conn.setSavepoint();
+            try {
+                bindInsert(pstmt, row.expense);
+                pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        row.expense.setId(keys.getInt(1));
+                    }
+                }
+                conn.releaseSavepoint(rowSavepoint);
+                result.addInserted(row.expense);
+            } catch (SQLException e) {
+                conn.rollback(rowSavepoint);
+                row.expense.setId(0);
+                result.addFailure(row.index, row.expense, e);
+            }
+        }
+    }
+
+    private void bindInsert(PreparedStatement pstmt, CategorizedExpense expense) throws SQLException {
+        pstmt.setBigDecimal(1, Money.toBigDecimal(expense.getAmountCents()));
+        pstmt.setString(2, expense.getCategory());
+        pstmt.setString(3, expense.getDescription());
+        pstmt.setDate(4, Date.valueOf(expense.getDate()));
+    }
+
+    private void reserveIds(ConnectionPool.PooledConnection pooled, List<IndexedExpense> rows) throws SQLException {
+        PreparedStatement pstmt = pooled.prepare(RESERVE_IDS_SQL);
+        pstmt.setInt(1, rows.size());
+        try (ResultSet rs = pstmt.executeQuery()) {
+            for (IndexedExpense row : rows) {
+                if (!rs.next()) {
+                    throw new SQLException("Could not reserve expense ids");
+                }
+                row.expense.setId(rs.getInt(1));
+            }
+        }
+    }
+
+    private void copyRows(Connection conn, List<IndexedExpense> rows) throws SQLException {
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_CHARS + 256);
+            for (IndexedExpense row : rows) {
+                CategorizedExpense expense = row.expense;
+                buffer.append(expense.getId()).append(',');
+                ExpenseFormat.appendCents(buffer, expense.getAmountCents()).append(',');
+                CsvFormat.appendField(buffer, expense.getCategory());
+                buffer.append(',');
+                CsvFormat.appendField(buffer, expense.getDescription());
+                buffer.append(',');
+                ExpenseFormat.appendDate(buffer, expense.getDate()).append('\n');
+                if (buffer.length() >= COPY_BUFFER_CHARS) {
+                    writeCopyBuffer(copyIn, buffer);
+                }
+            }
+            writeCopyBuffer(copyIn, buffer);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeCopyBuffer(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Returns the current connection pool statistics (active, idle, wait times).
+     */
+    public ConnectionPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /**
+     * Closes all pooled connections. The DAO cannot be used afterwards.
+     */
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * An expense paired with its position in the caller's collection.
+     */
+    private static class IndexedExpense {
+        final int index;
+        final CategorizedExpense expense;
+
+        IndexedExpense(int index, CategorizedExpense expense) {
+            this.index = index;
+            this.expense = expense;
         }
     }
 }
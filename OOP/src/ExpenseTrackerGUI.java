@@ -1,59 +1,138 @@
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
+import java.time.YearMonth;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  * Main class for the Expense Tracker application.
  * This class now delegates the file saving task to a separate class.
+ * All database work runs in the background through ExpenseService; the GUI is
+ * only updated on the Event Dispatch Thread when a call completes.
  */
 public class ExpenseTrackerGUI extends JFrame {
 
-    // Database access object
-    private ExpenseTrackerDAO expenseDao;
-    private List<CategorizedExpense> expenses;
+    // Background threads used for database calls
+    private static final int DATABASE_THREADS = 2;
+    // -Dexpenses.backend=embedded works from the local files only, syncing when the database is up
+    private static final boolean EMBEDDED_BACKEND = "embedded".equals(System.getProperty("expenses.backend"));
+    // -Dexpenses.snapshot=false turns off saving the loaded rows on exit and showing them on start
+    private static final boolean USE_SNAPSHOT = Boolean.parseBoolean(System.getProperty("expenses.snapshot", "true"));
+    // Above this many rows added since the snapshot, a fresh load is cheaper than catching up
+    private static final int MAX_CATCH_UP_ROWS = 50_000;
+    // Seconds between syncs of the embedded storage with the database; 0 turns syncing off
+    private static final int SYNC_PERIOD_SECONDS = Integer.getInteger("expenses.syncSeconds", 30);
+    // Seconds between metric dumps to standard error; 0 (the default) only publishes them over JMX
+    private static final int METRICS_LOG_SECONDS = Integer.getInteger("expenses.metricsSeconds", 0);
+    // An Event Dispatch Thread busy for longer than this is reported with its stack; 0 turns it off
+    private static final int EDT_STALL_MILLIS = Integer.getInteger("expenses.stallMillis", 500);
+    // Bulk deletes that "Undo Delete" can still take back, newest first
+    private static final int MAX_UNDO_DELETES = 10;
+    // Months of expenses kept in the database; at startup older months are moved to compressed
+    // files in ~/.expense-tracker/archive (or -Dexpenses.archiveDir). 0 keeps everything
+    private static final int ARCHIVE_AFTER_MONTHS = Integer.getInteger("expenses.archiveMonths", 0);
+    // -Dexpenses.changeFeed=false turns off following other clients' changes as they happen
+    private static final boolean USE_CHANGE_FEED = Boolean.parseBoolean(System.getProperty("expenses.changeFeed", "true"));
+
+    // Database access, run off the Event Dispatch Thread
+    private ExpenseService expenseService;
+    // The PostgreSQL backend; null when the JDBC driver is missing
+    private ExpenseTrackerDAO database;
+    // Local backend used offline; null while the database is in use
+    private EmbeddedExpenseStorage embeddedStorage;
+    private ExpenseSync expenseSync;
+    private WriteBehindWriter writeBehindWriter;
+    // Applies every client's inserts and deletes, this one's included; null without the database
+    private ExpenseChangeFeed changeFeed;
+    // The change log entry the loaded data is up to date with; -1 while a load is pending
+    private long changePosition = -1;
+    // -Dexpenses.store=columnar keeps the loaded expenses in primitive columns for very large histories
+    private static final boolean COLUMNAR_STORE = "columnar".equals(System.getProperty("expenses.store"));
+
+    // In-memory copy of the expenses, updated incrementally after each change.
+    private final ExpenseStore expenseStore = COLUMNAR_STORE
+            ? new ExpenseStore(new ColumnarExpenseList())
+            : new ExpenseStore();
+    // Secondary indexes over the loaded rows, used to filter without a database round trip.
+    // Not used with the columnar store, which they would keep fully materialised.
+    private final ExpenseIndex expenseIndex = COLUMNAR_STORE ? null : new ExpenseIndex(expenseStore);
+    // Rows matching the active filter, shown instead of expenseStore while a filter is on
+    private final ExpenseStore filteredStore = new ExpenseStore();
+    private ExpenseFilter activeFilter;
+    // Built-in and user-defined categories, with running totals for the whole table
+    private final CategoryManager categoryManager = new CategoryManager();
+    // Expenses stored by the write-behind flusher, shown one batch per frame
+    private final EdtBatcher<CategorizedExpense> storedExpenses = new EdtBatcher<>(this::showStoredExpenses);
+    // The expenses of each recent delete, newest first, kept as tombstones by the storage
+    private final Deque<List<CategorizedExpense>> deleteHistory = new ArrayDeque<>();
+    // Number of the latest month total requested; older answers are dropped
+    private int monthTotalRequest;
 
     // GUI Components
     private ExpenseInputPanel inputPanel;
+    private ExpenseFilterPanel filterPanel;
+    private ExpenseTableModel tableModel;
     private ExpenseTablePanel tablePanel;
     private SummaryPanel summaryPanel;
     private JLabel messageLabel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
+    private JButton undoDeleteButton;
 
     // A new instance of the handler class for file saving
     private SummaryFileHandler fileHandler;
 
     /**
      * Constructor for the ExpenseTrackerGUI.
-     * Initializes the GUI and connects to the database.
+     * Initializes the GUI and starts loading the expenses in the background.
      */
     public ExpenseTrackerGUI() {
         super("Expense Tracker");
 
-        // Initialize DAO and load initial data
+        // Initialize DAO
+        String startupNotice = null;
         try {
             // Ensure the JDBC driver is available
             Class.forName("org.postgresql.Driver");
-            expenseDao = new ExpenseTrackerDAO();
-            loadExpensesFromDatabase();
+            database = new ExpenseTrackerDAO();
         } catch (ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(this,
-                    "PostgreSQL JDBC Driver not found. Please add the JAR to your classpath.",
-                    "Driver Error", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this,
-                    "Database connection error: " + e.getMessage(),
-                    "Database Error", JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+            startupNotice = "PostgreSQL JDBC Driver not found; working offline.";
+        }
+        if (EMBEDDED_BACKEND || database == null) {
+            try {
+                expenseService = new ExpenseService(openEmbeddedStorage(), DATABASE_THREADS);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this,
+                        "No database driver and the local expense storage could not be opened: " + e.getMessage(),
+                        "Storage Error", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+            }
+        } else {
+            expenseService = new ExpenseService(database, DATABASE_THREADS);
+            if (Boolean.getBoolean("expenses.writeBehind")) {
+                enableWriteBehind();
+            }
         }
 
         // Initialize GUI components
-        CategoryManager categoryManager = new CategoryManager();
         fileHandler = new SummaryFileHandler();
 
         setSize(800, 600);
@@ -62,18 +141,36 @@ public class ExpenseTrackerGUI extends JFrame {
         setLayout(new BorderLayout(10, 10));
 
         inputPanel = new ExpenseInputPanel(categoryManager.getAllCategories().toArray(new String[0]));
-        tablePanel = new ExpenseTablePanel();
+        filterPanel = new ExpenseFilterPanel(categoryManager.getAllCategories().toArray(new String[0]));
+        tableModel = new ExpenseTableModel(expenseStore, expenseService);
+        tableModel.setPageLoadListener(this::pageLoadFailed);
+        tablePanel = new ExpenseTablePanel(tableModel);
         summaryPanel = new SummaryPanel();
 
-        messageLabel = new JLabel("Welcome to Expense Tracker!");
+        messageLabel = new JLabel("Loading expenses...");
         messageLabel.setForeground(Color.BLACK);
         messageLabel.setHorizontalAlignment(SwingConstants.CENTER);
 
+        progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(false);
+        cancelButton = new JButton("Cancel");
+        cancelButton.setVisible(false);
+
+        JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        progressPanel.add(progressBar);
+        progressPanel.add(cancelButton);
+
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(messageLabel, BorderLayout.CENTER);
+        statusPanel.add(progressPanel, BorderLayout.EAST);
+
         JPanel topSectionPanel = new JPanel(new BorderLayout());
         topSectionPanel.add(inputPanel, BorderLayout.CENTER);
-        topSectionPanel.add(messageLabel, BorderLayout.SOUTH);
+        topSectionPanel.add(statusPanel, BorderLayout.SOUTH);
 
         JPanel middleSectionPanel = new JPanel(new BorderLayout());
+        middleSectionPanel.add(filterPanel, BorderLayout.NORTH);
         middleSectionPanel.add(tablePanel, BorderLayout.CENTER);
 
         JPanel bottomSectionPanel = new JPanel(new BorderLayout());
@@ -81,13 +178,20 @@ public class ExpenseTrackerGUI extends JFrame {
 
         JPanel globalButtonsPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
         JButton globalShowSummaryButton = new JButton("Show Summary");
-        JButton globalDeleteSelectedButton = new JButton("Delete Selected Expense");
+        JButton globalDeleteSelectedButton = new JButton("Delete Selected");
+        undoDeleteButton = new JButton("Undo Delete");
+        undoDeleteButton.setEnabled(false);
         JButton globalSaveSummaryButton = new JButton("Save Summary");
+        JButton globalRefreshButton = new JButton("Refresh");
+        JButton globalImportButton = new JButton("Import...");
 
         globalButtonsPanel.add(globalShowSummaryButton);
         globalButtonsPanel.add(globalDeleteSelectedButton);
+        globalButtonsPanel.add(undoDeleteButton);
         globalButtonsPanel.add(globalSaveSummaryButton);
-        
+        globalButtonsPanel.add(globalRefreshButton);
+        globalButtonsPanel.add(globalImportButton);
+
         bottomSectionPanel.add(globalButtonsPanel, BorderLayout.SOUTH);
 
         add(topSectionPanel, BorderLayout.NORTH);
@@ -97,190 +201,944 @@ public class ExpenseTrackerGUI extends JFrame {
         // Add action listeners
         inputPanel.addAddExpenseListener(e -> addExpenseAction());
         inputPanel.addClearFieldsListener(e -> inputPanel.clearFields());
+        inputPanel.addNewCategoryListener(e -> addCategoryAction());
+        filterPanel.addApplyFilterListener(e -> applyFilterAction());
+        filterPanel.addClearFilterListener(e -> {
+            filterPanel.clearFields();
+            clearFilter();
+        });
         globalShowSummaryButton.addActionListener(e -> displaySummaryReport());
-        globalDeleteSelectedButton.addActionListener(e -> deleteSelectedExpense());
-        
-        // This is the new, cleaner action listener using the separate handler class
-        globalSaveSummaryButton.addActionListener(e -> {
-            String report = generateSummaryReport();
-            boolean success = fileHandler.saveSummary(this, report);
-            if (success) {
-                messageLabel.setText("Summary saved successfully!");
-                messageLabel.setForeground(Color.BLUE);
-            } else {
-                messageLabel.setText("Summary not saved. (Operation canceled or an error occurred)");
-                messageLabel.setForeground(Color.ORANGE);
+        globalDeleteSelectedButton.addActionListener(e -> deleteSelectedExpenses());
+        undoDeleteButton.addActionListener(e -> undoDeleteAction());
+        globalRefreshButton.addActionListener(e -> refreshExpenses());
+        globalImportButton.addActionListener(e -> importAction());
+        cancelButton.addActionListener(e -> expenseService.cancelAll());
+
+        // Show a busy indicator while database calls are running
+        expenseService.setProgressListener(pending -> {
+            progressBar.setVisible(pending > 0);
+            cancelButton.setVisible(pending > 0);
+        });
+
+        // Release pooled database connections when the window is closed
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeStorage();
             }
         });
 
-        // Initial UI update
-        updateExpenseTable();
-        updateTotalExpensesLabel();
+        // This is the new, cleaner action listener using the separate handler class
+        globalSaveSummaryButton.addActionListener(e -> saveSummaryAction());
 
         setVisible(true);
+
+        loadCustomCategories();
+
+        // Initial load, shown when it arrives
+        if (startupNotice != null) {
+            loadExpensesFromDatabase(true, startupNotice, Color.ORANGE);
+        } else if (USE_SNAPSHOT && embeddedStorage == null) {
+            loadFromSnapshot();
+        } else {
+            loadExpensesFromDatabase(true);
+        }
+        if (ARCHIVE_AFTER_MONTHS > 0 && database != null && embeddedStorage == null) {
+            archiveOldMonths();
+        }
+        if (USE_CHANGE_FEED && database != null && embeddedStorage == null) {
+            startChangeFeed();
+        }
     }
 
     /**
-     * Loads all expenses from the database and updates the local list.
+     * Follows the database's change log. Its entries are applied from the position the
+     * last load returned (see resumeChangeFeed()), so they start once the initial load is in.
      */
-    private void loadExpensesFromDatabase() throws SQLException {
-        expenses = expenseDao.getExpenses();
+    private void startChangeFeed() {
+        changeFeed = new ExpenseChangeFeed(database, new ExpenseChangeFeed.Listener() {
+            @Override
+            public void changesArrived(List<ExpenseChangeFeed.Change> changes) {
+                SwingUtilities.invokeLater(() -> applyChanges(changes));
+            }
+
+            @Override
+            public void changesLost() {
+                SwingUtilities.invokeLater(() -> reloadForChangeFeed());
+            }
+        });
+        changeFeed.start();
+    }
+
+    /** Continues the change feed from the position a load returned. */
+    private void resumeChangeFeed(long position) {
+        if (changeFeed != null) {
+            changePosition = position;
+            changeFeed.resumeFrom(position);
+        }
     }
 
     /**
-     * Handles the "Add Expense" button click.
-     * Validates input, adds the expense to the database, and refreshes the UI.
+     * Reloads because the change log cannot say what changed. Entries arriving before the
+     * load is in are ignored; the load includes them.
      */
-    private void addExpenseAction() {
+    private void reloadForChangeFeed() {
+        changePosition = -1;
+        loadExpensesFromDatabase(false, null, null);
+    }
+
+    /**
+     * Applies change log entries in order, skipping those the loaded data already includes.
+     * Consecutive inserts, and consecutive deletes, are applied as one change each.
+     */
+    private void applyChanges(List<ExpenseChangeFeed.Change> changes) {
+        List<CategorizedExpense> run = new ArrayList<>();
+        ExpenseChangeFeed.Kind runKind = null;
+        boolean changed = false;
+        for (ExpenseChangeFeed.Change change : changes) {
+            if (changePosition < 0) {
+                break;
+            }
+            if (change.sequence <= changePosition) {
+                continue;
+            }
+            if (change.kind != runKind && !run.isEmpty()) {
+                applyChangedRows(runKind, run);
+                run.clear();
+                changed = true;
+            }
+            if (change.kind == ExpenseChangeFeed.Kind.RESET) {
+                reloadForChangeFeed();
+                break;
+            }
+            runKind = change.kind;
+            run.add(change.expense);
+            changePosition = change.sequence;
+        }
+        if (!run.isEmpty()) {
+            applyChangedRows(runKind, run);
+            changed = true;
+        }
+        if (changed) {
+            addCategoryChoices();
+            updateTotalExpensesLabel();
+        }
+    }
+
+    private void applyChangedRows(ExpenseChangeFeed.Kind kind, List<CategorizedExpense> rows) {
+        List<CategorizedExpense> matching = activeFilter == null ? null
+                : rows.stream().filter(activeFilter::matches).collect(Collectors.toList());
+        if (kind == ExpenseChangeFeed.Kind.INSERT) {
+            for (CategorizedExpense added : expenseStore.addAll(rows)) {
+                categoryManager.expenseAdded(added);
+            }
+            if (matching != null) {
+                filteredStore.addAll(matching);
+            }
+        } else {
+            for (CategorizedExpense removed : expenseStore.removeAll(rows)) {
+                categoryManager.expenseRemoved(removed);
+            }
+            if (matching != null) {
+                filteredStore.removeAll(matching);
+            }
+        }
+    }
+
+    /**
+     * Moves the months older than -Dexpenses.archiveMonths out of the database in the
+     * background, and reloads if anything was archived.
+     */
+    private void archiveOldMonths() {
+        YearMonth cutoff = YearMonth.now().minusMonths(ARCHIVE_AFTER_MONTHS - 1);
+        Path directory = dataPath("expenses.archiveDir", "archive");
+        ExpenseService.onEdt(expenseService.submit(() -> {
+            try {
+                return database.archiveMonthsBefore(cutoff, directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), (archived, error) -> {
+            if (error != null) {
+                System.err.println("Failed to archive old expenses: " + error.getMessage());
+            } else if (archived > 0) {
+                loadExpensesFromDatabase(false, "Archived " + archived + " expenses from before " + cutoff
+                        + " to " + directory + ".", Color.BLUE);
+            }
+        });
+    }
+
+    /**
+     * Sends new expenses through a local journal that is flushed to the database in
+     * batches (-Dexpenses.writeBehind=true). Expenses left in the journal by a previous
+     * run are stored first.
+     */
+    private void enableWriteBehind() {
+        Path journalFile = dataPath("expenses.journal", "expenses.journal");
         try {
-            double amount = Double.parseDouble(inputPanel.getAmountText());
-            String categoryName = inputPanel.getSelectedCategory();
-            String description = inputPanel.getDescriptionText();
+            writeBehindWriter = new WriteBehindWriter(database, journalFile,
+                    WriteBehindWriter.DEFAULT_MAX_BATCH, WriteBehindWriter.DEFAULT_MAX_DELAY_MILLIS,
+                    new WriteBehindWriter.FlushListener() {
+                        @Override
+                        public void expenseStored(int provisionalId, CategorizedExpense stored) {
+                            storedExpenses.add(stored);
+                        }
 
-            // Create a new CategorizedExpense object
-            CategorizedExpense newExpense = new CategorizedExpense(amount, categoryName, description, LocalDate.now());
+                        @Override
+                        public void expenseRejected(int provisionalId, CategorizedExpense expense, Exception cause) {
+                            SwingUtilities.invokeLater(() -> showDatabaseError(
+                                    "Queued expense \"" + expense.getDescription() + "\" was rejected", cause));
+                        }
+                    });
+            expenseService.setWriteBehind(writeBehindWriter);
+        } catch (IOException e) {
+            DialogHelper.showWarning(this, "Could not open the write-behind journal (" + e.getMessage()
+                    + "). Expenses will be saved directly.", "Journal Error");
+        }
+    }
 
-            // Add the expense to the database and get the ID back
-            expenseDao.addExpense(newExpense);
+    /**
+     * Opens the local storage (-Dexpenses.embeddedDir) and, if the database driver is
+     * there, starts syncing it with the database in the background.
+     */
+    private EmbeddedExpenseStorage openEmbeddedStorage() throws IOException {
+        embeddedStorage = new EmbeddedExpenseStorage(dataPath("expenses.embeddedDir", "embedded"));
+        if (database != null && SYNC_PERIOD_SECONDS > 0) {
+            expenseSync = new ExpenseSync(embeddedStorage, database);
+            expenseSync.start(SYNC_PERIOD_SECONDS, TimeUnit.SECONDS, result -> SwingUtilities.invokeLater(() ->
+                    loadExpensesFromDatabase(false, "Synchronized with the database: " + result + ".",
+                            result.rejected.isEmpty() ? Color.BLUE : Color.ORANGE)));
+        }
+        return embeddedStorage;
+    }
 
-            messageLabel.setText("Expense added successfully!");
-            messageLabel.setForeground(Color.BLUE);
-            inputPanel.clearFields();
-            loadExpensesFromDatabase();
-            updateExpenseTable();
+    /**
+     * Continues with the local storage after the database could not be reached at
+     * startup. Anything already in the write-behind journal stays there and is stored
+     * by its own flusher once the database is back.
+     *
+     * @return false if the local storage cannot be opened either.
+     */
+    private boolean switchToEmbeddedStorage(Throwable cause) {
+        try {
+            expenseService.replaceStorage(openEmbeddedStorage());
+        } catch (IOException e) {
+            return false;
+        }
+        if (changeFeed != null) {
+            changeFeed.close();
+            changeFeed = null;
+        }
+        // From here on the writer is closed by closeStorage(), not by the service
+        expenseService.setWriteBehind(null);
+        loadExpensesFromDatabase(false, "Database not reachable (" + cause.getMessage()
+                + "); working offline. Changes are sent when it is back.", Color.ORANGE);
+        return true;
+    }
+
+    /**
+     * Shows the rows saved when the application was last closed, then fetches only the
+     * rows added since. Falls back to a normal load if there is no usable snapshot, or
+     * if anything but new rows changed in the meantime (see catchUpIsComplete()).
+     */
+    private void loadFromSnapshot() {
+        ExpenseService.onEdt(expenseService.submit(() -> {
+            try {
+                return ExpenseSnapshot.read(snapshotFile());
+            } catch (IOException e) {
+                return null;
+            }
+        }), (snapshot, error) -> {
+            if (snapshot == null) {
+                loadExpensesFromDatabase(true);
+                return;
+            }
+            expenseStore.replaceWithFirstPage(snapshot.getRows(), snapshot.getTableRowCount(),
+                    snapshot.getTableTotalCents());
             updateTotalExpensesLabel();
+            messageLabel.setText("Showing expenses from the last session; checking for newer ones...");
+            messageLabel.setForeground(Color.BLACK);
+
+            DataVersion saved = snapshot.getDataVersion();
+            ExpenseService.onEdt(expenseService.loadNewerThan(saved.getMaxId(), MAX_CATCH_UP_ROWS), (newer, catchUpError) -> {
+                if (catchUpError != null) {
+                    if (embeddedStorage == null && !(catchUpError instanceof CancellationException)
+                            && switchToEmbeddedStorage(catchUpError)) {
+                        return;
+                    }
+                    showDatabaseError("Failed to load newer expenses", catchUpError);
+                    return;
+                }
+                if (!catchUpAddsUp(snapshot, newer)) {
+                    loadExpensesFromDatabase(false);
+                    return;
+                }
+                if (snapshot.getChangePosition() <= 0 || database == null) {
+                    showCatchUp(newer);
+                    return;
+                }
+                ExpenseService.onEdt(expenseService.submit(() -> onlyNewRowsLogged(snapshot.getChangePosition(),
+                        newer.changePosition, saved.getMaxId())), (complete, checkError) -> {
+                    if (checkError != null || !complete) {
+                        loadExpensesFromDatabase(false);
+                    } else {
+                        showCatchUp(newer);
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * Checks that the table is the saved rows plus the new ones, by row count and by
+     * total. Anything else means rows were deleted, put back under their old ids by an
+     * undo, or the table was replaced, which only a full load can tell apart.
+     */
+    private static boolean catchUpAddsUp(ExpenseSnapshot snapshot, ExpenseService.NewerRows newer) {
+        if (newer.rows.size() > MAX_CATCH_UP_ROWS
+                || snapshot.getTableRowCount() + newer.rows.size() != newer.version.getRowCount()) {
+            return false;
+        }
+        long expectedCents = snapshot.getTableTotalCents();
+        for (CategorizedExpense row : newer.rows) {
+            expectedCents += row.getAmountCents();
+        }
+        long tableCents = 0;
+        for (CategoryTotal total : newer.categoryTotals.values()) {
+            tableCents += total.getSumCents();
+        }
+        return expectedCents == tableCents;
+    }
+
+    /**
+     * Returns true if the change log holds nothing but inserts of rows above maxId between
+     * the snapshot's position and the catch-up's. An undo followed by a delete can leave
+     * the count and total as they were; the log still tells. False too if the entries from
+     * the snapshot's time have been purged, or there are too many to check.
+     */
+    private boolean onlyNewRowsLogged(long snapshotPosition, long currentPosition, int maxId)
+            throws SQLException {
+        List<ExpenseChangeFeed.Change> changes = database.getChangesFrom(snapshotPosition, MAX_CATCH_UP_ROWS + 2);
+        if (changes.isEmpty() || changes.get(0).sequence != snapshotPosition) {
+            return false;
+        }
+        if (changes.size() == MAX_CATCH_UP_ROWS + 2 && changes.get(changes.size() - 1).sequence < currentPosition) {
+            return false;
+        }
+        for (ExpenseChangeFeed.Change change : changes.subList(1, changes.size())) {
+            if (change.sequence > currentPosition) {
+                break;
+            }
+            if (change.kind != ExpenseChangeFeed.Kind.INSERT || change.expense.getId() <= maxId) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void showCatchUp(ExpenseService.NewerRows newer) {
+        expenseStore.addAll(newer.rows);
+        showCategoryTotals(newer.categoryTotals);
+        updateTotalExpensesLabel();
+        resumeChangeFeed(newer.changePosition);
+        messageLabel.setText("Welcome to Expense Tracker! (" + newer.rows.size() + " new since last session)");
+        messageLabel.setForeground(Color.BLACK);
+        if (activeFilter != null) {
+            applyFilter(activeFilter);
+        }
+    }
 
+    private static Path snapshotFile() {
+        return dataPath("expenses.snapshotFile", "expenses.snapshot");
+    }
+
+    /** Stops syncing and closes every backend that was opened. */
+    private void closeStorage() {
+        if (changeFeed != null) {
+            changeFeed.close();
+        }
+        if (expenseSync != null) {
+            expenseSync.close();
+        }
+        if (USE_SNAPSHOT && embeddedStorage == null) {
+            try {
+                // The rows follow the change log only while the feed is running
+                ExpenseSnapshot.write(snapshotFile(), expenseStore, changeFeed != null ? changePosition : -1);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to save the expense snapshot: " + e.getMessage());
+            }
+        }
+        expenseService.close();
+        if (writeBehindWriter != null && embeddedStorage != null) {
+            try {
+                writeBehindWriter.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close the write-behind journal: " + e.getMessage());
+            }
+        }
+        if (database != null && expenseService.getStorage() != database) {
+            database.close();
+        }
+    }
+
+    private static Path dataPath(String property, String defaultName) {
+        return Paths.get(System.getProperty(property,
+                Paths.get(System.getProperty("user.home"), ".expense-tracker", defaultName).toString()));
+    }
+
+    /**
+     * Loads the newest page of expenses and the table totals into the local store.
+     * Older pages are fetched by the table model as the user scrolls.
+     *
+     * @param initialLoad true on startup, where a database error switches to the local storage.
+     */
+    private void loadExpensesFromDatabase(boolean initialLoad) {
+        if (initialLoad) {
+            loadExpensesFromDatabase(true, "Welcome to Expense Tracker!", Color.BLACK);
+        } else {
+            loadExpensesFromDatabase(false, "Expenses reloaded from the database.", Color.BLUE);
+        }
+    }
+
+    /**
+     * @param doneMessage shown once the load is in; null leaves the message as it is.
+     */
+    private void loadExpensesFromDatabase(boolean initialLoad, String doneMessage, Color doneColor) {
+        ExpenseService.onEdt(expenseService.loadFirstPage(ExpenseTableModel.PAGE_SIZE), (firstPage, error) -> {
+            if (error != null) {
+                if (initialLoad && embeddedStorage == null && !(error instanceof CancellationException)
+                        && switchToEmbeddedStorage(error)) {
+                    return;
+                }
+                showDatabaseError("Failed to load expenses", error);
+                return;
+            }
+            expenseStore.replaceWithFirstPage(firstPage.page, firstPage.rowCount, firstPage.totalCents);
+            showCategoryTotals(firstPage.categoryTotals);
+            updateTotalExpensesLabel();
+            resumeChangeFeed(firstPage.changePosition);
+            if (doneMessage != null) {
+                messageLabel.setText(doneMessage);
+                messageLabel.setForeground(doneColor);
+            }
+            if (activeFilter != null) {
+                applyFilter(activeFilter);
+            }
+        });
+    }
+
+    /**
+     * Handles the "Apply Filter" button click.
+     */
+    private void applyFilterAction() {
+        ExpenseFilter filter;
+        try {
+            filter = filterPanel.getFilter();
+        } catch (IllegalArgumentException ex) {
+            messageLabel.setText("Error: " + ex.getMessage());
+            messageLabel.setForeground(Color.RED);
+            DialogHelper.showError(this, ex.getMessage(), "Input Error");
+            return;
+        }
+        if (filter.isEmpty()) {
+            clearFilter();
+        } else {
+            applyFilter(filter);
+        }
+    }
+
+    /**
+     * Shows only the expenses matching the filter. When every expense is loaded the
+     * in-memory indexes answer at once; otherwise the database is queried a page at a time.
+     */
+    private void applyFilter(ExpenseFilter filter) {
+        activeFilter = filter;
+        if (expenseStore.isComplete()) {
+            filteredStore.replaceAll(expenseIndex != null
+                    ? expenseIndex.search(filter)
+                    : expenseStore.asList().stream().filter(filter::matches).collect(Collectors.toList()));
+            tableModel.showStore(filteredStore, filter);
+            showFilterResult();
+            return;
+        }
+        messageLabel.setText("Filtering expenses...");
+        messageLabel.setForeground(Color.BLACK);
+        ExpenseService.onEdt(expenseService.findFirstPage(filter, ExpenseTableModel.PAGE_SIZE), (firstPage, error) -> {
+            if (filter != activeFilter) {
+                return; // Superseded by a newer filter
+            }
+            if (error != null) {
+                showDatabaseError("Failed to filter expenses", error);
+                return;
+            }
+            filteredStore.replaceWithFirstPage(firstPage.page, firstPage.rowCount, firstPage.totalCents);
+            tableModel.showStore(filteredStore, filter);
+            showFilterResult();
+        });
+    }
+
+    private void clearFilter() {
+        activeFilter = null;
+        filteredStore.replaceAll(new ArrayList<>());
+        tableModel.showStore(expenseStore, null);
+        messageLabel.setText("Showing all expenses.");
+        messageLabel.setForeground(Color.BLUE);
+    }
+
+    private void showFilterResult() {
+        messageLabel.setText(String.format("%d matching expenses, total $%s",
+                filteredStore.getTotalCount(), ExpenseFormat.formatCents(filteredStore.getTotalCents())));
+        messageLabel.setForeground(Color.BLUE);
+    }
+
+    /**
+     * Handles the "Refresh" button click.
+     * Reloads the expenses only if the database changed since they were loaded.
+     */
+    private void refreshExpenses() {
+        ExpenseService.onEdt(expenseService.getDataVersion(), (databaseVersion, error) -> {
+            if (error != null) {
+                showDatabaseError("Failed to refresh expenses", error);
+                return;
+            }
+            if (databaseVersion.equals(expenseStore.getDataVersion())) {
+                messageLabel.setText("Expenses are up to date.");
+                messageLabel.setForeground(Color.BLUE);
+                return;
+            }
+            loadExpensesFromDatabase(false);
+        });
+    }
+
+    /**
+     * Handles the "Add Expense" button click.
+     * Validates input, adds the expense to the database, and refreshes the UI.
+     */
+    private void addExpenseAction() {
+        long amountCents;
+        try {
+            amountCents = Money.parse(inputPanel.getAmountText());
         } catch (NumberFormatException ex) {
             messageLabel.setText("Error: Invalid amount. Please enter a number.");
             messageLabel.setForeground(Color.RED);
             DialogHelper.showError(this, "Please enter a valid number for amount.", "Input Error");
-        } catch (SQLException ex) {
-            messageLabel.setText("Error: Failed to save to database. " + ex.getMessage());
-            messageLabel.setForeground(Color.RED);
-            DialogHelper.showError(this, "Failed to save expense: " + ex.getMessage(), "Database Error");
+            return;
         }
+        String categoryName = inputPanel.getSelectedCategory();
+        String description = inputPanel.getDescriptionText();
+
+        // Create a new CategorizedExpense object
+        CategorizedExpense newExpense = CategorizedExpense.ofCents(0, amountCents, categoryName, description, LocalDate.now());
+        inputPanel.clearFields();
+
+        // Add the expense to the database and get the ID back
+        ExpenseService.onEdt(expenseService.addExpense(newExpense), (saved, error) -> {
+            if (error != null) {
+                showDatabaseError("Failed to save expense", error);
+                return;
+            }
+            if (saved.getId() < 0) {
+                // Journaled; the row is shown once the flusher has stored it
+                messageLabel.setText("Expense queued.");
+                messageLabel.setForeground(Color.BLUE);
+                return;
+            }
+            messageLabel.setText("Expense added successfully!");
+            messageLabel.setForeground(Color.BLUE);
+            showStoredExpenses(Collections.singletonList(saved));
+        });
     }
 
     /**
-     * Handles the "Delete Selected Expense" button click.
-     * Deletes the selected expense from the database and refreshes the UI.
+     * Adds expenses that are now in the database to the local store, as one change
+     * however many there are. With the change feed running it adds them instead, like
+     * rows stored by any other client.
      */
-    private void deleteSelectedExpense() {
-        int selectedRow = tablePanel.getSelectedRow();
-        if (selectedRow == -1) {
+    private void showStoredExpenses(List<CategorizedExpense> saved) {
+        if (changeFeed != null) {
+            return;
+        }
+        // Journaled expenses may already have arrived with a reload; addAll() skips those
+        for (CategorizedExpense added : expenseStore.addAll(saved)) {
+            categoryManager.expenseAdded(added);
+        }
+        addCategoryChoices();
+        if (activeFilter != null) {
+            filteredStore.addAll(saved.stream().filter(activeFilter::matches).collect(Collectors.toList()));
+        }
+        updateTotalExpensesLabel();
+    }
+
+    /**
+     * Handles the "Delete Selected" button click.
+     * Deletes every selected expense with one storage call, after a single confirmation,
+     * and removes them from the table without a reload. The delete can be undone.
+     * Expenses another client changed since they were loaded are left alone.
+     */
+    private void deleteSelectedExpenses() {
+        List<CategorizedExpense> selected = tablePanel.getSelectedExpenses();
+        if (selected.isEmpty()) {
             messageLabel.setText("Please select an expense to delete.");
             messageLabel.setForeground(Color.ORANGE);
-            DialogHelper.showWarning(this, "Please select an expense from the table to delete.", "No Selection");
+            DialogHelper.showWarning(this, "Please select one or more expenses from the table to delete.", "No Selection");
             return;
         }
 
-        int confirm = DialogHelper.showConfirm(this,
-                "Are you sure you want to delete this expense?", "Confirm Delete");
+        String question = selected.size() == 1
+                ? "Are you sure you want to delete this expense?"
+                : "Are you sure you want to delete these " + selected.size() + " expenses?";
+        if (DialogHelper.showConfirm(this, question, "Confirm Delete") != JOptionPane.YES_OPTION) {
+            return;
+        }
 
-        if (confirm == JOptionPane.YES_OPTION) {
-            try {
-                int expenseId = (int) tablePanel.getValueAt(selectedRow, 0);
-                boolean deleted = expenseDao.deleteExpense(expenseId);
-
-                if (deleted) {
-                    messageLabel.setText("Expense ID " + expenseId + " deleted successfully.");
-                    messageLabel.setForeground(Color.BLUE);
-                    loadExpensesFromDatabase();
-                    updateExpenseTable();
-                    updateTotalExpensesLabel();
-                } else {
-                    messageLabel.setText("Failed to delete expense ID " + expenseId + " (not found).");
-                    messageLabel.setForeground(Color.RED);
+        ExpenseService.onEdt(expenseService.deleteExpensesIfUnchanged(selected), (result, error) -> {
+            if (error != null) {
+                showDatabaseError("Failed to delete expenses", error);
+                return;
+            }
+            List<CategorizedExpense> deleted = result.getDeleted();
+            if (changeFeed == null) {
+                // Without the feed nobody else removes them: the missing ones were deleted elsewhere
+                List<CategorizedExpense> gone = new ArrayList<>(deleted);
+                gone.addAll(result.getMissing());
+                for (CategorizedExpense removed : expenseStore.removeAll(gone)) {
+                    categoryManager.expenseRemoved(removed);
+                }
+                filteredStore.removeAll(gone);
+                updateTotalExpensesLabel();
+            }
+            if (!deleted.isEmpty()) {
+                deleteHistory.push(new ArrayList<>(deleted));
+                if (deleteHistory.size() > MAX_UNDO_DELETES) {
+                    deleteHistory.removeLast();
                 }
-            } catch (SQLException e) {
-                messageLabel.setText("Error: Failed to delete from database. " + e.getMessage());
-                messageLabel.setForeground(Color.RED);
-                DialogHelper.showError(this, "Failed to delete expense: " + e.getMessage(), "Database Error");
+                undoDeleteButton.setEnabled(true);
             }
+            int changed = result.getChanged().size();
+            if (changed > 0) {
+                String conflict = changed == 1
+                        ? "1 expense was changed by another user and was not deleted."
+                        : changed + " expenses were changed by another user and were not deleted.";
+                messageLabel.setText(conflict);
+                messageLabel.setForeground(Color.ORANGE);
+                DialogHelper.showWarning(this, conflict + " Review the latest values and delete again if needed.",
+                        "Delete Conflict");
+                if (changeFeed == null) {
+                    loadExpensesFromDatabase(false, null, null);
+                }
+                return;
+            }
+            if (deleted.isEmpty()) {
+                messageLabel.setText("The selected expenses were already deleted.");
+                messageLabel.setForeground(Color.ORANGE);
+                return;
+            }
+            messageLabel.setText(deleted.size() == 1
+                    ? "Expense ID " + deleted.get(0).getId() + " deleted successfully."
+                    : deleted.size() + " expenses deleted successfully.");
+            messageLabel.setForeground(Color.BLUE);
+        });
+    }
+
+    /**
+     * Handles the "Undo Delete" button click: restores the expenses of the latest delete
+     * from their tombstones and puts them back in the table.
+     */
+    private void undoDeleteAction() {
+        List<CategorizedExpense> restoring = deleteHistory.peek();
+        if (restoring == null) {
+            return;
         }
+        undoDeleteButton.setEnabled(false);
+        List<Integer> ids = restoring.stream().map(CategorizedExpense::getId).collect(Collectors.toList());
+        ExpenseService.onEdt(expenseService.restoreExpenses(ids), (restored, error) -> {
+            if (error != null) {
+                undoDeleteButton.setEnabled(true);
+                showDatabaseError("Failed to restore the expenses", error);
+                return;
+            }
+            deleteHistory.remove(restoring);
+            undoDeleteButton.setEnabled(!deleteHistory.isEmpty());
+            if (changeFeed != null) {
+                // The feed puts the restored rows back, whichever of them came back
+                messageLabel.setText(restored == restoring.size()
+                        ? (restored == 1 ? "Expense restored." : restored + " expenses restored.")
+                        : restored + " of " + restoring.size() + " expenses restored.");
+                messageLabel.setForeground(restored == restoring.size() ? Color.BLUE : Color.ORANGE);
+                return;
+            }
+            if (restored < restoring.size()) {
+                // Some tombstones were gone, e.g. already synced or purged; learn which came back
+                loadExpensesFromDatabase(false, restored + " of " + restoring.size() + " expenses restored.",
+                        Color.ORANGE);
+                return;
+            }
+            for (CategorizedExpense added : expenseStore.addAll(restoring)) {
+                categoryManager.expenseAdded(added);
+            }
+            if (activeFilter != null) {
+                filteredStore.addAll(restoring.stream().filter(activeFilter::matches).collect(Collectors.toList()));
+            }
+            updateTotalExpensesLabel();
+            messageLabel.setText(restored == 1 ? "Expense restored." : restored + " expenses restored.");
+            messageLabel.setForeground(Color.BLUE);
+        });
     }
 
     /**
-     * Updates the table with the current list of expenses.
+     * Shows a failed background call in the message label and, unless the user
+     * cancelled it, in an error dialog.
      */
-    private void updateExpenseTable() {
-        tablePanel.updateTable(expenses);
+    private void showDatabaseError(String action, Throwable error) {
+        if (error instanceof CancellationException) {
+            messageLabel.setText(action + ": cancelled.");
+            messageLabel.setForeground(Color.ORANGE);
+            return;
+        }
+        messageLabel.setText("Error: " + action + ". " + error.getMessage());
+        messageLabel.setForeground(Color.RED);
+        DialogHelper.showError(this, action + ": " + error.getMessage(), "Database Error");
+    }
+
+    /**
+     * Reports that the table could not load older rows and offers to try again; until
+     * then the table shows what it has.
+     */
+    private void pageLoadFailed(Throwable error) {
+        if (error instanceof CancellationException) {
+            return;
+        }
+        messageLabel.setText("Error: failed to load more expenses. " + error.getMessage());
+        messageLabel.setForeground(Color.RED);
+        if (DialogHelper.showConfirm(this, "Failed to load more expenses: " + error.getMessage()
+                + "\nTry again?", "Database Error") == JOptionPane.YES_OPTION) {
+            messageLabel.setText("");
+            tableModel.retryNextPage();
+        }
     }
 
     /**
      * Updates the total expenses label in the summary panel.
      */
     private void updateTotalExpensesLabel() {
-        double total = expenses.stream()
-                .mapToDouble(CategorizedExpense::getAmount)
-                .sum();
-        summaryPanel.updateTotal(total);
+        summaryPanel.updateTotal(expenseStore.getTotalCents());
+        summaryPanel.updateCategoryTotals(categoryManager.getTotals());
+        refreshMonthTotal();
     }
 
     /**
-     * Generates the summary report as a string.
-     * This method is now used by both displaySummaryReport() and the new SummaryFileHandler.
-     * @return A string containing the formatted summary report.
+     * Reads the total of the current month from the storage, which only has to look at
+     * that month's rows.
      */
-    private String generateSummaryReport() {
-        double total = expenses.stream()
-                .mapToDouble(CategorizedExpense::getAmount)
-                .sum();
+    private void refreshMonthTotal() {
+        int request = ++monthTotalRequest;
+        YearMonth month = YearMonth.now();
+        ExpenseService.onEdt(expenseService.getMonthTotal(month), (total, error) -> {
+            if (error == null && request == monthTotalRequest) {
+                summaryPanel.updateMonthTotal(month, total);
+            }
+        });
+    }
 
-        Set<String> uniqueCategories = expenses.stream()
-                .map(CategorizedExpense::getCategory)
-                .collect(Collectors.toCollection(HashSet::new));
+    /**
+     * Takes over the per-category figures read with a load. Categories only known from
+     * the data, such as one defined on another computer, become choices too.
+     */
+    private void showCategoryTotals(Map<String, CategoryTotal> totals) {
+        categoryManager.resetTotals(totals);
+        addCategoryChoices();
+    }
 
-        StringBuilder report = new StringBuilder();
-        report.append("--- Expense Summary Report ---\n");
-        report.append("Generated On: ").append(LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE)).append("\n");
-        report.append("----------------------------\n\n");
+    /** Makes every registered category a choice in the input and filter panels. */
+    private void addCategoryChoices() {
+        for (String category : categoryManager.getAllCategories()) {
+            inputPanel.addCategory(category);
+            filterPanel.addCategory(category);
+        }
+    }
 
-        report.append(String.format("Total Expenses: $%.2f\n\n", total));
+    /**
+     * Registers the categories the user defined earlier, once the storage returns them.
+     */
+    private void loadCustomCategories() {
+        ExpenseService.onEdt(expenseService.getCustomCategories(), (categories, error) -> {
+            if (error != null) {
+                // The built-in categories still work; the next start tries again
+                System.err.println("Failed to load the custom categories: " + error.getMessage());
+                return;
+            }
+            categories.forEach(categoryManager::register);
+            addCategoryChoices();
+        });
+    }
 
-        report.append("Expenses by Category:\n");
-        if (uniqueCategories.isEmpty()) {
-            report.append("   No categorized expenses.\n");
-        } else {
-            for (String cat : uniqueCategories) {
-                double categoryTotal = expenses.stream()
-                        .filter(e -> e.getCategory().equals(cat))
-                        .mapToDouble(CategorizedExpense::getAmount)
-                        .sum();
-                report.append(String.format("   - %-15s: $%.2f\n", cat, categoryTotal));
+    /**
+     * Handles the "New..." category button: asks for a name and stores the category.
+     */
+    private void addCategoryAction() {
+        String input = DialogHelper.showInput(this, "Name of the new category:", "New Category");
+        if (input == null) {
+            return;
+        }
+        String category;
+        try {
+            category = CategoryManager.normalize(input);
+        } catch (IllegalArgumentException ex) {
+            DialogHelper.showError(this, ex.getMessage(), "Input Error");
+            return;
+        }
+        if (categoryManager.getId(category) >= 0) {
+            inputPanel.selectCategory(category);
+            return;
+        }
+        ExpenseService.onEdt(expenseService.addCategory(category), (ignored, error) -> {
+            if (error != null) {
+                showDatabaseError("Failed to save the category", error);
+                return;
+            }
+            categoryManager.register(category);
+            addCategoryChoices();
+            inputPanel.selectCategory(category);
+            messageLabel.setText("Category " + category + " added.");
+            messageLabel.setForeground(Color.BLUE);
+        });
+    }
+
+    /**
+     * Generates the summary report in the background and hands it to the callback on the EDT.
+     * Repeated clicks while a report is being built share the same run.
+     */
+    private void generateSummaryReport(Consumer<SummaryReport> onReady) {
+        // The store is only touched on the EDT, so hand the worker a copy of the loaded rows
+        List<CategorizedExpense> loadedRows = expenseStore.isComplete()
+                ? new ArrayList<>(expenseStore.asList())
+                : null;
+        ExpenseService.onEdt(expenseService.submitCoalesced("summary-report",
+                () -> SummaryReport.generate(expenseService.getStorage(), loadedRows)), (report, error) -> {
+            if (error != null) {
+                showDatabaseError("Failed to build the summary", error);
+                return;
             }
+            summaryPanel.updateStatistics(report.getStatistics());
+            onReady.accept(report);
+        });
+    }
+
+    /**
+     * Handles the "Save Summary" button click.
+     * Streams the report straight from the database to the chosen file in the background;
+     * the file name picks the format (.txt, .csv, .json, optionally .gz).
+     */
+    private void saveSummaryAction() {
+        File file = fileHandler.chooseSummaryFile(this);
+        if (file == null) {
+            messageLabel.setText("Summary not saved. (Operation canceled or an error occurred)");
+            messageLabel.setForeground(Color.ORANGE);
+            return;
         }
+        SummaryFileHandler.ExportFormat format = SummaryFileHandler.ExportFormat.fromFileName(file.getName());
+        boolean gzip = SummaryFileHandler.isGzipFileName(file.getName());
 
-        report.append("\n----------------------------\n");
-        report.append("Detailed Expenses (Using new interfaces):\n");
-        if (expenses.isEmpty()) {
-            report.append("   No detailed expenses.\n");
-        } else {
-            expenses.forEach(expense -> {
-                // Using the getSummary() method from the Summarizable interface
-                report.append("   - ").append(expense.getSummary()).append("\n");
+        messageLabel.setText("Saving summary...");
+        messageLabel.setForeground(Color.BLACK);
+        SummaryFileHandler.ExportProgressListener progress = rows -> SwingUtilities.invokeLater(() ->
+                messageLabel.setText("Saving summary... " + rows + " expenses written"));
+        ExpenseService.onEdt(expenseService.submit(() -> {
+            try {
+                return fileHandler.exportSummary(expenseService.getStorage(), file.toPath(), format, gzip, progress);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }), (rows, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof UncheckedIOException ? error.getCause() : error;
+                if (cause instanceof IOException) {
+                    messageLabel.setText("Summary not saved. (Operation canceled or an error occurred)");
+                    messageLabel.setForeground(Color.ORANGE);
+                    DialogHelper.showError(this, "Failed to save file: " + cause.getMessage(), "File Save Error");
+                } else {
+                    showDatabaseError("Failed to save the summary", cause);
+                }
+                return;
+            }
+            messageLabel.setText("Summary saved successfully! (" + rows + " expenses)");
+            messageLabel.setForeground(Color.BLUE);
+        });
+    }
 
-                // Using the printDetails() method from the Printable interface (prints to console)
-                expense.printDetails();
-            });
+    /**
+     * Handles the "Import..." button click.
+     * Imports a bank export (.csv, or .ofx/.qfx) in the background, then reloads the table.
+     */
+    private void importAction() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import Expenses");
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Bank exports (CSV, OFX)", "csv", "ofx", "qfx"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
-        report.append("----------------------------\n");
-        
-        return report.toString();
+        File file = fileChooser.getSelectedFile();
+        ExpenseImporter.ImportFormat format = ExpenseImporter.ImportFormat.fromFileName(file.getName());
+
+        messageLabel.setText("Importing " + file.getName() + "...");
+        messageLabel.setForeground(Color.BLACK);
+        ExpenseImporter.ImportProgressListener progress = (imported, rejected) -> SwingUtilities.invokeLater(() ->
+                messageLabel.setText("Importing " + file.getName() + "... " + imported + " expenses imported, "
+                        + rejected + " rejected"));
+        ExpenseService.onEdt(expenseService.submit(() -> {
+            try {
+                return new ExpenseImporter(expenseService.getStorage()).importFile(file.toPath(), format, progress);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }), (result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof UncheckedIOException ? error.getCause() : error;
+                if (cause instanceof IOException) {
+                    messageLabel.setText("Import failed.");
+                    messageLabel.setForeground(Color.RED);
+                    DialogHelper.showError(this, "Failed to read file: " + cause.getMessage(), "Import Error");
+                } else {
+                    showDatabaseError("Failed to import the expenses", cause);
+                }
+                // Batches stored before the error are kept
+                refreshExpenses();
+                return;
+            }
+            String summary = String.format("Imported %d expenses (%d rejected, %.0f rows/s).",
+                    result.getImported(), result.getRejected(), result.getRowsPerSecond());
+            if (result.getRejected() > 0) {
+                StringBuilder details = new StringBuilder(summary).append("\n");
+                for (String reject : result.getRejects()) {
+                    details.append("\n").append(reject);
+                }
+                if (result.getRejected() > result.getRejects().size()) {
+                    details.append("\n...");
+                }
+                DialogHelper.showWarning(this, details.toString(), "Import");
+            }
+            loadExpensesFromDatabase(false, summary, result.getRejected() > 0 ? Color.ORANGE : Color.BLUE);
+        });
     }
 
     /**
      * Displays a summary report of all expenses in a dialog box.
      */
     private void displaySummaryReport() {
-        String report = generateSummaryReport();
-        DialogHelper.showInfo(this, report, "Expense Summary");
+        generateSummaryReport(report -> DialogHelper.showInfo(this, report.getText(), "Expense Summary"));
     }
 
     /**
      * Main entry point for the application.
      */
     public static void main(String[] args) {
+        Metrics.registerMBean();
+        if (METRICS_LOG_SECONDS > 0) {
+            Metrics.startLogging(METRICS_LOG_SECONDS, TimeUnit.SECONDS);
+        }
+        if (EDT_STALL_MILLIS > 0) {
+            new EdtStallDetector(EDT_STALL_MILLIS).start();
+        }
         SwingUtilities.invokeLater(ExpenseTrackerGUI::new);
     }
 }
@@ -0,0 +1,27 @@
+/**
+ * Validates expenses before they are written to the database, so that a bad row
+ * can be reported on its own instead of failing a whole batch.
+ */
+class ExpenseValidator {
+
+    private ExpenseValidator() {
+    }
+
+    public static void validate(CategorizedExpense expense) throws InvalidExpenseException {
+        if (expense == null) {
+            throw new InvalidExpenseException("Expense is missing.");
+        }
+        if (Math.abs(expense.getAmountCents()) > Money.MAX_CENTS) {
+            throw new InvalidExpenseException("Amount is out of range.");
+        }
+        if (expense.getCategory() == null || expense.getCategory().trim().isEmpty()) {
+            throw new InvalidExpenseException("Category is required.");
+        }
+        if (expense.getDescription() == null) {
+            throw new InvalidExpenseException("Description is required.");
+        }
+        if (expense.getDate() == null) {
+            throw new InvalidExpenseException("Date is required.");
+        }
+    }
+}
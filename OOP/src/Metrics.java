@@ -0,0 +1,306 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the DAO, the connection pool, reports, exports and
+ * the table, kept in one process-wide registry by name ("dao.getExpensesPage", ...).
+ *
+ * Recording is cheap enough for every call: counters are LongAdders, and a timer adds
+ * one to a bucket of a log-linear histogram (16 buckets per power of two, so any
+ * percentile is within about 6% of the true value) without locking or allocating.
+ * The figures can be read over JMX (ExpenseTracker:type=Metrics, e.g. with JConsole)
+ * or printed periodically with startLogging().
+ */
+final class Metrics {
+
+    static final String OBJECT_NAME = "ExpenseTracker:type=Metrics";
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService logger;
+
+    private Metrics() {
+    }
+
+    /** Returns the counter with the given name, creating it on first use. */
+    static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /** Returns the timer with the given name, creating it on first use. */
+    static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /** Clears every counter and timer. */
+    static void reset() {
+        COUNTERS.values().forEach(LongAdder::reset);
+        TIMERS.values().forEach(Timer::reset);
+    }
+
+    /**
+     * Returns one line per counter and per timer that has recorded anything, sorted by
+     * name. Times are in milliseconds.
+     */
+    static String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            long value = counter.getValue().sum();
+            if (value != 0) {
+                sb.append(counter.getKey()).append(" = ").append(value).append('\n');
+            }
+        }
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(TIMERS).entrySet()) {
+            Timer timer = entry.getValue();
+            long count = timer.getCount();
+            if (count == 0) {
+                continue;
+            }
+            sb.append(String.format("%s count=%d mean=%.3f p50=%.3f p99=%.3f max=%.3f ms%n",
+                    entry.getKey(), count, millis(timer.getMeanNanos()), millis(timer.getPercentileNanos(0.50)),
+                    millis(timer.getPercentileNanos(0.99)), millis(timer.getMaxNanos())));
+        }
+        return sb.toString();
+    }
+
+    /** Prints dump() to standard error every period on a daemon thread. */
+    static synchronized void startLogging(long period, TimeUnit unit) {
+        if (logger != null) {
+            return;
+        }
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-log");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.scheduleAtFixedRate(() -> {
+            String figures = dump();
+            if (!figures.isEmpty()) {
+                System.err.print("Metrics:\n" + figures);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server. Safe to call more than once.
+     */
+    static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not publish metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * A latency histogram. Values below 16 ns get a bucket each; above that, every power
+     * of two is split into 16 equal buckets, the layout HdrHistogram uses with one
+     * significant digit.
+     */
+    static final class Timer {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        /** Records the time elapsed since startNanos, a value of System.nanoTime(). */
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketOf(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMeanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+
+        long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * Returns the value below which the given fraction of recordings fall, as the
+         * upper edge of its bucket (never more than the maximum recorded).
+         */
+        long getPercentileNanos(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperEdge(i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperEdge(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            long edge = ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+            // The very last bucket reaches past Long.MAX_VALUE
+            return edge < 0 ? Long.MAX_VALUE : edge;
+        }
+    }
+
+    /**
+     * Exposes every counter as an attribute of its name, and every timer as the
+     * attributes name.count, name.meanMillis, name.p50Millis, name.p99Millis and
+     * name.maxMillis. Metrics created later show up the next time the client reads the
+     * MBean info.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        private static final String[] TIMER_FIELDS = {"count", "meanMillis", "p50Millis", "p99Millis", "maxMillis"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = COUNTERS.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            int dot = attribute.lastIndexOf('.');
+            Timer timer = dot < 0 ? null : TIMERS.get(attribute.substring(0, dot));
+            if (timer != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return timer.getCount();
+                    case "meanMillis": return millis(timer.getMeanNanos());
+                    case "p50Millis": return millis(timer.getPercentileNanos(0.50));
+                    case "p99Millis": return millis(timer.getPercentileNanos(0.99));
+                    case "maxMillis": return millis(timer.getMaxNanos());
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the DynamicMBean contract asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            if ("reset".equals(actionName)) {
+                reset();
+                return null;
+            }
+            if ("dump".equals(actionName)) {
+                return dump();
+            }
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : new TreeMap<>(COUNTERS).keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+            }
+            for (String name : new TreeMap<>(TIMERS).keySet()) {
+                for (String field : TIMER_FIELDS) {
+                    attributes.add(new MBeanAttributeInfo(name + "." + field,
+                            field.equals("count") ? "long" : "double", "Latency", true, false, false));
+                }
+            }
+            MBeanOperationInfo[] operations = {
+                new MBeanOperationInfo("reset", "Clears every metric", null, "void", MBeanOperationInfo.ACTION),
+                new MBeanOperationInfo("dump", "All metrics as text", null, "java.lang.String", MBeanOperationInfo.INFO)
+            };
+            return new MBeanInfo(Metrics.class.getName(), "Expense tracker counters and latencies",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, operations, null);
+        }
+    }
+}
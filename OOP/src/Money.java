@@ -0,0 +1,126 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts of money as a long number of cents, the representation used by expenses,
+ * totals and statistics. Adding cents is exact, so a sum does not depend on the order
+ * of its terms: totals kept up to date one change at a time, merged from parallel
+ * partial results or read from the database all agree to the cent. Doubles remain
+ * only for figures that are not whole cents, such as averages.
+ */
+final class Money {
+
+    /** Largest amount accepted, in cents: the range of the NUMERIC(12, 2) column. */
+    static final long MAX_CENTS = 999_999_999_999L;
+
+    private static final BigDecimal MAX_DECIMAL_CENTS = BigDecimal.valueOf(MAX_CENTS);
+    private static final double HALF_CENT_TOLERANCE = 1e-6;
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount to cents, rounding half away from zero like "%.2f", so 1.005
+     * becomes 101.
+     *
+     * @throws IllegalArgumentException if the amount is not finite or out of range.
+     */
+    static long toCents(double amount) {
+        if (Double.isNaN(amount) || Math.abs(amount) * 100 > MAX_CENTS) {
+            throw new IllegalArgumentException("Amount out of range: " + amount);
+        }
+        double scaled = amount * 100;
+        long cents = Math.round(scaled);
+        double fraction = Math.abs(scaled - Math.floor(scaled));
+        if (Math.abs(fraction - 0.5) < HALF_CENT_TOLERANCE) {
+            // Near a tie the product may have been rounded the wrong way; round the
+            // shortest decimal form of the double instead
+            cents = toCents(new BigDecimal(Double.toString(amount)));
+        }
+        return cents;
+    }
+
+    /**
+     * Converts a decimal amount to cents, rounding half away from zero.
+     *
+     * @throws IllegalArgumentException if the amount is out of range.
+     */
+    static long toCents(BigDecimal amount) {
+        BigDecimal cents = amount.setScale(2, RoundingMode.HALF_UP).movePointRight(2);
+        if (cents.abs().compareTo(MAX_DECIMAL_CENTS) > 0) {
+            throw new IllegalArgumentException("Amount out of range: " + amount.toPlainString());
+        }
+        return cents.longValue();
+    }
+
+    /** Returns the amount as an exact decimal with two fraction digits, e.g. for a NUMERIC column. */
+    static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /** Returns the amount in whole units, e.g. 12.34 for 1234 cents. */
+    static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Parses an amount typed by a user or read from a file, such as "12", "-3.5" or
+     * "1234.567" (rounded to 1234.57), into cents. Plain decimals are read digit by
+     * digit; anything else, such as an exponent, goes through BigDecimal.
+     *
+     * @throws NumberFormatException if the text is not a number or out of range.
+     */
+    static long parse(String text) {
+        String value = text.trim();
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int unitDigits = 0;
+        for (; i < length && unitDigits <= 12; i++, unitDigits++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            units = units * 10 + digit;
+        }
+        long cents = units * 100;
+        int fractionDigits = 0;
+        if (i < length && value.charAt(i) == '.') {
+            for (i++; i < length; i++, fractionDigits++) {
+                int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                if (fractionDigits == 0) {
+                    cents += digit * 10;
+                } else if (fractionDigits == 1) {
+                    cents += digit;
+                } else if (fractionDigits == 2 && digit >= 5) {
+                    cents++;
+                }
+            }
+        }
+        if (i < length || unitDigits + fractionDigits == 0 || unitDigits > 12) {
+            return parseSlow(value);
+        }
+        if (cents > MAX_CENTS) {
+            throw new NumberFormatException("Amount out of range: " + value);
+        }
+        return negative ? -cents : cents;
+    }
+
+    private static long parseSlow(String value) {
+        try {
+            return toCents(new BigDecimal(value));
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException from the constructor
+            throw e instanceof NumberFormatException ? (NumberFormatException) e
+                    : new NumberFormatException(e.getMessage());
+        }
+    }
+}
@@ -2,7 +2,20 @@ import java.awt.*;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
 import javax.swing.*;
 
 /**
@@ -11,6 +24,47 @@ import javax.swing.*;
  */
 public class SummaryFileHandler {
 
+    // Size of the character and gzip buffers used when streaming an export
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // How often (in rows) the progress listener is told about an export
+    private static final int PROGRESS_INTERVAL = 10_000;
+    // Completed exports only; a cancelled or failed one is not timed
+    private static final Metrics.Timer EXPORT_TIMER = Metrics.timer("export.summary");
+
+    /**
+     * The file layouts an export can be written in.
+     */
+    public enum ExportFormat {
+        TEXT, CSV, JSON;
+
+        /**
+         * Picks the format from a file name such as "report.csv" or "report.json.gz".
+         * Anything that is not .csv or .json is written as the text report.
+         */
+        public static ExportFormat fromFileName(String fileName) {
+            String name = stripGzipSuffix(fileName.toLowerCase());
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".json")) {
+                return JSON;
+            }
+            return TEXT;
+        }
+    }
+
+    /**
+     * Receives the number of rows written so far during an export.
+     */
+    public interface ExportProgressListener {
+        void rowsWritten(long rows);
+    }
+
+    /** Writes the content of a file; see writeAtomically(). */
+    interface FileContent<T> {
+        T writeTo(OutputStream out) throws IOException, SQLException;
+    }
+
     /**
      * Shows a file chooser dialog and saves the provided report content to a file.
      *
@@ -19,13 +73,8 @@ public class SummaryFileHandler {
      * @return true if the file was saved successfully, false otherwise.
      */
     public boolean saveSummary(Component parentComponent, String reportContent) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Save Expense Summary Report");
-        fileChooser.setSelectedFile(new File("ExpenseSummaryReport.txt"));
-
-        int userSelection = fileChooser.showSaveDialog(parentComponent);
-        if (userSelection == JFileChooser.APPROVE_OPTION) {
-            File fileToSave = fileChooser.getSelectedFile();
+        File fileToSave = chooseSummaryFile(parentComponent);
+        if (fileToSave != null) {
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileToSave))) {
                 writer.write(reportContent);
                 return true; // Return true on success
@@ -39,4 +88,230 @@ public class SummaryFileHandler {
         }
         return false; // Return false if user canceled
     }
+
+    /**
+     * Shows the file chooser dialog used to pick where a report is saved.
+     * The extension of the chosen name selects the format: .txt, .csv or .json,
+     * optionally followed by .gz for a compressed file.
+     *
+     * @return the chosen file, or null if the user canceled.
+     */
+    public File chooseSummaryFile(Component parentComponent) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Expense Summary Report");
+        fileChooser.setSelectedFile(new File("ExpenseSummaryReport.txt"));
+
+        int userSelection = fileChooser.showSaveDialog(parentComponent);
+        if (userSelection == JFileChooser.APPROVE_OPTION) {
+            return fileChooser.getSelectedFile();
+        }
+        return null;
+    }
+
+    /**
+     * Streams every expense from the storage to a file, one row at a time, so the
+     * export runs in bounded memory however large the table is. The text format writes
+     * the same layout as the summary report, with its figures aggregated by the storage backend.
+     * A failed or cancelled export leaves an existing file as it was (see writeAtomically()).
+     *
+     * @param gzip Whether to compress the file.
+     * @param progress Told about the number of rows written; may be null.
+     * @return the number of expenses written.
+     */
+    public long exportSummary(ExpenseStorage storage, Path target, ExportFormat format, boolean gzip,
+                              ExportProgressListener progress) throws IOException, SQLException {
+        return writeAtomically(target, out -> exportSummary(storage, out, format, gzip, progress));
+    }
+
+    /**
+     * Writes a file next to the target, syncs it to disk and only then moves it over the
+     * target, like ExpenseSnapshot.write(). If the content fails or is cancelled, the
+     * partial file is deleted and the target keeps its previous content. Closing the
+     * stream given to the content only flushes it.
+     */
+    static <T> T writeAtomically(Path target, FileContent<T> content) throws IOException, SQLException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        boolean moved = false;
+        try {
+            T result;
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                result = content.writeTo(new KeepOpenOutputStream(Channels.newOutputStream(channel)));
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            return result;
+        } finally {
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    System.err.println("Could not delete " + temporary + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams every expense to an output stream, like the export to a file. The stream is
+     * flushed but left open, so the export can go to standard output.
+     */
+    public long exportSummary(ExpenseStorage storage, OutputStream target, ExportFormat format, boolean gzip,
+                              ExportProgressListener progress) throws IOException, SQLException {
+        long start = System.nanoTime();
+        ExpenseStatistics statistics = format == ExportFormat.TEXT ? storage.getStatistics() : null;
+        long rows = 0;
+        try (ExpenseStorage.Cursor cursor = storage.openCursor();
+             Writer writer = openWriter(new KeepOpenOutputStream(target), gzip)) {
+
+            StringBuilder line = new StringBuilder(256);
+            char[] chars = new char[256];
+            writeStart(writer, format, statistics);
+            while (cursor.hasNext()) {
+                SummaryReport.checkCancelled();
+                CategorizedExpense expense = cursor.next();
+                line.setLength(0);
+                appendRow(line, format, expense, rows == 0);
+                // Writer.append(CharSequence) would copy the line into a new String first
+                if (chars.length < line.length()) {
+                    chars = new char[line.length() * 2];
+                }
+                line.getChars(0, line.length(), chars, 0);
+                writer.write(chars, 0, line.length());
+                rows++;
+                if (progress != null && rows % PROGRESS_INTERVAL == 0) {
+                    progress.rowsWritten(rows);
+                }
+            }
+            writeEnd(writer, format, rows == 0);
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        }
+        if (progress != null) {
+            progress.rowsWritten(rows);
+        }
+        EXPORT_TIMER.recordSince(start);
+        Metrics.counter("export.rows").add(rows);
+        return rows;
+    }
+
+    private static Writer openWriter(OutputStream out, boolean gzip) throws IOException {
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Passes writes through but only flushes on close(), so closing the writer finishes a
+     * gzip stream without closing the stream underneath.
+     */
+    private static final class KeepOpenOutputStream extends FilterOutputStream {
+        KeepOpenOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static void writeStart(Writer writer, ExportFormat format, ExpenseStatistics statistics)
+            throws IOException {
+        switch (format) {
+            case CSV:
+                writer.write("id,date,amount,category,description\n");
+                break;
+            case JSON:
+                writer.write("[");
+                break;
+            default:
+                SummaryReport.appendHeader(writer, statistics);
+                break;
+        }
+    }
+
+    private static void appendRow(StringBuilder line, ExportFormat format, CategorizedExpense expense,
+                                  boolean first) throws IOException {
+        switch (format) {
+            case CSV:
+                line.append(expense.getId()).append(',');
+                ExpenseFormat.appendDate(line, expense.getDate()).append(',');
+                ExpenseFormat.appendCents(line, expense.getAmountCents()).append(',');
+                CsvFormat.appendField(line, expense.getCategory());
+                line.append(',');
+                CsvFormat.appendField(line, expense.getDescription());
+                line.append('\n');
+                break;
+            case JSON:
+                line.append(first ? "\n  " : ",\n  ");
+                line.append("{\"id\": ").append(expense.getId()).append(", \"date\": \"");
+                ExpenseFormat.appendDate(line, expense.getDate()).append("\", \"amount\": ");
+                ExpenseFormat.appendCents(line, expense.getAmountCents()).append(", \"category\": ");
+                appendJsonString(line, expense.getCategory());
+                line.append(", \"description\": ");
+                appendJsonString(line, expense.getDescription());
+                line.append('}');
+                break;
+            default:
+                SummaryReport.appendDetail(line, expense);
+                break;
+        }
+    }
+
+    private static void writeEnd(Writer writer, ExportFormat format, boolean noRows) throws IOException {
+        switch (format) {
+            case CSV:
+                break;
+            case JSON:
+                writer.write(noRows ? "]\n" : "\n]\n");
+                break;
+            default:
+                SummaryReport.appendFooter(writer, noRows);
+                break;
+        }
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Returns true if the file name asks for a gzip-compressed export.
+     */
+    public static boolean isGzipFileName(String fileName) {
+        return fileName.toLowerCase().endsWith(".gz");
+    }
+
+    private static String stripGzipSuffix(String fileName) {
+        return isGzipFileName(fileName) ? fileName.substring(0, fileName.length() - 3) : fileName;
+    }
 }
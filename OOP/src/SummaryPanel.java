@@ -1,18 +1,62 @@
 import java.awt.*;
+import java.time.YearMonth;
+import java.time.format.TextStyle;
+import java.util.Locale;
+import java.util.Map;
 import javax.swing.*;
 
 
 class SummaryPanel extends JPanel {
     private JLabel totalExpensesLabel;
+    private JLabel statisticsLabel;
+    private JLabel monthTotalLabel;
 
     public SummaryPanel() {
         super(new FlowLayout(FlowLayout.RIGHT));
+        statisticsLabel = new JLabel("");
+        add(statisticsLabel);
+        monthTotalLabel = new JLabel("");
+        add(monthTotalLabel);
         totalExpensesLabel = new JLabel("Total Expenses: $0.00");
         totalExpensesLabel.setFont(new Font("SansSerif", Font.BOLD, 16)); 
         add(totalExpensesLabel);
     }
 
-    public void updateTotal(double totalAmount) {
-        totalExpensesLabel.setText(String.format("Total Expenses: $%.2f", totalAmount));
+    public void updateTotal(long totalCents) {
+        totalExpensesLabel.setText("Total Expenses: $" + ExpenseFormat.formatCents(totalCents));
+    }
+
+    public void updateMonthTotal(YearMonth month, long totalCents) {
+        monthTotalLabel.setText(month.getMonth().getDisplayName(TextStyle.FULL, Locale.getDefault())
+                + ": $" + ExpenseFormat.formatCents(totalCents) + "   ");
+    }
+
+    /**
+     * Lists the running figures of each category in the tooltip of the total.
+     */
+    public void updateCategoryTotals(Map<String, CategoryTotal> totals) {
+        if (totals.isEmpty()) {
+            totalExpensesLabel.setToolTipText(null);
+            return;
+        }
+        StringBuilder tip = new StringBuilder("<html><table>");
+        for (Map.Entry<String, CategoryTotal> entry : totals.entrySet()) {
+            // User-defined names may contain markup characters
+            String name = entry.getKey().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+            tip.append("<tr><td>").append(name).append("</td><td align=right>$")
+                    .append(ExpenseFormat.formatCents(entry.getValue().getSumCents())).append("</td><td align=right>(")
+                    .append(entry.getValue().getCount()).append(")</td></tr>");
+        }
+        totalExpensesLabel.setToolTipText(tip.append("</table></html>").toString());
+    }
+
+    /**
+     * Shows the figures of the last computed summary next to the total.
+     */
+    public void updateStatistics(ExpenseStatistics statistics) {
+        ExpenseStatistics.Stats overall = statistics.getOverall();
+        statisticsLabel.setText(String.format("Count: %d   Average: $%.2f   Largest: $%s   ",
+                overall.getCount(), overall.getAverage(), ExpenseFormat.formatCents(overall.getMaxCents())));
+        updateTotal(overall.getSumCents());
     }
 }
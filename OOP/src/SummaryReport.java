@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A generated summary report: the formatted text and the figures it was built from.
+ * The layout is written through an Appendable, so the same report can be built in
+ * memory for display or streamed straight to a file by SummaryFileHandler.
+ */
+class SummaryReport {
+    private static final Metrics.Timer GENERATE_TIMER = Metrics.timer("report.generate");
+
+    private final String text;
+    private final ExpenseStatistics statistics;
+
+    private SummaryReport(String text, ExpenseStatistics statistics) {
+        this.text = text;
+        this.statistics = statistics;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public ExpenseStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Generates the summary report. The figures are aggregated by the storage backend; only the
+     * detail lines need the rows, which are taken from loadedRows when every expense is
+     * already in memory, or read through a cursor when loadedRows is null.
+     * Stops with a CancellationException if the calling thread is interrupted.
+     */
+    public static SummaryReport generate(ExpenseStorage storage, List<CategorizedExpense> loadedRows)
+            throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return build(storage, loadedRows);
+        } finally {
+            GENERATE_TIMER.recordSince(start);
+        }
+    }
+
+    private static SummaryReport build(ExpenseStorage storage, List<CategorizedExpense> loadedRows)
+            throws SQLException {
+        ExpenseStatistics statistics = storage.getStatistics();
+        StringBuilder report = new StringBuilder();
+        long rows = 0;
+        try {
+            appendHeader(report, statistics);
+            if (loadedRows != null) {
+                for (CategorizedExpense expense : loadedRows) {
+                    appendDetail(report, expense);
+                    rows++;
+                }
+            } else {
+                try (ExpenseStorage.Cursor cursor = storage.openCursor()) {
+                    while (cursor.hasNext()) {
+                        checkCancelled();
+                        appendDetail(report, cursor.next());
+                        rows++;
+                    }
+                } catch (UncheckedSQLException e) {
+                    throw e.getCause();
+                }
+            }
+            appendFooter(report, rows == 0);
+        } catch (IOException e) {
+            // A StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return new SummaryReport(report.toString(), statistics);
+    }
+
+    /**
+     * Writes the figures part of the report, up to the heading of the detail lines.
+     */
+    static void appendHeader(Appendable report, ExpenseStatistics statistics) throws IOException {
+        ExpenseStatistics.Stats overall = statistics.getOverall();
+        report.append("--- Expense Summary Report ---\n");
+        report.append("Generated On: ").append(LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE)).append("\n");
+        report.append("----------------------------\n\n");
+
+        report.append("Total Expenses: $").append(ExpenseFormat.formatCents(overall.getSumCents())).append("\n");
+        report.append(String.format("Number of Expenses: %d\n", overall.getCount()));
+        report.append(String.format("Average Expense: $%.2f\n", overall.getAverage()));
+        report.append("Largest Expense: $").append(ExpenseFormat.formatCents(overall.getMaxCents())).append("\n\n");
+
+        report.append("Expenses by Category:\n");
+        if (statistics.getByCategory().isEmpty()) {
+            report.append("   No categorized expenses.\n");
+        } else {
+            for (Map.Entry<String, ExpenseStatistics.Stats> entry : statistics.getByCategory().entrySet()) {
+                report.append(String.format("   - %-15s: $%s (%d)\n",
+                        entry.getKey(), ExpenseFormat.formatCents(entry.getValue().getSumCents()), entry.getValue().getCount()));
+            }
+        }
+
+        report.append("\nExpenses by Month:\n");
+        if (statistics.getByMonth().isEmpty()) {
+            report.append("   No expenses.\n");
+        } else {
+            for (Map.Entry<YearMonth, ExpenseStatistics.Stats> entry : statistics.getByMonth().entrySet()) {
+                report.append(String.format("   - %-15s: $%s (%d)\n",
+                        entry.getKey(), ExpenseFormat.formatCents(entry.getValue().getSumCents()), entry.getValue().getCount()));
+            }
+        }
+
+        report.append("\n----------------------------\n");
+        report.append("Detailed Expenses (Using new interfaces):\n");
+    }
+
+    /**
+     * Writes one line of the detailed section of the report.
+     */
+    static void appendDetail(Appendable report, CategorizedExpense expense) throws IOException {
+        // Same text as getSummary() from the Summarizable interface, appended in place
+        report.append("   - ");
+        expense.appendSummaryTo(report);
+        report.append("\n");
+    }
+
+    /**
+     * Closes the detailed section.
+     */
+    static void appendFooter(Appendable report, boolean noDetails) throws IOException {
+        if (noDetails) {
+            report.append("   No detailed expenses.\n");
+        }
+        report.append("----------------------------\n");
+    }
+
+    static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Summary report cancelled");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+import java.sql.SQLException;
+
+/**
+ * Carries a SQLException through APIs that cannot throw checked exceptions,
+ * such as Iterator and Stream.
+ */
+class UncheckedSQLException extends RuntimeException {
+    public UncheckedSQLException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind front end for expense inserts.
+ *
+ * add() writes the expense to the local ExpenseJournal and returns as soon as it is on
+ * disk, with a provisional negative id. A background flusher collects whatever has
+ * queued up (waiting at most a few milliseconds for a batch to fill) and stores it with
+ * one transaction per batch, so many inserts share a single database commit.
+ *
+ * Every batch records the journal position in the database in the same transaction
+ * (see ExpenseTrackerDAO.addJournaledExpenses), so replaying the journal after a crash
+ * stores each expense exactly once. If the database is unreachable (an SQLException)
+ * the batch stays queued and is retried with a growing delay. Any other failure would
+ * only repeat, so the batch is split until the expense causing it is found; that one
+ * is moved to a dead-letter journal next to the journal (expenses.journal.rejected)
+ * and reported as rejected. Nothing is dropped from the journal before it is stored
+ * in one place or the other.
+ */
+class WriteBehindWriter implements AutoCloseable {
+
+    static final int DEFAULT_MAX_BATCH = 500;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+    // Writers block once this many expenses are waiting, instead of growing the queue forever
+    private static final int MAX_QUEUED = 100_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    /** Told on the flusher thread what happened to each queued expense. */
+    interface FlushListener {
+        /** The expense is in the database; stored carries its real id. */
+        void expenseStored(int provisionalId, CategorizedExpense stored);
+
+        /**
+         * The database rejected the expense, or storing it failed for good and it was moved
+         * to the dead-letter journal; it will not be retried.
+         */
+        void expenseRejected(int provisionalId, CategorizedExpense expense, Exception cause);
+    }
+
+    private final ExpenseTrackerDAO dao;
+    private final ExpenseJournal journal;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final FlushListener listener;
+    private final Path deadLetterFile;
+    // Opened by the flusher when it first needs it
+    private ExpenseJournal deadLetters;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Deque<ExpenseJournal.Record> queue = new ArrayDeque<>();
+    private final Thread flusher;
+    private int inFlight;
+    private volatile boolean closing;
+
+    /**
+     * Opens the journal and queues the expenses it still holds from a previous run;
+     * those already stored before a crash are recognised and skipped by the database.
+     */
+    public WriteBehindWriter(ExpenseTrackerDAO dao, Path journalFile, int maxBatch, long maxDelayMillis,
+                             FlushListener listener) throws IOException {
+        this.dao = dao;
+        this.journal = new ExpenseJournal(journalFile);
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.listener = listener;
+        this.deadLetterFile = journalFile.resolveSibling(journalFile.getFileName() + ".rejected");
+        queue.addAll(journal.getRecoveredRecords());
+        flusher = new Thread(this::flushLoop, "expense-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Journals the expense and queues it for the database.
+     *
+     * @return the expense with a provisional (negative) id.
+     */
+    public CategorizedExpense add(CategorizedExpense expense) throws IOException, InvalidExpenseException {
+        return addAll(Collections.singletonList(expense)).get(0);
+    }
+
+    /**
+     * Journals several expenses with one fsync and queues them for the database.
+     */
+    public List<CategorizedExpense> addAll(Collection<CategorizedExpense> expenses)
+            throws IOException, InvalidExpenseException {
+        if (closing) {
+            throw new IllegalStateException("Write-behind writer is closed");
+        }
+        for (CategorizedExpense expense : expenses) {
+            ExpenseValidator.validate(expense);
+        }
+        lock.lock();
+        try {
+            while (queue.size() >= MAX_QUEUED && !closing) {
+                drained.awaitUninterruptibly();
+            }
+            // Appending under the lock keeps the queue in journal (sequence) order
+            List<ExpenseJournal.Record> records = journal.appendAll(expenses);
+            List<CategorizedExpense> added = new ArrayList<>(records.size());
+            for (ExpenseJournal.Record record : records) {
+                // The caller keeps its object with the provisional id; the flusher works on a
+                // copy, so the real id never appears in it from another thread
+                CategorizedExpense expense = record.expense;
+                expense.setId(provisionalId(record.sequence));
+                queue.addLast(new ExpenseJournal.Record(record.sequence, CategorizedExpense.ofCents(0,
+                        expense.getAmountCents(), expense.getCategory(), expense.getDescription(), expense.getDate())));
+                added.add(expense);
+            }
+            queued.signal();
+            return added;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of journaled expenses not yet stored in the database. */
+    public long getPendingCount() {
+        return journal.getPendingCount();
+    }
+
+    /**
+     * Waits until everything queued so far has been stored, or the timeout expires.
+     *
+     * @return true if nothing is pending any more.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lock();
+        try {
+            queued.signal();
+            while (!queue.isEmpty() || inFlight > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                drained.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tries to store what is still queued for a short while, then stops the flusher and
+     * closes the journal. Anything not stored stays in the journal for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            closing = true;
+            // Wake the flusher without interrupting it: an interrupt during file I/O
+            // would close the journal's channel
+            queued.signalAll();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+        if (deadLetters != null) {
+            deadLetters.close();
+        }
+    }
+
+    static int provisionalId(long sequence) {
+        return (int) -sequence;
+    }
+
+    private void flushLoop() {
+        long retryDelay = 100;
+        while (!closing) {
+            List<ExpenseJournal.Record> batch = takeBatch();
+            if (batch.isEmpty()) {
+                continue;
+            }
+            Exception failure = store(batch);
+            if (failure != null) {
+                System.err.println("Write-behind flush failed, retrying in " + retryDelay + " ms: " + failure.getMessage());
+                pause(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+            } else {
+                retryDelay = 100;
+            }
+        }
+    }
+
+    /**
+     * Stores the batch, in order. A failure other than an SQLException (a bad record or a
+     * bug) would only repeat, so the batch is halved until the record causing it is on its
+     * own; that record is moved to the dead-letter journal and reported as rejected, and
+     * its neighbours are stored as usual. The journal is only cut past records that are in
+     * the database or in the dead-letter journal.
+     *
+     * @return null if everything was stored, otherwise the error that stopped it; the
+     *         records not stored are then back, in order, at the head of the queue.
+     */
+    private Exception store(List<ExpenseJournal.Record> batch) {
+        Deque<List<ExpenseJournal.Record>> parts = new ArrayDeque<>();
+        parts.add(batch);
+        Exception failure = null;
+        while (!parts.isEmpty() && failure == null) {
+            List<ExpenseJournal.Record> part = parts.peekFirst();
+            try {
+                BatchInsertResult result = dao.addJournaledExpenses(journal.getJournalId(), part);
+                parts.pollFirst();
+                markFlushed(part);
+                notifyListener(part, result);
+            } catch (SQLException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                parts.pollFirst();
+                if (part.size() > 1) {
+                    parts.addFirst(part.subList(part.size() / 2, part.size()));
+                    parts.addFirst(part.subList(0, part.size() / 2));
+                    continue;
+                }
+                ExpenseJournal.Record record = part.get(0);
+                try {
+                    deadLetter(record);
+                } catch (IOException io) {
+                    // Nowhere safe to put it: keep it in the journal and try again later
+                    parts.addFirst(part);
+                    failure = io;
+                    continue;
+                }
+                System.err.println("Write-behind could not store \"" + record.expense.getDescription()
+                        + "\", moved it to " + deadLetterFile + ": " + e);
+                markFlushed(part);
+                if (listener != null) {
+                    listener.expenseRejected(provisionalId(record.sequence), record.expense, e);
+                }
+            }
+        }
+        List<ExpenseJournal.Record> remaining = new ArrayList<>();
+        parts.forEach(remaining::addAll);
+        finishBatch(remaining);
+        return failure;
+    }
+
+    /** Appends the record to the dead-letter journal, opening it on first use. */
+    private void deadLetter(ExpenseJournal.Record record) throws IOException {
+        if (deadLetters == null) {
+            deadLetters = new ExpenseJournal(deadLetterFile);
+        }
+        deadLetters.append(record.expense);
+    }
+
+    /**
+     * Records the records as done in the journal. If that fails they are still done; the
+     * database's journal offset skips them should they be replayed after a restart.
+     */
+    private void markFlushed(List<ExpenseJournal.Record> records) {
+        try {
+            journal.markFlushed(records.get(records.size() - 1).sequence);
+        } catch (IOException e) {
+            System.err.println("Could not update the write-behind journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the first queued expense, then up to the maximum delay for the batch to
+     * fill, so that expenses arriving close together share one commit. Returns an empty
+     * batch when the writer is closing.
+     */
+    private List<ExpenseJournal.Record> takeBatch() {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (closing) {
+                    return Collections.emptyList();
+                }
+                queued.awaitUninterruptibly();
+            }
+            long deadline = System.nanoTime() + maxDelayNanos;
+            while (queue.size() < maxBatch && !closing) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    queued.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            List<ExpenseJournal.Record> batch = new ArrayList<>(Math.min(queue.size(), maxBatch));
+            while (batch.size() < maxBatch && !queue.isEmpty()) {
+                batch.add(queue.pollFirst());
+            }
+            inFlight = batch.size();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits before a retry, returning early if the writer is closed. */
+    private void pause(long millis) {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(millis);
+            while (remaining > 0 && !closing) {
+                remaining = drained.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            // Retry straight away
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ends the flush of a batch, putting the records not stored back at the head of the queue. */
+    private void finishBatch(List<ExpenseJournal.Record> unstored) {
+        lock.lock();
+        try {
+            for (int i = unstored.size() - 1; i >= 0; i--) {
+                queue.addFirst(unstored.get(i));
+            }
+            inFlight = 0;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void notifyListener(List<ExpenseJournal.Record> batch, BatchInsertResult result) {
+        if (listener == null) {
+            return;
+        }
+        // The DAO wrote the real ids into the queued objects; map them back to their records
+        Map<CategorizedExpense, ExpenseJournal.Record> records = new IdentityHashMap<>();
+        for (ExpenseJournal.Record record : batch) {
+            records.put(record.expense, record);
+        }
+        for (CategorizedExpense stored : result.getInserted()) {
+            listener.expenseStored(provisionalId(records.get(stored).sequence), stored);
+        }
+        for (BatchInsertResult.Failure failure : result.getFailures()) {
+            ExpenseJournal.Record record = batch.get(failure.getIndex());
+            listener.expenseRejected(provisionalId(record.sequence), record.expense, failure.getCause());
+        }
+    }
+}